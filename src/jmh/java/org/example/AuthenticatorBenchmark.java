@@ -0,0 +1,117 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthInput;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthOutput;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.util.Resource;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects per second through {@link MyAuthenticator#onConnect}, against an in-memory key set.
+ * <p>
+ * With one distinct token every connect after the first is served by the token cache, with many distinct tokens
+ * (more than the cache holds) nearly every connect parses the token and verifies its signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticatorBenchmark {
+
+    @Param({"RS256", "ES256"})
+    public String algorithm;
+
+    //token size grows with the topics it grants
+    @Param({"1", "10", "100"})
+    public int topicsPerToken;
+
+    @Param({"1", "4096"})
+    public int distinctTokens;
+
+    private MyAuthenticator authenticator;
+    private ScheduledExecutorService auditWriter;
+    private String[] tokens;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+
+        TokenMinter minter = new TokenMinter(JWSAlgorithm.parse(algorithm), "bench-key");
+        String jwks = minter.jwks();
+        JwksManager jwksManager = new JwksManager(new URL("http://idp.invalid/certs"),
+                url -> new Resource(jwks, "application/json"), null, 60_000, 86_400_000);
+        jwksManager.refresh();
+
+        List<String> topics = new ArrayList<>();
+        for (int i = 0; i < topicsPerToken; i++) {
+            topics.add("sensors/device-" + i + "/telemetry");
+        }
+        tokens = new String[distinctTokens];
+        for (int i = 0; i < distinctTokens; i++) {
+            tokens[i] = minter.mint("sensor-" + i, topics, 3600);
+        }
+
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        props.setProperty("jwt.algorithms", algorithm);
+        //small enough that thousands of distinct tokens miss it
+        props.setProperty("token-cache.max-size", "16");
+        ExtensionConfig config = new ExtensionConfig(props);
+        //audited like in the broker, the lines are discarded
+        AuditLog auditLog = new AuditLog(config.auditBufferSize(), config.auditAllowSampleInterval(), line -> {
+        });
+        auditWriter = Executors.newSingleThreadScheduledExecutor();
+        auditWriter.scheduleWithFixedDelay(auditLog::drain, config.auditFlushIntervalMillis(),
+                config.auditFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+        authenticator = new MyAuthenticator(config, List.of(new Issuer(config, jwksManager)), null, null, null,
+                new PermissionRegistry(8), null, new AuthMetrics(new MetricRegistry()), auditLog);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        auditWriter.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private SimpleAuthInput input;
+        private SimpleAuthOutput output;
+        private final SdkStubs.Decision decision = new SdkStubs.Decision();
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(AuthenticatorBenchmark benchmark) throws Exception {
+            int thread = benchmark.threads.getAndIncrement();
+            String[] tokens = benchmark.tokens;
+            next = thread * 7919;
+            input = SdkStubs.connect("bench-client-" + thread,
+                    () -> tokens[next % tokens.length], SdkStubs.connection(InetAddress.getByName("10.0.0.1")));
+            output = SdkStubs.authOutput(decision);
+        }
+    }
+
+    @Benchmark
+    public boolean onConnect(Client client) {
+        client.next++;
+        client.decision.reset();
+        authenticator.onConnect(client.input, client.output);
+        return client.decision.isAllowed();
+    }
+}
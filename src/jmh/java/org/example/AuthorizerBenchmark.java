@@ -0,0 +1,119 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerInput;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerInput;
+import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packets per second through {@link MyClientAuthorizer}, for connections granted a number of topic patterns of
+ * which a share contains wildcards. Every packet is allowed, each one matching another of the patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorizerBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int allowedTopics;
+
+    //share of the patterns with a + or # wildcard
+    @Param({"0", "0.5", "1"})
+    public double wildcardDensity;
+
+    @Param({"0", "8"})
+    public int publishCacheSlots;
+
+    private MyClientAuthorizer authorizer;
+    private ScheduledExecutorService auditWriter;
+    private PermissionRegistry registry;
+    private TokenPermissions permissions;
+    private String[] publishTopics;
+    private String[] subscribeFilters;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> patterns = new ArrayList<>();
+        publishTopics = new String[allowedTopics];
+        int wildcards = (int) Math.round(allowedTopics * wildcardDensity);
+        for (int i = 0; i < allowedTopics; i++) {
+            if (i >= wildcards) {
+                patterns.add("sensors/device-" + i + "/telemetry");
+                publishTopics[i] = "sensors/device-" + i + "/telemetry";
+            } else if (i % 2 == 0) {
+                patterns.add("sensors/device-" + i + "/+/telemetry");
+                publishTopics[i] = "sensors/device-" + i + "/room-3/telemetry";
+            } else {
+                patterns.add("sensors/device-" + i + "/#");
+                publishTopics[i] = "sensors/device-" + i + "/cmd/reboot";
+            }
+        }
+        subscribeFilters = patterns.toArray(new String[0]);
+        permissions = new TokenPermissions(patterns, List.of(), List.of(), 2);
+        registry = new PermissionRegistry(publishCacheSlots);
+        //audited like in the broker, the lines are discarded
+        ExtensionConfig config = ExtensionConfig.defaults();
+        AuditLog auditLog = new AuditLog(config.auditBufferSize(), config.auditAllowSampleInterval(), line -> {
+        });
+        auditWriter = Executors.newSingleThreadScheduledExecutor();
+        auditWriter.scheduleWithFixedDelay(auditLog::drain, config.auditFlushIntervalMillis(),
+                config.auditFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+        authorizer = new MyClientAuthorizer(registry, new AuthMetrics(new MetricRegistry()), auditLog);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        auditWriter.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private PublishAuthorizerInput publish;
+        private PublishAuthorizerOutput publishOutput;
+        private SubscriptionAuthorizerInput subscribe;
+        private SubscriptionAuthorizerOutput subscribeOutput;
+        private final SdkStubs.Decision decision = new SdkStubs.Decision();
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(AuthorizerBenchmark benchmark) {
+            int thread = benchmark.threads.getAndIncrement();
+            String clientId = "bench-client-" + thread;
+            benchmark.registry.register(clientId, clientId, thread + 1, benchmark.permissions);
+            String[] topics = benchmark.publishTopics;
+            String[] filters = benchmark.subscribeFilters;
+            publish = SdkStubs.publish(clientId, () -> topics[next % topics.length], Qos.AT_LEAST_ONCE);
+            publishOutput = SdkStubs.publishOutput(decision);
+            subscribe = SdkStubs.subscribe(clientId, () -> filters[next % filters.length], Qos.AT_LEAST_ONCE);
+            subscribeOutput = SdkStubs.subscribeOutput(decision);
+        }
+    }
+
+    @Benchmark
+    public boolean authorizePublish(Connection connection) {
+        connection.next++;
+        authorizer.authorizePublish(connection.publish, connection.publishOutput);
+        return connection.decision.isAllowed();
+    }
+
+    @Benchmark
+    public boolean authorizeSubscribe(Connection connection) {
+        connection.next++;
+        authorizer.authorizeSubscribe(connection.subscribe, connection.subscribeOutput);
+        return connection.decision.isAllowed();
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decisions per second written to the {@link DecisionJournal}, rotating through real segment files in a temporary
+ * directory. Every operation journals one publish decision of a connection with a few recurring topics, like the
+ * authorizer does for every PUBLISH. With {@code topics} 0 every topic is new, the worst case for the dictionary,
+ * like per-device topics of a large fleet: each decision writes a dictionary entry, and the topic string is built
+ * by the benchmark itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecisionJournalBenchmark {
+
+    @Param({"64"})
+    public int segmentSizeMb;
+
+    //distinct topics per connection, each one is a dictionary entry per segment, 0 for a new topic every time
+    @Param({"10", "1000", "0"})
+    public int topics;
+
+    private Path directory;
+    private DecisionJournal journal;
+    private String[] topicNames;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal-bench");
+        //a few segments, so the run rotates without filling the disk
+        journal = new DecisionJournal(directory, segmentSizeMb * 1024L * 1024L, 0, 4);
+        topicNames = new String[Math.max(1, topics)];
+        for (int i = 0; i < topics; i++) {
+            topicNames[i] = "sensors/device-" + i + "/telemetry";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        journal.close();
+        for (Path segment : DecisionJournal.segments(directory)) {
+            Files.deleteIfExists(segment);
+            Files.deleteIfExists(DecisionJournal.dictionaryOf(segment));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private String clientId;
+        private String[] topics;
+        private boolean unique;
+        private long next;
+
+        @Setup(Level.Trial)
+        public void setUp(DecisionJournalBenchmark benchmark) {
+            clientId = "bench-client-" + benchmark.threads.getAndIncrement();
+            topics = benchmark.topicNames;
+            unique = benchmark.topics == 0;
+        }
+    }
+
+    @Benchmark
+    public void journalPublish(Connection connection) {
+        long next = connection.next++;
+        String topic = connection.unique
+                ? "sensors/" + connection.clientId + "/telemetry/" + next
+                : connection.topics[(int) (next % connection.topics.length)];
+        journal.publish(connection.clientId, connection.clientId, topic, true, null);
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jwt.JWTClaimsSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tokens per second fully validated by {@link TokenValidator}, signature included, per signature algorithm, without
+ * the caches of the authenticator. The setup prints the size of a token on the wire, which is what a client sends
+ * with every CONNECT:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="TokenVerificationBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+    @Param({"RS256", "PS256", "ES256", "EdDSA"})
+    public String algorithm;
+
+    @Param({"1", "10"})
+    public int topicsPerToken;
+
+    private TokenValidator validator;
+    private String[] tokens;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        TokenMinter minter = new TokenMinter(JWSAlgorithm.parse(algorithm), "bench-key");
+        String jwks = minter.jwks();
+        JwksManager jwksManager = new JwksManager(new URL("http://idp.invalid/certs"),
+                url -> new Resource(jwks, "application/json"), null, 60_000, 86_400_000);
+        jwksManager.refresh();
+
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        props.setProperty("jwt.algorithms", algorithm);
+        ExtensionConfig config = new ExtensionConfig(props);
+        validator = new TokenValidator(config, List.of(new Issuer(config, jwksManager)),
+                new AuthMetrics(new MetricRegistry()));
+
+        tokens = new String[1024];
+        for (int i = 0; i < tokens.length; i++) {
+            List<String> topics = new ArrayList<>();
+            for (int t = 0; t < topicsPerToken; t++) {
+                topics.add("sensors/device-" + i + "/channel-" + t);
+            }
+            tokens[i] = minter.mint("sensor-" + i, topics, 3600);
+        }
+        String token = tokens[0];
+        System.out.printf("%n%s token with %d topics: %d bytes, %d of them signature%n", algorithm, topicsPerToken,
+                token.getBytes(StandardCharsets.US_ASCII).length, token.length() - token.lastIndexOf('.') - 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(TokenVerificationBenchmark benchmark) {
+            next = benchmark.threads.getAndIncrement() * 7919;
+        }
+    }
+
+    @Benchmark
+    public JWTClaimsSet validate(Client client) throws Exception {
+        return validator.validate(tokens[client.next++ % tokens.length]);
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many token verifications run at the same time.
+ * <p>
+ * A verification either gets a permit right away ({@link #tryAcquire()}) or waits in a bounded queue
+ * ({@link #enqueue}). When a running verification calls {@link #release()}, its permit is handed to the oldest
+ * waiting one, which is started on the dispatcher. Waiting verifications that are older than the maximum wait are
+ * rejected instead of started, the client has most likely given up on its CONNACK by then.
+ */
+public class AdmissionController {
+
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long maxWaitNanos;
+    private final Executor dispatcher;
+    private final LongSupplier nanoClock;
+
+    //guarded by this
+    private final ArrayDeque<Waiting> waiting = new ArrayDeque<>();
+    private int running;
+    private long rejected;
+
+    public AdmissionController(int maxConcurrent, int maxWaiting, long maxWaitMillis, @NotNull Executor dispatcher) {
+        this(maxConcurrent, maxWaiting, maxWaitMillis, dispatcher, System::nanoTime);
+    }
+
+    AdmissionController(int maxConcurrent, int maxWaiting, long maxWaitMillis, @NotNull Executor dispatcher,
+                        @NotNull LongSupplier nanoClock) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.dispatcher = dispatcher;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true if the caller may verify right away and has to call {@link #release()} afterwards
+     */
+    public synchronized boolean tryAcquire() {
+        //waiting verifications go first
+        if (running < maxConcurrent && waiting.isEmpty()) {
+            running++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queues a verification until a permit is free. The task is run on the dispatcher and has to call
+     * {@link #release()} when done, unless it is rejected.
+     *
+     * @param onRejected called instead of the task if it waited too long or the dispatcher is full
+     * @return false if the queue is full, nothing is called then
+     */
+    public boolean enqueue(@NotNull Runnable task, @NotNull Runnable onRejected) {
+        synchronized (this) {
+            if (running >= maxConcurrent || !waiting.isEmpty()) {
+                if (waiting.size() >= maxWaiting) {
+                    rejected++;
+                    return false;
+                }
+                waiting.addLast(new Waiting(task, onRejected, nanoClock.getAsLong()));
+                return true;
+            }
+            //a permit was released since tryAcquire
+            running++;
+        }
+        dispatch(new Waiting(task, onRejected, nanoClock.getAsLong()));
+        return true;
+    }
+
+    /**
+     * Returns the permit of a finished verification, or hands it to the next waiting one.
+     */
+    public void release() {
+        List<Waiting> expired = null;
+        Waiting next = null;
+        long now = nanoClock.getAsLong();
+        synchronized (this) {
+            Waiting candidate;
+            while ((candidate = waiting.pollFirst()) != null) {
+                if (now - candidate.enqueuedAt <= maxWaitNanos) {
+                    next = candidate;
+                    break;
+                }
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(candidate);
+                rejected++;
+            }
+            if (next == null) {
+                running--;
+            }
+        }
+        if (expired != null) {
+            for (Waiting waitedTooLong : expired) {
+                waitedTooLong.onRejected.run();
+            }
+        }
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private void dispatch(Waiting next) {
+        try {
+            dispatcher.execute(next.task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                rejected++;
+            }
+            next.onRejected.run();
+            release();
+        }
+    }
+
+    public synchronized int running() {
+        return running;
+    }
+
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    //verifications turned away because the queue was full or they waited too long
+    public synchronized long rejectedCount() {
+        return rejected;
+    }
+
+    private static final class Waiting {
+        final Runnable task;
+        final Runnable onRejected;
+        final long enqueuedAt;
+
+        Waiting(Runnable task, Runnable onRejected, long enqueuedAt) {
+            this.task = task;
+            this.onRejected = onRejected;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
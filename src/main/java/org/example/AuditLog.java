@@ -0,0 +1,240 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Audit trail of authentication and authorization decisions, written off the hot path.
+ * <p>
+ * Decisions are recorded into a fixed ring of preallocated slots (a bounded multi-producer queue after Dmitry
+ * Vyukov): a producer claims a slot with one CAS and fills it in place, so recording neither locks nor allocates.
+ * {@link #drain()} is run periodically on a background thread and writes the recorded decisions as one line each.
+ * When the writer falls behind and the ring is full, further decisions are dropped and counted, a producer never
+ * waits for it.
+ * <p>
+ * Every denial is recorded, allowed decisions only one in {@code allowSampleInterval}. Tokens never reach the
+ * audit trail, a decision only names the token by the fingerprint of its SHA-256 digest.
+ */
+public class AuditLog implements DecisionRecorder {
+
+    public static final String LOGGER_NAME = AuthMetrics.PREFIX + ".audit";
+
+    //slots written by a producer and read back by the writer, the sequence tells whose turn it is
+    private static final class Slot {
+        volatile long sequence;
+        long timestamp;
+        Type type;
+        boolean allowed;
+        String clientId;
+        String subject;
+        String topic;
+        String reason;
+        long tokenFingerprint;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    //next position claimed by a producer
+    private final AtomicLong tail = new AtomicLong();
+    //next position read by the writer, only written under the lock of drain()
+    private volatile long head;
+    private final int allowSampleInterval;
+    private final Consumer<CharSequence> writer;
+
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written;
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * @param capacity            decisions buffered until the writer catches up, rounded up to a power of two
+     * @param allowSampleInterval one in this many allowed decisions is recorded, 0 records none of them
+     * @param writer              receives every recorded decision as one line, on the thread running {@link #drain()},
+     *                            the line is reused for the next decision
+     */
+    public AuditLog(int capacity, int allowSampleInterval, @NotNull Consumer<CharSequence> writer) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Audit buffer size must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        this.mask = size - 1;
+        this.allowSampleInterval = allowSampleInterval;
+        this.writer = writer;
+    }
+
+    //writes to the audit logger, which can be routed to its own file in the broker's logback.xml
+    public static @NotNull AuditLog toLogger(int capacity, int allowSampleInterval) {
+        Logger auditLogger = LoggerFactory.getLogger(LOGGER_NAME);
+        return new AuditLog(capacity, allowSampleInterval, line -> auditLogger.info(line.toString()));
+    }
+
+    @Override
+    public void connect(@NotNull String clientId, @Nullable String subject, long tokenFingerprint,
+                        boolean reAuthentication, boolean allowed, @Nullable String reason) {
+        record(reAuthentication ? Type.REAUTH : Type.CONNECT, allowed, clientId, subject, null, reason, tokenFingerprint);
+    }
+
+    @Override
+    public void publish(@NotNull String clientId, @Nullable String subject, @NotNull String topic,
+                        boolean allowed, @Nullable String reason) {
+        record(Type.PUBLISH, allowed, clientId, subject, topic, reason, 0);
+    }
+
+    @Override
+    public void subscribe(@NotNull String clientId, @Nullable String subject, @NotNull String topicFilter,
+                          boolean allowed, @Nullable String reason) {
+        record(Type.SUBSCRIBE, allowed, clientId, subject, topicFilter, reason, 0);
+    }
+
+    private void record(Type type, boolean allowed, String clientId, String subject, String topic, String reason,
+                        long tokenFingerprint) {
+        if (allowed && !sampled()) {
+            return;
+        }
+
+        Slot slot;
+        long position = tail.get();
+        while (true) {
+            slot = slots[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                //the writer hasn't read this slot yet, a full lap behind
+                dropped.increment();
+                return;
+            } else {
+                //another producer claimed it first
+                position = tail.get();
+            }
+        }
+
+        slot.timestamp = System.currentTimeMillis();
+        slot.type = type;
+        slot.allowed = allowed;
+        slot.clientId = clientId;
+        slot.subject = subject;
+        slot.topic = topic;
+        slot.reason = reason;
+        slot.tokenFingerprint = tokenFingerprint;
+        //publishes the fields to the writer
+        slot.sequence = position + 1;
+    }
+
+    //a random draw instead of a shared counter, so producers don't contend on it
+    private boolean sampled() {
+        return allowSampleInterval == 1
+                || allowSampleInterval > 1 && ThreadLocalRandom.current().nextInt(allowSampleInterval) == 0;
+    }
+
+    /**
+     * Writes every decision recorded so far. Meant to run on a single background thread, concurrent calls wait for
+     * each other.
+     *
+     * @return the number of decisions written
+     */
+    public synchronized int drain() {
+        int count = 0;
+        while (true) {
+            Slot slot = slots[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                //not recorded yet, or still being filled in
+                break;
+            }
+            line.setLength(0);
+            format(line, slot.timestamp, slot.type, slot.allowed, slot.clientId, slot.subject, slot.topic,
+                    slot.reason, slot.tokenFingerprint);
+            slot.clientId = null;
+            slot.subject = null;
+            slot.topic = null;
+            slot.reason = null;
+            //hands the slot back to the producers for the next lap
+            slot.sequence = head + slots.length;
+            head++;
+            try {
+                writer.accept(line);
+                count++;
+            } catch (RuntimeException e) {
+                //a failing appender must not stop the writer
+                dropped.increment();
+            }
+        }
+        written += count;
+        return count;
+    }
+
+    //one decision as a line of key=value pairs, also used by the DecisionJournalReader
+    static void format(@NotNull StringBuilder line, long timestamp, @NotNull Type type, boolean allowed,
+                       @NotNull String clientId, @Nullable String subject, @Nullable String topic,
+                       @Nullable String reason, long tokenFingerprint) {
+        line.append(Instant.ofEpochMilli(timestamp))
+                .append(' ').append(type)
+                .append(' ').append(allowed ? "allow" : "deny")
+                .append(" client=");
+        appendQuoted(line, clientId);
+        if (subject != null) {
+            line.append(" sub=");
+            appendQuoted(line, subject);
+        }
+        if (topic != null) {
+            line.append(" topic=");
+            appendQuoted(line, topic);
+        }
+        if (reason != null) {
+            line.append(" reason=").append(reason);
+        }
+        if (tokenFingerprint != 0) {
+            line.append(" token=");
+            String hex = Long.toHexString(tokenFingerprint);
+            for (int i = hex.length(); i < 16; i++) {
+                line.append('0');
+            }
+            line.append(hex);
+        }
+    }
+
+    //client ids and topics come from the client, so they can't break the line or fake fields
+    private static void appendQuoted(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                line.append("\\u").append(String.format("%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    //decisions dropped because the buffer was full or the writer failed
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long writtenCount() {
+        return written;
+    }
+
+    //recorded but not yet written
+    public long pending() {
+        return Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of the authentication and authorization hot paths, registered with HiveMQ's metric registry under
+ * {@value #PREFIX}, so they show up wherever the broker's own metrics are exported.
+ * <p>
+ * Everything updated per connect or per packet is created once here: timers use a
+ * {@link RandomReplacementReservoir} and counters are striped, so recording neither allocates nor locks.
+ * Cache sizes and hit ratios are gauges reading the counters the caches keep anyway.
+ */
+public class AuthMetrics {
+
+    public static final String PREFIX = "com.hivemq.extensions.jwt-auth";
+
+    private final MetricRegistry registry;
+
+    //whole connect, from receiving the token until the client is accepted or rejected
+    private final Timer connectTime;
+    private final Timer parseTime;
+    private final Timer signatureTime;
+    private final Timer claimsTime;
+    private final Counter accepted;
+    //indexed by RejectReason ordinal
+    private final Counter[] rejected;
+    //indexed by TokenValidator.Stage ordinal
+    private final Counter[] stageRejected;
+
+    private final Timer publishAuthorizationTime;
+    private final Timer subscribeAuthorizationTime;
+    private final Counter publishDenied;
+    private final Counter subscribeDenied;
+
+    public AuthMetrics(@NotNull MetricRegistry registry) {
+        this.registry = registry;
+        //left over from a previous start of the extension, they would still read the old instances
+        remove();
+        connectTime = timer("connect.time");
+        parseTime = timer("connect.parse.time");
+        signatureTime = timer("connect.signature.time");
+        claimsTime = timer("connect.claims.time");
+        accepted = registry.counter(name("connect.accepted"));
+        RejectReason[] reasons = RejectReason.values();
+        rejected = new Counter[reasons.length];
+        for (RejectReason reason : reasons) {
+            rejected[reason.ordinal()] = registry.counter(
+                    name("connect.rejected." + reason.name().toLowerCase(Locale.ROOT).replace('_', '-')));
+        }
+        TokenValidator.Stage[] stages = TokenValidator.Stage.values();
+        stageRejected = new Counter[stages.length];
+        for (TokenValidator.Stage stage : stages) {
+            stageRejected[stage.ordinal()] = registry.counter(
+                    name("connect.stage." + stage.name().toLowerCase(Locale.ROOT) + ".rejected"));
+        }
+        publishAuthorizationTime = timer("authorizer.publish.time");
+        subscribeAuthorizationTime = timer("authorizer.subscribe.time");
+        publishDenied = registry.counter(name("authorizer.publish.denied"));
+        subscribeDenied = registry.counter(name("authorizer.subscribe.denied"));
+    }
+
+    private Timer timer(String name) {
+        return registry.timer(name(name), () -> new Timer(new RandomReplacementReservoir()));
+    }
+
+    private static String name(String name) {
+        return MetricRegistry.name(PREFIX, name);
+    }
+
+    public void gauge(@NotNull String name, @NotNull LongSupplier value) {
+        registry.gauge(name(name), () -> (Gauge<Long>) value::getAsLong);
+    }
+
+    //hits / (hits + misses), NaN before the first lookup
+    public void hitRatio(@NotNull String name, @NotNull LongSupplier hits, @NotNull LongSupplier misses) {
+        registry.gauge(name(name), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                long hitCount = hits.getAsLong();
+                return Ratio.of(hitCount, hitCount + misses.getAsLong());
+            }
+        });
+    }
+
+    public void timer(@NotNull String name, @NotNull Timer timer) {
+        registry.register(name(name), timer);
+    }
+
+    public void accepted(long startNanos) {
+        connectTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        accepted.inc();
+    }
+
+    public void rejected(@NotNull RejectReason reason, long startNanos) {
+        connectTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        rejected[reason.ordinal()].inc();
+    }
+
+    //a token rejected by this validation stage, the reason is counted once the connect is rejected
+    public void stageRejected(@NotNull TokenValidator.Stage stage) {
+        stageRejected[stage.ordinal()].inc();
+    }
+
+    public void parsed(long startNanos) {
+        parseTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void signatureVerified(long startNanos) {
+        signatureTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void claimsVerified(long startNanos) {
+        claimsTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void publishAuthorized(long startNanos, boolean allowed) {
+        publishAuthorizationTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (!allowed) {
+            publishDenied.inc();
+        }
+    }
+
+    public void subscribeAuthorized(long startNanos, boolean allowed) {
+        subscribeAuthorizationTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (!allowed) {
+            subscribeDenied.inc();
+        }
+    }
+
+    public long acceptedCount() {
+        return accepted.getCount();
+    }
+
+    public long rejectedCount(@NotNull RejectReason reason) {
+        return rejected[reason.ordinal()].getCount();
+    }
+
+    public long stageRejectedCount(@NotNull TokenValidator.Stage stage) {
+        return stageRejected[stage.ordinal()].getCount();
+    }
+
+    //removes every metric of the extension from the broker's registry
+    public void remove() {
+        registry.removeMatching(MetricFilter.startsWith(PREFIX + "."));
+    }
+}
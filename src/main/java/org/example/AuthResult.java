@@ -0,0 +1,184 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.async.TimeoutFallback;
+import com.hivemq.extension.sdk.api.auth.parameter.EnhancedAuthOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.ModifiableDefaultPermissions;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthOutput;
+import com.hivemq.extension.sdk.api.packets.connect.ConnackReasonCode;
+import com.hivemq.extension.sdk.api.packets.general.DisconnectedReasonCode;
+
+import java.time.Duration;
+
+/**
+ * The parts of {@link SimpleAuthOutput} and {@link EnhancedAuthOutput} the authentication needs,
+ * so CONNECT and re-authentication share one implementation.
+ */
+interface AuthResult {
+
+    void succeed();
+
+    void fail();
+
+    void fail(@NotNull ConnackReasonCode reasonCode, @NotNull String reasonString);
+
+    @NotNull ModifiableDefaultPermissions defaultPermissions();
+
+    /**
+     * Continues asynchronously. The returned result resumes the authentication once it succeeded or failed.
+     */
+    @NotNull AuthResult async(@NotNull Duration timeout);
+
+    /**
+     * True once the timeout of an async result fired. The client was already failed by the timeout fallback,
+     * nothing is written to the output anymore.
+     */
+    boolean timedOut();
+
+    static @NotNull AuthResult of(@NotNull SimpleAuthOutput output) {
+        return new SimpleResult(output, null);
+    }
+
+    static @NotNull AuthResult of(@NotNull EnhancedAuthOutput output) {
+        return new EnhancedResult(output, null);
+    }
+
+    final class SimpleResult implements AuthResult {
+        private final SimpleAuthOutput output;
+        private final Async<SimpleAuthOutput> async;
+
+        private SimpleResult(SimpleAuthOutput output, Async<SimpleAuthOutput> async) {
+            this.output = output;
+            this.async = async;
+        }
+
+        @Override
+        public void succeed() {
+            if (timedOut()) {
+                return;
+            }
+            output.authenticateSuccessfully();
+            resume();
+        }
+
+        @Override
+        public void fail() {
+            if (timedOut()) {
+                return;
+            }
+            output.failAuthentication();
+            resume();
+        }
+
+        @Override
+        public void fail(@NotNull ConnackReasonCode reasonCode, @NotNull String reasonString) {
+            if (timedOut()) {
+                return;
+            }
+            output.failAuthentication(reasonCode, reasonString);
+            resume();
+        }
+
+        @Override
+        public @NotNull ModifiableDefaultPermissions defaultPermissions() {
+            return output.getDefaultPermissions();
+        }
+
+        @Override
+        public @NotNull AuthResult async(@NotNull Duration timeout) {
+            Async<SimpleAuthOutput> async = output.async(timeout, TimeoutFallback.FAILURE);
+            return new SimpleResult(async.getOutput(), async);
+        }
+
+        @Override
+        public boolean timedOut() {
+            return async != null && async.getStatus() == Async.Status.CANCELED;
+        }
+
+        private void resume() {
+            if (async != null) {
+                async.resume();
+            }
+        }
+    }
+
+    final class EnhancedResult implements AuthResult {
+        private final EnhancedAuthOutput output;
+        private final Async<EnhancedAuthOutput> async;
+
+        private EnhancedResult(EnhancedAuthOutput output, Async<EnhancedAuthOutput> async) {
+            this.output = output;
+            this.async = async;
+        }
+
+        @Override
+        public void succeed() {
+            if (timedOut()) {
+                return;
+            }
+            output.authenticateSuccessfully();
+            resume();
+        }
+
+        @Override
+        public void fail() {
+            if (timedOut()) {
+                return;
+            }
+            output.failAuthentication();
+            resume();
+        }
+
+        @Override
+        public void fail(@NotNull ConnackReasonCode reasonCode, @NotNull String reasonString) {
+            if (timedOut()) {
+                return;
+            }
+            output.failAuthentication(disconnectReasonOf(reasonCode), reasonString);
+            resume();
+        }
+
+        @Override
+        public @NotNull ModifiableDefaultPermissions defaultPermissions() {
+            return output.getDefaultPermissions();
+        }
+
+        @Override
+        public @NotNull AuthResult async(@NotNull Duration timeout) {
+            Async<EnhancedAuthOutput> async = output.async(timeout, TimeoutFallback.FAILURE);
+            return new EnhancedResult(async.getOutput(), async);
+        }
+
+        @Override
+        public boolean timedOut() {
+            return async != null && async.getStatus() == Async.Status.CANCELED;
+        }
+
+        private void resume() {
+            if (async != null) {
+                async.resume();
+            }
+        }
+
+        //a failed re-authentication is answered with a DISCONNECT, which only has some of the CONNACK codes
+        static @NotNull DisconnectedReasonCode disconnectReasonOf(@NotNull ConnackReasonCode reasonCode) {
+            switch (reasonCode) {
+                case NOT_AUTHORIZED:
+                case BAD_USER_NAME_OR_PASSWORD:
+                case BANNED:
+                    return DisconnectedReasonCode.NOT_AUTHORIZED;
+                case SERVER_BUSY:
+                    return DisconnectedReasonCode.SERVER_BUSY;
+                case BAD_AUTHENTICATION_METHOD:
+                    return DisconnectedReasonCode.BAD_AUTHENTICATION_METHOD;
+                case CONNECTION_RATE_EXCEEDED:
+                    return DisconnectedReasonCode.CONNECTION_RATE_EXCEEDED;
+                case QUOTA_EXCEEDED:
+                    return DisconnectedReasonCode.QUOTA_EXCEEDED;
+                default:
+                    return DisconnectedReasonCode.UNSPECIFIED_ERROR;
+            }
+        }
+    }
+}
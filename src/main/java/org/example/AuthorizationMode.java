@@ -0,0 +1,28 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+//How the topic permissions of a token are enforced
+public enum AuthorizationMode {
+
+    //MyClientAuthorizer is called for every PUBLISH and SUBSCRIBE
+    AUTHORIZER("authorizer"),
+
+    //the permissions are handed to HiveMQ as default permissions at CONNECT and enforced by the broker itself
+    DEFAULT_PERMISSIONS("default-permissions");
+
+    private final String configValue;
+
+    AuthorizationMode(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public static @NotNull AuthorizationMode fromConfigValue(@NotNull String value) {
+        for (AuthorizationMode mode : values()) {
+            if (mode.configValue.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown authorization.mode: " + value);
+    }
+}
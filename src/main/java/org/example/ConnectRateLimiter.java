@@ -0,0 +1,86 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Per source address connect rate limit.
+ * <p>
+ * Uses the generic cell rate algorithm: every slot holds a single timestamp, the theoretical arrival time of the next
+ * connect, which is updated with a CAS, so no locks and no per-address objects are needed. Addresses are hashed into
+ * a fixed number of slots, so the memory use doesn't depend on the number of clients. Addresses sharing a slot share
+ * their limit, which only ever makes the limit stricter.
+ */
+public class ConnectRateLimiter {
+
+    //512 KB of timestamps, plenty for the number of NAT gateways and devices connecting at the same time
+    public static final int DEFAULT_SLOTS = 65_536;
+
+    private final AtomicLongArray theoreticalArrival;
+    private final int mask;
+    //nanos between two connects at the sustained rate
+    private final long emissionInterval;
+    //how far the theoretical arrival time may run ahead of now, allows bursts
+    private final long burstTolerance;
+    private final LongSupplier nanoClock;
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * @param connectsPerSecond sustained connects per second and address
+     * @param burst             connects an address may make at once after being idle
+     * @param slots             number of slots, rounded up to a power of two
+     */
+    public ConnectRateLimiter(int connectsPerSecond, int burst, int slots) {
+        this(connectsPerSecond, burst, slots, System::nanoTime);
+    }
+
+    ConnectRateLimiter(int connectsPerSecond, int burst, int slots, @NotNull LongSupplier nanoClock) {
+        if (connectsPerSecond < 1) {
+            throw new IllegalArgumentException("connectsPerSecond must be at least 1: " + connectsPerSecond);
+        }
+        int size = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+        this.theoreticalArrival = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.emissionInterval = TimeUnit.SECONDS.toNanos(1) / connectsPerSecond;
+        this.burstTolerance = emissionInterval * (Math.max(1, burst) - 1);
+        this.nanoClock = nanoClock;
+        //all slots start idle
+        long idle = nanoClock.getAsLong() - emissionInterval - burstTolerance;
+        for (int i = 0; i < size; i++) {
+            theoreticalArrival.set(i, idle);
+        }
+    }
+
+    /**
+     * @return false if the address exceeded its rate and the connect should be refused
+     */
+    public boolean tryAcquire(@NotNull InetAddress address) {
+        int slot = spread(address.hashCode()) & mask;
+        long now = nanoClock.getAsLong();
+        while (true) {
+            long tat = theoreticalArrival.get(slot);
+            long next = tat - now > 0 ? tat : now;
+            if (next - now > burstTolerance) {
+                limited.increment();
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(slot, tat, next + emissionInterval)) {
+                return true;
+            }
+        }
+    }
+
+    public long limitedCount() {
+        return limited.sum();
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
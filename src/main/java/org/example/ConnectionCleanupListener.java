@@ -0,0 +1,44 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionAttributeStore;
+import com.hivemq.extension.sdk.api.events.client.ClientLifecycleEventListener;
+import com.hivemq.extension.sdk.api.events.client.parameters.AuthenticationSuccessfulInput;
+import com.hivemq.extension.sdk.api.events.client.parameters.ConnectionStartInput;
+import com.hivemq.extension.sdk.api.events.client.parameters.DisconnectEventInput;
+
+//Drops the compiled permissions and the scheduled token expiration of a connection once it is closed
+public class ConnectionCleanupListener implements ClientLifecycleEventListener {
+
+    private final PermissionRegistry permissionRegistry;
+    private final @Nullable TokenExpiryWheel expiryWheel;
+
+    public ConnectionCleanupListener(@NotNull PermissionRegistry permissionRegistry, @Nullable TokenExpiryWheel expiryWheel) {
+        this.permissionRegistry = permissionRegistry;
+        this.expiryWheel = expiryWheel;
+    }
+
+    @Override
+    public void onMqttConnectionStart(@NotNull ConnectionStartInput connectionStartInput) {
+    }
+
+    @Override
+    public void onAuthenticationSuccessful(@NotNull AuthenticationSuccessfulInput authenticationSuccessfulInput) {
+    }
+
+    @Override
+    public void onDisconnect(@NotNull DisconnectEventInput disconnectEventInput) {
+        String clientId = disconnectEventInput.getClientInformation().getClientId();
+        ConnectionAttributeStore attributeStore = disconnectEventInput.getConnectionInformation().getConnectionAttributeStore();
+        long connectionId = ConnectionIds.of(attributeStore);
+        if (connectionId == 0) {
+            //not authenticated by this extension
+            return;
+        }
+        permissionRegistry.unregister(clientId, connectionId);
+        if (expiryWheel != null) {
+            expiryWheel.cancel(clientId, connectionId);
+        }
+    }
+}
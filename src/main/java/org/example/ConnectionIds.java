@@ -0,0 +1,40 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionAttributeStore;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IDs for single connections, stored in their attribute store. A client that takes over its own session is
+ * authenticated before its old connection is closed, so everything keyed by client ID also keeps the connection ID
+ * and only lets events of that connection remove it.
+ */
+final class ConnectionIds {
+
+    static final String ATTRIBUTE_CONNECTION_ID = "jwt_connection_id";
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private ConnectionIds() {
+    }
+
+    //the ID of the connection, assigned on first use
+    static long getOrAssign(@NotNull ConnectionAttributeStore attributeStore) {
+        long id = of(attributeStore);
+        if (id != 0) {
+            return id;
+        }
+        id = NEXT_ID.incrementAndGet();
+        attributeStore.put(ATTRIBUTE_CONNECTION_ID, ByteBuffer.allocate(Long.BYTES).putLong(0, id));
+        return id;
+    }
+
+    //0 if the connection has none
+    static long of(@NotNull ConnectionAttributeStore attributeStore) {
+        Optional<ByteBuffer> id = attributeStore.get(ATTRIBUTE_CONNECTION_ID);
+        return id.map(buffer -> buffer.getLong(0)).orElse(0L);
+    }
+}
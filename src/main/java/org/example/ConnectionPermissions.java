@@ -0,0 +1,64 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Immutable, pre-compiled topic permissions of an authenticated connection.
+ * Built once at CONNECT so that the authorizer only has to walk a trie per packet,
+ * and shared by all connections with the same permissions through the {@link PermissionInterner}.
+ */
+public final class ConnectionPermissions {
+
+    private final TopicPermissionTrie publishTopics;
+    private final TopicPermissionTrie subscribeTopics;
+    private final int maxQos;
+    private final @Nullable TokenDigest policyKey;
+
+    ConnectionPermissions(@NotNull TopicPermissionTrie publishTopics, @NotNull TopicPermissionTrie subscribeTopics,
+                          int maxQos, @Nullable TokenDigest policyKey) {
+        this.publishTopics = publishTopics;
+        this.subscribeTopics = subscribeTopics;
+        this.maxQos = maxQos;
+        this.policyKey = policyKey;
+    }
+
+    public static @NotNull ConnectionPermissions compile(@NotNull TokenPermissions permissions) {
+        return compile(permissions, null);
+    }
+
+    static @NotNull ConnectionPermissions compile(@NotNull TokenPermissions permissions, @Nullable TokenDigest policyKey) {
+        TopicPermissionTrie publishTopics = TopicPermissionTrie.compile(permissions.publishPatterns());
+        //the same trie serves both activities when the token has no activity-specific claims
+        TopicPermissionTrie subscribeTopics = permissions.subscribePatterns().equals(permissions.publishPatterns())
+                ? publishTopics
+                : TopicPermissionTrie.compile(permissions.subscribePatterns());
+        return new ConnectionPermissions(publishTopics, subscribeTopics, permissions.maxQos(), policyKey);
+    }
+
+    //digest of the normalized permissions this instance was interned under, null if it is not shared
+    @Nullable TokenDigest policyKey() {
+        return policyKey;
+    }
+
+    public boolean allowsPublish(@NotNull String topic, int qos) {
+        return qos <= maxQos && publishTopics.matchesTopic(topic);
+    }
+
+    //same as allowsPublish, but memoizes the topic decision in the connection's cache
+    public boolean allowsPublish(@NotNull String topic, int qos, @NotNull PublishDecisionCache decisionCache) {
+        return qos <= maxQos && decisionCache.matchesTopic(topic, publishTopics);
+    }
+
+    public boolean allowsSubscribe(@NotNull String topicFilter, int qos) {
+        return qos <= maxQos && subscribeTopics.coversFilter(topicFilter);
+    }
+
+    public long estimatedBytes() {
+        long bytes = 32 + publishTopics.estimatedBytes();
+        if (subscribeTopics != publishTopics) {
+            bytes += subscribeTopics.estimatedBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,462 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Append-only binary journal of every authentication and authorization decision, for forensics.
+ * <p>
+ * Decisions are written as fixed-size records into memory-mapped segment files. A producer claims a record with
+ * one atomic increment and writes it in place, so recording is a handful of stores into the page cache, neither
+ * locked nor allocated. Client IDs, subjects, topics and reasons are stored as IDs of a dictionary kept per
+ * segment: the first time a string occurs, its entry is written into the segment's memory-mapped
+ * {@value #DICTIONARY_SUFFIX} file at an offset claimed with one atomic add, and its ID is kept in a fixed-size
+ * lock-free hash table, later records only carry the ID. New strings are therefore no more expensive than known
+ * ones, which matters with per-device client IDs and topics. A segment is self-contained with its dictionary, so
+ * old ones can simply be deleted.
+ * <p>
+ * A new segment is started when the current one, its dictionary file or its dictionary table is full, or when it is
+ * older than the rotation interval. Only the newest {@code maxSegments} are kept, including those of earlier runs.
+ * Segments are read with {@link DecisionJournalReader}.
+ * <p>
+ * Segment layout, all values big-endian: a header of {@value #HEADER_BYTES} bytes (magic, version, record size,
+ * start time in epoch millis), then records of {@value #RECORD_BYTES} bytes:
+ * <pre>
+ *  0 timestamp, epoch millis (long)
+ *  8 token fingerprint, 0 if none (long)
+ * 16 client ID, subject, topic, reason (int dictionary IDs, 0 if none)
+ * 32 type, {@link DecisionRecorder.Type} ordinal + 1, 0 for a record not (yet) written (byte)
+ * 33 1 if allowed, 0 if denied (byte)
+ * </pre>
+ * Dictionary entries are an int ID, an int length and that many bytes of UTF-8. The ID is written last, an entry
+ * with ID 0 is not (yet) written, and one with length 0 too ends the dictionary of a segment still being written.
+ */
+public class DecisionJournal implements DecisionRecorder, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DecisionJournal.class);
+
+    static final int MAGIC = 0x4A574A31;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_BYTES = 40;
+
+    static final int TIMESTAMP = 0;
+    static final int TOKEN = 8;
+    static final int CLIENT = 16;
+    static final int SUBJECT = 20;
+    static final int TOPIC = 24;
+    static final int REASON = 28;
+    static final int TYPE = 32;
+    static final int ALLOWED = 33;
+
+    static final String SEGMENT_PREFIX = "decisions-";
+    static final String SEGMENT_SUFFIX = ".journal";
+    static final String DICTIONARY_SUFFIX = ".dict";
+
+    //distinct strings per segment at most, a segment with more is rotated
+    static final int MAX_DICTIONARY_ENTRIES = 1 << 18;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long rotateIntervalMillis;
+    private final int maxSegments;
+
+    //null once closed, or when the last segment could not be created
+    private volatile @Nullable Segment current;
+    //guarded by this
+    private long lastSequence;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+
+    /**
+     * @param segmentBytes         size of a segment file, a new one is started when it is full
+     * @param rotateIntervalMillis a new segment is started when the current one is older than this
+     * @param maxSegments          segments kept, older ones are deleted
+     */
+    public DecisionJournal(@NotNull Path directory, long segmentBytes, long rotateIntervalMillis, int maxSegments)
+            throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal segment size out of range: " + segmentBytes);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("At least one journal segment must be kept: " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.rotateIntervalMillis = rotateIntervalMillis;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        //continues after the segments of the last run, they are never overwritten
+        List<Path> existing = segments(directory);
+        lastSequence = existing.isEmpty() ? 0 : sequenceOf(existing.get(existing.size() - 1));
+        current = openSegment(System.currentTimeMillis());
+        //left over from a run with more segments kept
+        deleteOldSegments();
+    }
+
+    @Override
+    public void connect(@NotNull String clientId, @Nullable String subject, long tokenFingerprint,
+                        boolean reAuthentication, boolean allowed, @Nullable String reason) {
+        record(reAuthentication ? Type.REAUTH : Type.CONNECT, allowed, clientId, subject, null, reason, tokenFingerprint);
+    }
+
+    @Override
+    public void publish(@NotNull String clientId, @Nullable String subject, @NotNull String topic,
+                        boolean allowed, @Nullable String reason) {
+        record(Type.PUBLISH, allowed, clientId, subject, topic, reason, 0);
+    }
+
+    @Override
+    public void subscribe(@NotNull String clientId, @Nullable String subject, @NotNull String topicFilter,
+                          boolean allowed, @Nullable String reason) {
+        record(Type.SUBSCRIBE, allowed, clientId, subject, topicFilter, reason, 0);
+    }
+
+    private void record(Type type, boolean allowed, String clientId, String subject, String topic, String reason,
+                        long tokenFingerprint) {
+        long now = System.currentTimeMillis();
+        Segment segment = current;
+        while (segment != null) {
+            if (now < segment.deadlineMillis) {
+                //held while writing, so the segment isn't closed under the record
+                segment.writers.incrementAndGet();
+                try {
+                    int written = segment.retired ? Segment.FULL
+                            : segment.write(now, type, allowed, clientId, subject, topic, reason, tokenFingerprint);
+                    if (written == Segment.WRITTEN) {
+                        return;
+                    }
+                    if (written == Segment.TOO_LARGE) {
+                        //wouldn't fit into the dictionary of a new segment either
+                        dropped.increment();
+                        return;
+                    }
+                } finally {
+                    segment.release();
+                }
+            }
+            segment = rotate(segment, now);
+        }
+        dropped.increment();
+    }
+
+    //the first producer finding the segment full or expired starts the next one, the others wait for it
+    private synchronized @Nullable Segment rotate(@NotNull Segment full, long now) {
+        Segment segment = current;
+        if (segment != full) {
+            return segment;
+        }
+        full.retire();
+        rotations.increment();
+        try {
+            current = openSegment(now);
+            deleteOldSegments();
+        } catch (IOException e) {
+            log.error("Could not start a new decision journal segment in {}, decisions are no longer journaled", directory, e);
+            current = null;
+        }
+        return current;
+    }
+
+    private Segment openSegment(long now) throws IOException {
+        long sequence = ++lastSequence;
+        Path file = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Path dictionaryFile = dictionaryOf(file);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, RECORD_BYTES);
+        buffer.putLong(16, now);
+        //as large as the segment, only the pages written to take disk space, cut to its entries when closed
+        FileChannel dictionaryChannel = FileChannel.open(dictionaryFile, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer dictionary = dictionaryChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        int capacity = (int) ((segmentBytes - HEADER_BYTES) / RECORD_BYTES);
+        //a record brings at most four new strings
+        int maxEntries = (int) Math.min(MAX_DICTIONARY_ENTRIES, 4L * capacity);
+        return new Segment(buffer, dictionaryChannel, dictionary, capacity, maxEntries,
+                rotateIntervalMillis > 0 ? now + rotateIntervalMillis : Long.MAX_VALUE);
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+            Files.deleteIfExists(dictionaryOf(segments.get(i)));
+        }
+    }
+
+    //segment files of the directory, oldest first
+    static @NotNull List<Path> segments(@NotNull Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(DecisionJournal::isSegment).forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static boolean isSegment(@NotNull Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    static @NotNull Path dictionaryOf(@NotNull Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + DICTIONARY_SUFFIX);
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    //decisions lost because no segment could be written or a string was larger than a dictionary
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long rotationCount() {
+        return rotations.sum();
+    }
+
+    //flushes the current segment to disk and stops journaling
+    @Override
+    public synchronized void close() {
+        Segment segment = current;
+        current = null;
+        if (segment != null) {
+            segment.retire();
+        }
+    }
+
+    private static final class Segment {
+        //outcomes of write, negative ones are also returned by idOf
+        static final int WRITTEN = 0;
+        static final int FULL = -1;
+        static final int TOO_LARGE = -2;
+
+        final MappedByteBuffer buffer;
+        final FileChannel dictionaryFile;
+        final MappedByteBuffer dictionary;
+        final int capacity;
+        final long deadlineMillis;
+        //next record claimed by a producer, may run past the capacity while the next segment is started
+        final AtomicInteger next = new AtomicInteger();
+        //producers writing a record, the last one out of a retired segment closes it
+        final AtomicInteger writers = new AtomicInteger();
+        volatile boolean retired;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        //open addressing, a string's slot is claimed once and never freed, at most half of the slots are used
+        private final AtomicReferenceArray<String> keys;
+        //ID of the string in the same slot, 0 while its entry is being written, FULL if it got none
+        private final AtomicIntegerArray ids;
+        private final int maxEntries;
+        private final AtomicInteger lastId = new AtomicInteger();
+        //end of the dictionary entries, may run past the dictionary while the next segment is started
+        private final AtomicInteger dictionaryEnd = new AtomicInteger();
+
+        Segment(MappedByteBuffer buffer, FileChannel dictionaryFile, MappedByteBuffer dictionary, int capacity,
+                int maxEntries, long deadlineMillis) {
+            this.buffer = buffer;
+            this.dictionaryFile = dictionaryFile;
+            this.dictionary = dictionary;
+            this.capacity = capacity;
+            this.maxEntries = maxEntries;
+            this.deadlineMillis = deadlineMillis;
+            int slots = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) * 2;
+            this.keys = new AtomicReferenceArray<>(slots);
+            this.ids = new AtomicIntegerArray(slots);
+        }
+
+        //absolute puts don't touch the buffer's position, so producers can write their records concurrently
+        int write(long timestamp, Type type, boolean allowed, String clientId, String subject, String topic,
+                  String reason, long tokenFingerprint) {
+            //resolved before a record is claimed, so a full dictionary leaves no record behind
+            int clientKey = idOf(clientId);
+            int subjectKey = clientKey < 0 ? clientKey : idOf(subject);
+            int topicKey = subjectKey < 0 ? subjectKey : idOf(topic);
+            int reasonKey = topicKey < 0 ? topicKey : idOf(reason);
+            if (reasonKey < 0) {
+                return reasonKey;
+            }
+            int index = next.getAndIncrement();
+            if (index >= capacity) {
+                return FULL;
+            }
+            int offset = HEADER_BYTES + index * RECORD_BYTES;
+            buffer.putLong(offset + TIMESTAMP, timestamp);
+            buffer.putLong(offset + TOKEN, tokenFingerprint);
+            buffer.putInt(offset + CLIENT, clientKey);
+            buffer.putInt(offset + SUBJECT, subjectKey);
+            buffer.putInt(offset + TOPIC, topicKey);
+            buffer.putInt(offset + REASON, reasonKey);
+            buffer.put(offset + ALLOWED, (byte) (allowed ? 1 : 0));
+            //written last, a reader of a live segment skips records without a type
+            buffer.put(offset + TYPE, (byte) (type.ordinal() + 1));
+            return WRITTEN;
+        }
+
+        private int idOf(@Nullable String value) {
+            if (value == null) {
+                return 0;
+            }
+            int mask = keys.length() - 1;
+            int hash = value.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (true) {
+                String key = keys.get(slot);
+                if (key == null) {
+                    if (keys.compareAndSet(slot, null, value)) {
+                        return addEntry(slot, value);
+                    }
+                    key = keys.get(slot);
+                }
+                if (key.equals(value)) {
+                    int id;
+                    //another producer is writing its entry, a few stores
+                    while ((id = ids.get(slot)) == 0) {
+                        Thread.onSpinWait();
+                    }
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private int addEntry(int slot, String value) {
+            //checked first, so no more than maxEntries slots are claimed besides those of racing producers
+            int id = lastId.incrementAndGet();
+            if (id > maxEntries) {
+                ids.set(slot, FULL);
+                return FULL;
+            }
+            int length = utf8Length(value);
+            int entryBytes = 8 + length;
+            if (entryBytes > dictionary.capacity()) {
+                ids.set(slot, TOO_LARGE);
+                return TOO_LARGE;
+            }
+            int offset = dictionaryEnd.getAndAdd(entryBytes);
+            if (offset < 0 || offset > dictionary.capacity() - entryBytes) {
+                ids.set(slot, FULL);
+                return FULL;
+            }
+            dictionary.putInt(offset + 4, length);
+            putUtf8(dictionary, offset + 8, value);
+            dictionary.putInt(offset, id);
+            //only handed out once its entry is written, so no record refers to a missing entry
+            ids.set(slot, id);
+            return id;
+        }
+
+        //no further records, closed as soon as the records in progress are written
+        void retire() {
+            retired = true;
+            if (writers.get() == 0) {
+                close();
+            }
+        }
+
+        void release() {
+            if (writers.decrementAndGet() == 0 && retired) {
+                close();
+            }
+        }
+
+        //both the rotating and the last writing thread may get here
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                buffer.force();
+                dictionary.force();
+                dictionaryFile.truncate(Math.min(dictionaryEnd.get(), dictionary.capacity()));
+                dictionaryFile.close();
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not flush decision journal segment", e);
+            }
+        }
+    }
+
+    //same bytes as String.getBytes(UTF_8), without allocating them
+    static int utf8Length(@NotNull String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                //unpaired, encoded as '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(ByteBuffer buffer, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put(offset++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(offset++, (byte) (0xC0 | c >> 6));
+                buffer.put(offset++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put(offset++, (byte) (0xF0 | codePoint >> 18));
+                buffer.put(offset++, (byte) (0x80 | codePoint >> 12 & 0x3F));
+                buffer.put(offset++, (byte) (0x80 | codePoint >> 6 & 0x3F));
+                buffer.put(offset++, (byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(offset++, (byte) '?');
+            } else {
+                buffer.put(offset++, (byte) (0xE0 | c >> 12));
+                buffer.put(offset++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(offset++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+}
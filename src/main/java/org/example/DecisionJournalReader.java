@@ -0,0 +1,241 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prints the decisions of {@link DecisionJournal} segments, in the format of the {@link AuditLog}, optionally
+ * filtered. Runs offline on a copy of the journal directory, or on the live one:
+ * <pre>
+ * java -cp jwt-auth-extension.jar org.example.DecisionJournalReader [options] &lt;directory or segment files&gt;
+ *
+ *   --client &lt;id&gt;       --subject &lt;sub&gt;     --topic &lt;topic&gt;     --reason &lt;reason&gt;
+ *   --type connect|reauth|publish|subscribe    --outcome allow|deny
+ *   --from &lt;instant&gt;    --to &lt;instant&gt;       e.g. 2026-10-17T09:00:00Z
+ * </pre>
+ * Client, subject, topic and reason are matched exactly. A segment whose dictionary doesn't contain a wanted value
+ * has no matching record and is skipped without reading its records.
+ */
+public final class DecisionJournalReader {
+
+    private DecisionJournalReader() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Filter filter = new Filter();
+        List<Path> segments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                Path path = Paths.get(arg);
+                if (Files.isDirectory(path)) {
+                    segments.addAll(DecisionJournal.segments(path));
+                } else {
+                    segments.add(path);
+                }
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage("Missing value of " + arg);
+                return;
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--client":
+                    filter.clientId = value;
+                    break;
+                case "--subject":
+                    filter.subject = value;
+                    break;
+                case "--topic":
+                    filter.topic = value;
+                    break;
+                case "--reason":
+                    filter.reason = value;
+                    break;
+                case "--type":
+                    filter.type = DecisionRecorder.Type.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--outcome":
+                    filter.allowed = "allow".equalsIgnoreCase(value);
+                    break;
+                case "--from":
+                    filter.fromMillis = Instant.parse(value).toEpochMilli();
+                    break;
+                case "--to":
+                    filter.toMillis = Instant.parse(value).toEpochMilli();
+                    break;
+                default:
+                    usage("Unknown option " + arg);
+                    return;
+            }
+        }
+        if (segments.isEmpty()) {
+            usage("No journal directory or segment given");
+            return;
+        }
+        long matched = print(segments, filter, System.out);
+        System.err.println(matched + " decisions");
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: DecisionJournalReader [--client id] [--subject sub] [--topic topic] [--reason reason]"
+                + " [--type connect|reauth|publish|subscribe] [--outcome allow|deny] [--from instant] [--to instant]"
+                + " <directory or segment files>");
+        System.exit(2);
+    }
+
+    //what a decision has to match to be printed, null fields match anything
+    static final class Filter {
+        @Nullable String clientId;
+        @Nullable String subject;
+        @Nullable String topic;
+        @Nullable String reason;
+        @Nullable DecisionRecorder.Type type;
+        @Nullable Boolean allowed;
+        long fromMillis = Long.MIN_VALUE;
+        long toMillis = Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of decisions printed
+     */
+    static long print(@NotNull List<Path> segments, @NotNull Filter filter, @NotNull PrintStream out) throws IOException {
+        long matched = 0;
+        StringBuilder line = new StringBuilder(256);
+        for (Path segment : segments) {
+            matched += print(segment, filter, out, line);
+        }
+        return matched;
+    }
+
+    private static long print(Path segment, Filter filter, PrintStream out, StringBuilder line) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> values = readDictionary(DecisionJournal.dictionaryOf(segment), ids);
+        //-1 for no filter, a missing value means no record of this segment can match
+        int clientId = idOf(filter.clientId, ids);
+        int subject = idOf(filter.subject, ids);
+        int topic = idOf(filter.topic, ids);
+        int reason = idOf(filter.reason, ids);
+        if (clientId == 0 || subject == 0 || topic == 0 || reason == 0) {
+            return 0;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < DecisionJournal.HEADER_BYTES || buffer.getInt(0) != DecisionJournal.MAGIC) {
+            throw new IOException("Not a decision journal segment: " + segment);
+        }
+        if (buffer.getInt(4) != DecisionJournal.VERSION || buffer.getInt(8) != DecisionJournal.RECORD_BYTES) {
+            throw new IOException("Unsupported decision journal version " + buffer.getInt(4) + ": " + segment);
+        }
+
+        DecisionRecorder.Type[] types = DecisionRecorder.Type.values();
+        long matched = 0;
+        for (int offset = DecisionJournal.HEADER_BYTES;
+             offset + DecisionJournal.RECORD_BYTES <= buffer.limit();
+             offset += DecisionJournal.RECORD_BYTES) {
+            int type = buffer.get(offset + DecisionJournal.TYPE);
+            //not written, the rest of a segment that was rotated early or a record still being written
+            if (type < 1 || type > types.length) {
+                continue;
+            }
+            long timestamp = buffer.getLong(offset + DecisionJournal.TIMESTAMP);
+            boolean allowed = buffer.get(offset + DecisionJournal.ALLOWED) == 1;
+            int recordClientId = buffer.getInt(offset + DecisionJournal.CLIENT);
+            int recordSubject = buffer.getInt(offset + DecisionJournal.SUBJECT);
+            int recordTopic = buffer.getInt(offset + DecisionJournal.TOPIC);
+            int recordReason = buffer.getInt(offset + DecisionJournal.REASON);
+            if (timestamp < filter.fromMillis || timestamp > filter.toMillis
+                    || filter.type != null && filter.type != types[type - 1]
+                    || filter.allowed != null && filter.allowed != allowed
+                    || clientId > 0 && clientId != recordClientId
+                    || subject > 0 && subject != recordSubject
+                    || topic > 0 && topic != recordTopic
+                    || reason > 0 && reason != recordReason) {
+                continue;
+            }
+            line.setLength(0);
+            AuditLog.format(line, timestamp, types[type - 1], allowed, valueOf(recordClientId, values, "?"),
+                    valueOf(recordSubject, values, null), valueOf(recordTopic, values, null),
+                    valueOf(recordReason, values, null), buffer.getLong(offset + DecisionJournal.TOKEN));
+            out.println(line);
+            matched++;
+        }
+        return matched;
+    }
+
+    //index of a value is its dictionary ID, index 0 is unused
+    private static List<String> readDictionary(Path file, Map<String, Integer> ids) throws IOException {
+        List<String> values = new ArrayList<>();
+        values.add(null);
+        if (!Files.exists(file)) {
+            return values;
+        }
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (true) {
+                int id;
+                try {
+                    id = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = data.readInt();
+                //the unwritten rest of a live segment's dictionary
+                if (id == 0 && length == 0) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                data.readFully(bytes);
+                //claimed, but the broker stopped before writing it, no record refers to it
+                if (id == 0) {
+                    continue;
+                }
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                while (values.size() <= id) {
+                    values.add(null);
+                }
+                values.set(id, value);
+                ids.put(value, id);
+            }
+        } catch (EOFException e) {
+            //the last entry was cut off, e.g. the broker stopped while writing it
+        }
+        return values;
+    }
+
+    private static int idOf(@Nullable String value, Map<String, Integer> ids) {
+        if (value == null) {
+            return -1;
+        }
+        return ids.getOrDefault(value, 0);
+    }
+
+    private static @Nullable String valueOf(int id, List<String> values, @Nullable String missing) {
+        return id > 0 && id < values.size() && values.get(id) != null ? values.get(id) : missing;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the authentication and authorization decisions of {@link MyAuthenticator} and {@link MyClientAuthorizer},
+ * see {@link AuditLog} and {@link DecisionJournal}.
+ * <p>
+ * Called on the threads making the decisions, for every connect and every packet, so implementations must
+ * neither block nor allocate.
+ */
+public interface DecisionRecorder {
+
+    enum Type {
+        CONNECT, REAUTH, PUBLISH, SUBSCRIBE
+    }
+
+    //reasons of authorization denials, connect rejections are named by their RejectReason
+    String NO_PERMISSIONS = "NO_PERMISSIONS";
+    String NOT_ALLOWED = "NOT_ALLOWED";
+
+    /**
+     * @param tokenFingerprint {@link TokenDigest#fingerprint()} of the token, 0 if the connect had no token
+     * @param reason           why the connect was rejected, null if it was accepted
+     */
+    void connect(@NotNull String clientId, @Nullable String subject, long tokenFingerprint,
+                 boolean reAuthentication, boolean allowed, @Nullable String reason);
+
+    void publish(@NotNull String clientId, @Nullable String subject, @NotNull String topic,
+                 boolean allowed, @Nullable String reason);
+
+    void subscribe(@NotNull String clientId, @Nullable String subject, @NotNull String topicFilter,
+                   boolean allowed, @Nullable String reason);
+
+    //null if none of them is enabled, so callers skip recording with a single null check
+    static @Nullable DecisionRecorder of(@Nullable DecisionRecorder... recorders) {
+        List<DecisionRecorder> enabled = new ArrayList<>();
+        for (DecisionRecorder recorder : recorders) {
+            if (recorder != null) {
+                enabled.add(recorder);
+            }
+        }
+        if (enabled.isEmpty()) {
+            return null;
+        }
+        if (enabled.size() == 1) {
+            return enabled.get(0);
+        }
+        DecisionRecorder[] all = enabled.toArray(new DecisionRecorder[0]);
+        return new DecisionRecorder() {
+            @Override
+            public void connect(@NotNull String clientId, @Nullable String subject, long tokenFingerprint,
+                                boolean reAuthentication, boolean allowed, @Nullable String reason) {
+                for (DecisionRecorder recorder : all) {
+                    recorder.connect(clientId, subject, tokenFingerprint, reAuthentication, allowed, reason);
+                }
+            }
+
+            @Override
+            public void publish(@NotNull String clientId, @Nullable String subject, @NotNull String topic,
+                                boolean allowed, @Nullable String reason) {
+                for (DecisionRecorder recorder : all) {
+                    recorder.publish(clientId, subject, topic, allowed, reason);
+                }
+            }
+
+            @Override
+            public void subscribe(@NotNull String clientId, @Nullable String subject, @NotNull String topicFilter,
+                                  boolean allowed, @Nullable String reason) {
+                for (DecisionRecorder recorder : all) {
+                    recorder.subscribe(clientId, subject, topicFilter, allowed, reason);
+                }
+            }
+        };
+    }
+}
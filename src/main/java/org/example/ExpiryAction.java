@@ -0,0 +1,31 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+//What happens to a connection when the token it authenticated with expires
+public enum ExpiryAction {
+
+    //nothing, the connection stays authorized until it is closed
+    OFF("off"),
+
+    //the client is disconnected with NOT_AUTHORIZED
+    DISCONNECT("disconnect"),
+
+    //the connection stays open but every further PUBLISH and SUBSCRIBE is denied, only in authorizer mode
+    REVOKE_PERMISSIONS("revoke-permissions");
+
+    private final String configValue;
+
+    ExpiryAction(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public static @NotNull ExpiryAction fromConfigValue(@NotNull String value) {
+        for (ExpiryAction action : values()) {
+            if (action.configValue.equalsIgnoreCase(value)) {
+                return action;
+            }
+        }
+        throw new IllegalArgumentException("Unknown expiry.action: " + value);
+    }
+}
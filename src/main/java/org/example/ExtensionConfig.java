@@ -0,0 +1,405 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.nimbusds.jose.JWSAlgorithm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+//Settings read from jwt-auth.properties in the extension folder, every key is optional
+public class ExtensionConfig {
+
+    public static final String FILE_NAME = "jwt-auth.properties";
+    //name of the issuer configured by the unprefixed keys, when no issuers are listed
+    public static final String DEFAULT_ISSUER = "default";
+    private static final String ISSUER_PREFIX = "issuer.";
+
+    private final Properties props;
+    private final @Nullable File extensionHomeFolder;
+    //keys are looked up as issuer.<name>.<key> first, null for the unprefixed keys only
+    private final @Nullable String issuerName;
+
+    public ExtensionConfig(@NotNull Properties props) {
+        this(props, null, null);
+    }
+
+    private ExtensionConfig(@NotNull Properties props, @Nullable File extensionHomeFolder, @Nullable String issuerName) {
+        this.props = props;
+        this.extensionHomeFolder = extensionHomeFolder;
+        this.issuerName = issuerName;
+    }
+
+    public static @NotNull ExtensionConfig load(@NotNull File extensionHomeFolder) throws IOException {
+        Properties props = new Properties();
+        File configFile = new File(extensionHomeFolder, FILE_NAME);
+        if (configFile.isFile()) {
+            try (FileInputStream fis = new FileInputStream(configFile)) {
+                props.load(fis);
+            }
+        }
+        return new ExtensionConfig(props, extensionHomeFolder, null);
+    }
+
+    public static @NotNull ExtensionConfig defaults() {
+        return new ExtensionConfig(new Properties());
+    }
+
+    /**
+     * The issuers whose tokens are accepted, each as a view of this config in which every key can be overridden
+     * as {@code issuer.<name>.<key>}. Without an {@code issuers} list, the unprefixed keys configure a single
+     * issuer named {@value #DEFAULT_ISSUER}.
+     */
+    public @NotNull List<ExtensionConfig> issuers() {
+        List<ExtensionConfig> issuers = new ArrayList<>();
+        for (String name : getString("issuers", "").split(",")) {
+            if (!name.isBlank()) {
+                issuers.add(new ExtensionConfig(props, extensionHomeFolder, name.trim()));
+            }
+        }
+        return issuers.isEmpty() ? List.of(this) : issuers;
+    }
+
+    public @NotNull String issuerName() {
+        return issuerName == null ? DEFAULT_ISSUER : issuerName;
+    }
+
+    //Json Web Key Set URL (where the JSON Web Keys are hosted)
+    public @NotNull String jwksUrl() {
+        if (issuerName != null) {
+            return getRequiredIssuerString("jwks.url");
+        }
+        return getString("jwks.url", "http://158.39.77.107:8081/realms/smartocean-testrealm/protocol/openid-connect/certs");
+    }
+
+    public @NotNull String expectedIssuer() {
+        if (issuerName != null) {
+            return getRequiredIssuerString("jwt.issuer");
+        }
+        return getString("jwt.issuer", "http://158.39.77.107:8081/realms/smartocean-testrealm");
+    }
+
+    //who the token is intended/issued for
+    public @NotNull String expectedAudience() {
+        return getString("jwt.audience", "hivemq-smartocean-testbroker");
+    }
+
+    //longer tokens are rejected before anything is decoded
+    public int maxTokenLength() {
+        return getInt("jwt.max-length", 8_192);
+    }
+
+    //tolerated difference between the clocks of broker and IdP for exp and nbf
+    public long clockSkewSeconds() {
+        return getLong("jwt.clock-skew-s", 60);
+    }
+
+    //longest accepted difference between iat and exp, 0 accepts any lifetime
+    public long maxTokenLifetimeSeconds() {
+        return getLong("jwt.max-lifetime-s", 0);
+    }
+
+    //key IDs a token may name, empty for every key of the key set
+    public @NotNull Set<String> allowedKeyIds() {
+        Set<String> keyIds = new HashSet<>();
+        for (String keyId : getString("jwt.allowed-kids", "").split(",")) {
+            if (!keyId.isBlank()) {
+                keyIds.add(keyId.trim());
+            }
+        }
+        return Set.copyOf(keyIds);
+    }
+
+    //accepted signature algorithms
+    public @NotNull Set<JWSAlgorithm> allowedAlgorithms() {
+        Set<JWSAlgorithm> algorithms = new HashSet<>();
+        for (String algorithm : getString("jwt.algorithms", "RS256").split(",")) {
+            if (!algorithm.isBlank()) {
+                algorithms.add(JWSAlgorithm.parse(algorithm.trim()));
+            }
+        }
+        return Set.copyOf(algorithms);
+    }
+
+    //names of the claims the topic permissions are read from
+    public @NotNull TokenPermissions.ClaimNames permissionClaimNames() {
+        return new TokenPermissions.ClaimNames(
+                getString("jwt.claim.allowed-topics", TokenPermissions.CLAIM_ALLOWED_TOPICS),
+                getString("jwt.claim.allowed-publish-topics", TokenPermissions.CLAIM_ALLOWED_PUBLISH_TOPICS),
+                getString("jwt.claim.allowed-subscribe-topics", TokenPermissions.CLAIM_ALLOWED_SUBSCRIBE_TOPICS),
+                getString("jwt.claim.max-qos", TokenPermissions.CLAIM_MAX_QOS));
+    }
+
+    //the key set is fetched again in the background after this time
+    public long jwksRefreshIntervalMillis() {
+        return getLong("jwks.refresh-interval-s", 300) * 1000;
+    }
+
+    //how long the last good key set may be used when the IdP can't be reached
+    public long jwksMaxStaleMillis() {
+        return getLong("jwks.max-stale-s", 86_400) * 1000;
+    }
+
+    public int jwksConnectTimeoutMillis() {
+        return getInt("jwks.connect-timeout-ms", 2_000);
+    }
+
+    public int jwksReadTimeoutMillis() {
+        return getInt("jwks.read-timeout-ms", 2_000);
+    }
+
+    //a token with an unknown kid fetches the key set again at most once per this interval
+    public long jwksRefetchMinIntervalMillis() {
+        return getLong("jwks.refetch-min-interval-ms", 5_000);
+    }
+
+    //a kid missing after such a fetch is not looked up again for this long
+    public long jwksUnknownKeyIdTtlMillis() {
+        return getLong("jwks.unknown-kid-ttl-s", 30) * 1000;
+    }
+
+    //last good key set, loaded at startup so the broker can authenticate while the IdP is unreachable, "none" disables it
+    public @Nullable File jwksSnapshotFile() {
+        String path = getString("jwks.snapshot-file", "jwks-snapshot.json");
+        if (issuerName != null) {
+            //every listed issuer has a snapshot of its own, unless snapshots are disabled for all
+            String issuerPath = getIssuerOnly("jwks.snapshot-file");
+            if (issuerPath != null) {
+                path = issuerPath;
+            } else if (!path.equalsIgnoreCase("none")) {
+                path = "jwks-snapshot-" + issuerName + ".json";
+            }
+        }
+        if (path.equalsIgnoreCase("none")) {
+            return null;
+        }
+        File file = new File(path);
+        if (file.isAbsolute() || extensionHomeFolder == null) {
+            return file;
+        }
+        return new File(extensionHomeFolder, path);
+    }
+
+    //maximum number of verified tokens kept for reconnecting clients
+    public int tokenCacheMaxSize() {
+        return getInt("token-cache.max-size", 100_000);
+    }
+
+    //recently rejected tokens remembered to reject retries without verifying them, 0 disables the cache
+    public int negativeCacheMaxSize() {
+        return getInt("negative-cache.max-size", 65_536);
+    }
+
+    //rejected tokens are remembered for between half and all of this time
+    public long negativeCacheTtlMillis() {
+        return getLong("negative-cache.ttl-s", 300) * 1000;
+    }
+
+    //how often the jti of a token may be used before it expires
+    public @NotNull ReplayPolicy replayPolicy() {
+        return ReplayPolicy.fromConfigValue(getString("replay.policy", "off"));
+    }
+
+    //seen jtis are dropped in slices of this length once their tokens expired
+    public long replayBucketSeconds() {
+        return getLong("replay.bucket-s", 60);
+    }
+
+    //tokens living longer than this are only remembered for this long
+    public long replayMaxTokenLifetimeSeconds() {
+        return getLong("replay.max-token-lifetime-s", 86_400);
+    }
+
+    //what happens to a connection once its token expired
+    public @NotNull ExpiryAction expiryAction() {
+        return ExpiryAction.fromConfigValue(getString("expiry.action", "off"));
+    }
+
+    //resolution of the token expiration timer
+    public long expiryTickMillis() {
+        return getLong("expiry.tick-ms", 1_000L);
+    }
+
+    //verify tokens on a dedicated executor instead of the broker's network threads
+    public boolean asyncEnabled() {
+        return getBoolean("async.enabled", false);
+    }
+
+    //number of verifications running at the same time
+    public int asyncThreads() {
+        return getInt("async.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    //verifications waiting for a free thread before new connects are rejected as busy
+    public int asyncQueueSize() {
+        return getInt("async.queue-size", 10_000);
+    }
+
+    //connects not verified within this time fail
+    public long asyncTimeoutMillis() {
+        return getLong("async.timeout-ms", 10_000L);
+    }
+
+    //run verifications on virtual threads when the JVM supports them (JDK 21+)
+    public boolean asyncVirtualThreads() {
+        return getBoolean("async.virtual-threads", false);
+    }
+
+    //verifications running at the same time, beyond that connects wait for a permit, 0 (default) disables the limit
+    public int admissionMaxConcurrent() {
+        return getInt("admission.max-concurrent", 0);
+    }
+
+    //connects waiting for a verification permit before new ones are rejected as busy
+    public int admissionMaxWaiting() {
+        return getInt("admission.max-waiting", 10_000);
+    }
+
+    //connects that waited longer than this for a permit are rejected as busy
+    public long admissionMaxWaitMillis() {
+        return getLong("admission.max-wait-ms", 5_000L);
+    }
+
+    //sustained connects per second from one source address, 0 disables the limit
+    public int perIpConnectRate() {
+        return getInt("admission.per-ip-rate", 0);
+    }
+
+    //connects one source address may make at once after being idle
+    public int perIpConnectBurst() {
+        return getInt("admission.per-ip-burst", 20);
+    }
+
+    //register an enhanced authenticator, so MQTT 5 clients can send their token as authentication data and re-authenticate
+    public boolean enhancedAuthentication() {
+        return getBoolean("authentication.enhanced", false);
+    }
+
+    //MQTT 5 authentication method of clients sending the token as authentication data
+    public @NotNull String authenticationMethod() {
+        return getString("authentication.method", "JWT");
+    }
+
+    //how topic permissions are enforced: per packet by the authorizer, or by HiveMQ's default permissions
+    public @NotNull AuthorizationMode authorizationMode() {
+        return AuthorizationMode.fromConfigValue(getString("authorization.mode", "authorizer"));
+    }
+
+    //recent publish decisions memoized per connection, 0 disables the cache
+    public int publishCacheSlots() {
+        return getInt("authorization.publish-cache-slots", 8);
+    }
+
+    //write authentication and authorization decisions to the audit logger
+    public boolean auditEnabled() {
+        return getBoolean("audit.enabled", true);
+    }
+
+    //decisions buffered until the background writer catches up, further ones are dropped
+    public int auditBufferSize() {
+        return getInt("audit.buffer-size", 65_536);
+    }
+
+    //one in this many allowed decisions is audited, 0 audits denials only
+    public int auditAllowSampleInterval() {
+        return getInt("audit.allow-sample-interval", 100);
+    }
+
+    //how often the background writer writes the buffered decisions
+    public long auditFlushIntervalMillis() {
+        return Math.max(1, getLong("audit.flush-interval-ms", 200));
+    }
+
+    //binary journal of every decision, for forensics
+    public boolean journalEnabled() {
+        return getBoolean("journal.enabled", false);
+    }
+
+    public @NotNull File journalDirectory() {
+        File directory = new File(getString("journal.directory", "journal"));
+        if (directory.isAbsolute() || extensionHomeFolder == null) {
+            return directory;
+        }
+        return new File(extensionHomeFolder, directory.getPath());
+    }
+
+    //a new segment is started when the current one is full
+    public long journalSegmentBytes() {
+        return getLong("journal.segment-size-mb", 64) * 1024 * 1024;
+    }
+
+    //a new segment is started when the current one is older than this, 0 rotates by size only
+    public long journalRotateIntervalMillis() {
+        return getLong("journal.rotate-interval-s", 3_600) * 1000;
+    }
+
+    //segments kept, older ones are deleted
+    public int journalMaxSegments() {
+        return getInt("journal.max-segments", 48);
+    }
+
+    //issuer.<name>.<key> of a listed issuer, without falling back to the unprefixed key, null if not set
+    private @Nullable String getIssuerOnly(@NotNull String key) {
+        String value = props.getProperty(ISSUER_PREFIX + issuerName + "." + key);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    //what identifies a listed issuer has to be given for it, the unprefixed defaults belong to another IdP
+    private @NotNull String getRequiredIssuerString(@NotNull String key) {
+        String value = getIssuerOnly(key);
+        if (value == null) {
+            throw new IllegalArgumentException(ISSUER_PREFIX + issuerName + "." + key + " is required");
+        }
+        return value;
+    }
+
+    private @Nullable String getProperty(@NotNull String key) {
+        if (issuerName != null) {
+            String value = props.getProperty(ISSUER_PREFIX + issuerName + "." + key);
+            if (value != null && !value.isBlank()) {
+                return value;
+            }
+        }
+        return props.getProperty(key);
+    }
+
+    String getString(@NotNull String key, @NotNull String defaultValue) {
+        String value = getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    boolean getBoolean(@NotNull String key, boolean defaultValue) {
+        String value = getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    int getInt(@NotNull String key, int defaultValue) {
+        long value = getLong(key, defaultValue);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value of " + key + " is too large: " + value);
+        }
+        return (int) value;
+    }
+
+    long getLong(@NotNull String key, long defaultValue) {
+        String value = getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim().replace("_", ""));
+            if (parsed < 0) {
+                throw new IllegalArgumentException("Value of " + key + " must not be negative: " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Value of " + key + " is not a number: " + value, e);
+        }
+    }
+}
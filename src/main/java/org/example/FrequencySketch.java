@@ -0,0 +1,92 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch with 4-bit counters that estimates how often a key has been seen recently.
+ * All counters are halved once the number of recorded events reaches ten times the cache size,
+ * so that popularity ages out instead of accumulating forever (TinyLFU).
+ * Updates are lock-free; a lost increment under contention only makes the estimate slightly lower.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger events = new AtomicInteger();
+
+    public FrequencySketch(int maximumSize) {
+        int tableSize = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        this.table = new AtomicLongArray(tableSize);
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min(10L * Math.max(maximumSize, 16), Integer.MAX_VALUE);
+    }
+
+    public int frequency(long key) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            long hash = hash(key, i);
+            int counterShift = counterShift(hash);
+            int count = (int) ((table.get(indexOf(hash)) >>> counterShift) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            long hash = hash(key, i);
+            added |= incrementAt(indexOf(hash), counterShift(hash));
+        }
+        if (added && events.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counterShift) {
+        long mask = 0xFL << counterShift;
+        while (true) {
+            long current = table.get(index);
+            if ((current & mask) == mask) {
+                return false;
+            }
+            if (table.compareAndSet(index, current, current + (1L << counterShift))) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void reset() {
+        if (events.get() < sampleSize) {
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            long current;
+            do {
+                current = table.get(i);
+            } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+        }
+        events.set(events.get() / 2);
+    }
+
+    private int indexOf(long hash) {
+        return (int) (hash >>> 32) & tableMask;
+    }
+
+    private static int counterShift(long hash) {
+        //16 counters of 4 bits per long
+        return ((int) hash & 0xF) << 2;
+    }
+
+    private static long hash(long key, int i) {
+        long h = (key + SEEDS[i]) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimNames;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+
+import java.util.Set;
+
+/**
+ * An identity provider whose tokens are accepted: its {@code iss}, the audience its tokens must name, the algorithms
+ * and keys they may be signed with, and the claims carrying the topic permissions. Each issuer has its own
+ * {@link JwksManager}, so its keys are fetched independently of every other issuer's.
+ * <p>
+ * Built from an issuer view of the config, see {@link ExtensionConfig#issuers()}.
+ */
+public class Issuer {
+
+    private final String name;
+    private final String issuer;
+    private final String audience;
+    private final Set<JWSAlgorithm> allowedAlgorithms;
+    //empty to accept every key of the key set
+    private final Set<String> allowedKeyIds;
+    private final long maxLifetimeMillis;
+    private final TokenPermissions.ClaimNames claimNames;
+    private final JwksManager jwksManager;
+    private final JwsVerifierCache verifiers;
+    private final DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier;
+
+    public Issuer(@NotNull ExtensionConfig config, @NotNull JwksManager jwksManager) {
+        this.name = config.issuerName();
+        this.issuer = config.expectedIssuer();
+        this.audience = config.expectedAudience();
+        this.allowedAlgorithms = config.allowedAlgorithms();
+        this.allowedKeyIds = config.allowedKeyIds();
+        this.maxLifetimeMillis = config.maxTokenLifetimeSeconds() * 1000;
+        this.claimNames = config.permissionClaimNames();
+        this.jwksManager = jwksManager;
+        //Selects the appropriate key from the JWKS to verify the signature of the JWT,
+        //together with a verifier that is built once per key instead of once per token
+        this.verifiers = new JwsVerifierCache(jwksManager, allowedAlgorithms);
+
+        JWTClaimsSet exactMatchClaims = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .build();
+        Set<String> requiredClaims = Set.of(
+                JWTClaimNames.SUBJECT,
+                JWTClaimNames.ISSUED_AT,
+                JWTClaimNames.EXPIRATION_TIME,
+                JWTClaimNames.JWT_ID);
+        //checks issuer, expiration, not-before and required claims
+        this.claimsVerifier = new DefaultJWTClaimsVerifier<>(exactMatchClaims, requiredClaims);
+        this.claimsVerifier.setMaxClockSkew((int) Math.min(Integer.MAX_VALUE, config.clockSkewSeconds()));
+    }
+
+    public @NotNull String name() {
+        return name;
+    }
+
+    //the iss claim of its tokens
+    public @NotNull String issuer() {
+        return issuer;
+    }
+
+    //who its tokens must be intended for
+    public @NotNull String audience() {
+        return audience;
+    }
+
+    public @NotNull Set<JWSAlgorithm> allowedAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    public @NotNull Set<String> allowedKeyIds() {
+        return allowedKeyIds;
+    }
+
+    //longest accepted difference between iat and exp, 0 accepts any lifetime
+    public long maxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    public @NotNull TokenPermissions.ClaimNames claimNames() {
+        return claimNames;
+    }
+
+    public @NotNull JwksManager jwksManager() {
+        return jwksManager;
+    }
+
+    @NotNull JwsVerifierCache verifiers() {
+        return verifiers;
+    }
+
+    @NotNull DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier() {
+        return claimsVerifier;
+    }
+}
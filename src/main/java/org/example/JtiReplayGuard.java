@@ -0,0 +1,210 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the jti of every accepted token until the token expires and rejects reuse according to the
+ * {@link ReplayPolicy}.
+ * <p>
+ * Entries are kept in a ring of buckets by expiration time, each bucket covering {@code bucketSeconds}. A token always
+ * lands in the bucket of its own {@code exp}, so a lookup only ever probes one bucket, and once a bucket's time has
+ * passed the whole bucket is dropped at once instead of removing entries one by one. Buckets are open addressing
+ * tables of primitives: a 64-bit hash of the jti and a 32-bit hash of the client id, 12 bytes per slot and at most
+ * 24 bytes per entry at the maximum load, with no object per entry.
+ * <p>
+ * Tokens that expire later than {@code maxLifetimeSeconds} from now are kept only that long.
+ * <p>
+ * The validator accepts a token until {@code exp} plus the clock skew, so a jti is kept until then as well, otherwise
+ * a replay shortly after {@code exp} would find its bucket dropped.
+ */
+public class JtiReplayGuard {
+
+    private static final int INITIAL_BUCKET_SLOTS = 64;
+
+    private final ReplayPolicy policy;
+    private final long bucketSeconds;
+    private final long clockSkewSeconds;
+    private final Bucket[] ring;
+    private final LongSupplier secondsClock;
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile long sweptEpoch;
+
+    /**
+     * @param clockSkewSeconds how long after {@code exp} the validator still accepts a token
+     */
+    public JtiReplayGuard(@NotNull ReplayPolicy policy, long bucketSeconds, long maxLifetimeSeconds,
+                          long clockSkewSeconds) {
+        this(policy, bucketSeconds, maxLifetimeSeconds, clockSkewSeconds,
+                () -> TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    JtiReplayGuard(@NotNull ReplayPolicy policy, long bucketSeconds, long maxLifetimeSeconds, long clockSkewSeconds,
+                   @NotNull LongSupplier secondsClock) {
+        this.policy = policy;
+        this.bucketSeconds = Math.max(1, bucketSeconds);
+        this.clockSkewSeconds = Math.max(0, clockSkewSeconds);
+        //one more bucket than the lifetime needs, for the bucket that is partly in the past
+        long keptSeconds = maxLifetimeSeconds + this.clockSkewSeconds;
+        int buckets = (int) Math.min(Integer.MAX_VALUE, (keptSeconds + this.bucketSeconds - 1) / this.bucketSeconds + 1);
+        this.ring = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            ring[i] = new Bucket();
+        }
+        this.secondsClock = secondsClock;
+        this.sweptEpoch = secondsClock.getAsLong() / this.bucketSeconds;
+    }
+
+    /**
+     * Records the use of a token.
+     *
+     * @param expiresAtSeconds the {@code exp} claim of the token
+     * @return false if the policy doesn't allow this use of the jti
+     */
+    public boolean tryAccept(@NotNull String jti, long expiresAtSeconds, @NotNull String clientId) {
+        if (policy == ReplayPolicy.OFF) {
+            return true;
+        }
+        long nowEpoch = secondsClock.getAsLong() / bucketSeconds;
+        sweep(nowEpoch);
+        //kept for as long as the token is still accepted
+        long epoch = Math.min(Math.max((expiresAtSeconds + clockSkewSeconds) / bucketSeconds, nowEpoch),
+                nowEpoch + ring.length - 1);
+        Bucket bucket = ring[(int) (epoch % ring.length)];
+
+        long jtiHash = hash(jti);
+        int clientHash = (int) (hash(clientId) >>> 32);
+        int previousClient;
+        synchronized (bucket) {
+            if (bucket.epoch != epoch) {
+                //only happens for an expired bucket the sweep hasn't reached yet
+                bucket.reset(epoch);
+            }
+            previousClient = bucket.putIfAbsent(jtiHash, clientHash);
+        }
+        if (previousClient == Bucket.ABSENT) {
+            return true;
+        }
+        if (policy == ReplayPolicy.SINGLE_SESSION && previousClient == clientHash) {
+            //the same client reconnecting, HiveMQ takes its previous session over
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    //drops buckets whose time is over, at most once per bucket period
+    private void sweep(long nowEpoch) {
+        if (nowEpoch == sweptEpoch) {
+            return;
+        }
+        sweptEpoch = nowEpoch;
+        for (Bucket bucket : ring) {
+            synchronized (bucket) {
+                if (bucket.size > 0 && bucket.epoch < nowEpoch) {
+                    bucket.reset(-1);
+                }
+            }
+        }
+    }
+
+    //64-bit FNV-1a with a final mix, 0 is reserved for empty slots
+    static long hash(@NotNull String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Bucket bucket : ring) {
+            synchronized (bucket) {
+                size += bucket.size;
+            }
+        }
+        return size;
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Bucket bucket : ring) {
+            synchronized (bucket) {
+                bytes += 12L * bucket.jtis.length;
+            }
+        }
+        return bytes;
+    }
+
+    //replayed tokens rejected
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    private static final class Bucket {
+        static final int ABSENT = Integer.MIN_VALUE;
+
+        long epoch = -1;
+        long[] jtis = new long[INITIAL_BUCKET_SLOTS];
+        int[] clients = new int[INITIAL_BUCKET_SLOTS];
+        int size;
+
+        //returns the client hash stored for the jti, or ABSENT after storing the new one
+        int putIfAbsent(long jtiHash, int clientHash) {
+            int mask = jtis.length - 1;
+            int i = (int) jtiHash & mask;
+            while (jtis[i] != 0) {
+                if (jtis[i] == jtiHash) {
+                    return clients[i];
+                }
+                i = (i + 1) & mask;
+            }
+            jtis[i] = jtiHash;
+            clients[i] = clientHash;
+            if (++size * 2 > jtis.length) {
+                grow();
+            }
+            return ABSENT;
+        }
+
+        private void grow() {
+            long[] oldJtis = jtis;
+            int[] oldClients = clients;
+            jtis = new long[oldJtis.length * 2];
+            clients = new int[oldJtis.length * 2];
+            int mask = jtis.length - 1;
+            for (int j = 0; j < oldJtis.length; j++) {
+                if (oldJtis[j] != 0) {
+                    int i = (int) oldJtis[j] & mask;
+                    while (jtis[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    jtis[i] = oldJtis[j];
+                    clients[i] = oldClients[j];
+                }
+            }
+        }
+
+        //the whole bucket expires at once, the arrays shrink back so a past burst doesn't hold memory
+        void reset(long epoch) {
+            this.epoch = epoch;
+            if (jtis.length > INITIAL_BUCKET_SLOTS) {
+                jtis = new long[INITIAL_BUCKET_SLOTS];
+                clients = new int[INITIAL_BUCKET_SLOTS];
+            } else {
+                Arrays.fill(jtis, 0);
+            }
+            size = 0;
+        }
+    }
+}
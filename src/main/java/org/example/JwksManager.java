@@ -0,0 +1,370 @@
+package org.example;
+
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.ResourceRetriever;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Source of the keys used to verify token signatures.
+ * <p>
+ * Unlike a plain remote JWKSource, the key set is fetched once at extension start and then refreshed on a background
+ * schedule, so connects never wait for the IdP in the normal case. Every successfully fetched key set is written to a
+ * snapshot file, which is loaded at the next start, so a restarted broker can authenticate clients immediately even
+ * if the IdP is down.
+ * <p>
+ * If refreshing fails, the last good key set keeps being served for at most {@code maxStaleMillis},
+ * with an error logged on every failed refresh. After that, no keys are served and all connects fail.
+ * <p>
+ * A token naming a {@code kid} that is not in the key set triggers a refetch, so rotated keys are picked up right
+ * away. Refetches are single-flight, connects with unknown kids meanwhile wait for the one in progress, and at most
+ * one is started per {@code minRefetchIntervalMillis}. A kid still missing after a successful refetch is remembered
+ * for {@code unknownKeyIdTtlMillis} and doesn't trigger refetches, so clients sending made-up kids can't make the
+ * broker hammer the IdP.
+ */
+public class JwksManager implements JWKSource<SecurityContext> {
+
+    private static final Logger log = LoggerFactory.getLogger(JwksManager.class);
+
+    //keys sets are small, anything larger is not a JWKS
+    private static final int SIZE_LIMIT_BYTES = 512 * 1024;
+
+    //made-up kids are remembered up to this many, then forgotten all at once
+    private static final int MAX_UNKNOWN_KEY_IDS = 10_000;
+    //returned by a fetch that failed, never in use, compared by identity
+    private static final KeySet FAILED_FETCH = new KeySet(new JWKSet(), 0, -1);
+
+    private final URL jwksUrl;
+    private final ResourceRetriever retriever;
+    private final @Nullable File snapshotFile;
+    private final long refreshIntervalMillis;
+    private final long maxStaleMillis;
+    private final long minRefetchIntervalNanos;
+    private final long unknownKeyIdTtlMillis;
+
+    private volatile @Nullable KeySet current;
+    //set once the key set in use became too stale, so that is logged once and not for every connect
+    private final AtomicBoolean tooStale = new AtomicBoolean();
+
+    private final Object refetchLock = new Object();
+    //the refetch for unknown kids in progress, guarded by refetchLock
+    private @Nullable CompletableFuture<KeySet> inFlightRefetch;
+    //guarded by refetchLock
+    private long lastRefetchNanos;
+    //kids missing from the key set after a successful refetch, until when they are not looked up again
+    private final ConcurrentHashMap<String, Long> unknownKeyIds = new ConcurrentHashMap<>();
+
+    //every fetch attempt, successful or not
+    private final Timer fetchTimer = new Timer(new RandomReplacementReservoir(256));
+    private final LongAdder fetchFailures = new LongAdder();
+    private final LongAdder refetches = new LongAdder();
+    private final LongAdder throttledRefetches = new LongAdder();
+    private final LongAdder unknownKeyIdHits = new LongAdder();
+
+    public JwksManager(@NotNull String jwksUrl, @Nullable File snapshotFile, long refreshIntervalMillis,
+                       long maxStaleMillis, int connectTimeoutMillis, int readTimeoutMillis,
+                       long minRefetchIntervalMillis, long unknownKeyIdTtlMillis) throws MalformedURLException {
+        this(new URL(jwksUrl), new DefaultResourceRetriever(connectTimeoutMillis, readTimeoutMillis, SIZE_LIMIT_BYTES),
+                snapshotFile, refreshIntervalMillis, maxStaleMillis, minRefetchIntervalMillis, unknownKeyIdTtlMillis);
+    }
+
+    JwksManager(@NotNull URL jwksUrl, @NotNull ResourceRetriever retriever, @Nullable File snapshotFile,
+                long refreshIntervalMillis, long maxStaleMillis) {
+        this(jwksUrl, retriever, snapshotFile, refreshIntervalMillis, maxStaleMillis, 0, 0);
+    }
+
+    JwksManager(@NotNull URL jwksUrl, @NotNull ResourceRetriever retriever, @Nullable File snapshotFile,
+                long refreshIntervalMillis, long maxStaleMillis, long minRefetchIntervalMillis,
+                long unknownKeyIdTtlMillis) {
+        this.jwksUrl = jwksUrl;
+        this.retriever = retriever;
+        this.snapshotFile = snapshotFile;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.minRefetchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minRefetchIntervalMillis);
+        this.unknownKeyIdTtlMillis = unknownKeyIdTtlMillis;
+        //the first refetch is never throttled
+        this.lastRefetchNanos = System.nanoTime() - minRefetchIntervalNanos;
+    }
+
+    /**
+     * Loads the snapshot, fetches the current key set and schedules the background refresh.
+     * Failing to fetch is not fatal here, the snapshot or a later refresh provides the keys.
+     */
+    public void start(@NotNull ScheduledExecutorService scheduler) {
+        loadSnapshot();
+        refresh();
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the snapshot and fetches the current key set on the scheduler, without waiting for the IdP. Connects
+     * with tokens of this issuer that arrive before there are keys wait for that fetch, others are not affected.
+     */
+    public void startInBackground(@NotNull ScheduledExecutorService scheduler) {
+        loadSnapshot();
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<JWK> get(@NotNull JWKSelector jwkSelector, @Nullable SecurityContext context) throws KeySourceException {
+        KeySet keySet = keySet();
+        List<JWK> keys = jwkSelector.select(keySet.jwkSet);
+        if (!keys.isEmpty()) {
+            return keys;
+        }
+        String keyId = keyIdOf(jwkSelector);
+        Long retryAt = unknownKeyIds.get(keyId);
+        if (retryAt != null) {
+            if (System.currentTimeMillis() < retryAt) {
+                unknownKeyIdHits.increment();
+                return keys;
+            }
+            unknownKeyIds.remove(keyId, retryAt);
+        }
+        //the IdP may have rotated its keys since the last refresh
+        KeySet refetched = refetch(keySet);
+        if (refetched == null || refetched == FAILED_FETCH) {
+            //throttled or failed, it's unknown whether the IdP has the kid, but another fetch may have completed
+            //since this connect read the key set
+            KeySet latest = current;
+            return latest == null || latest == keySet ? keys : jwkSelector.select(latest.jwkSet);
+        }
+        keys = jwkSelector.select(refetched.jwkSet);
+        if (keys.isEmpty() && unknownKeyIdTtlMillis > 0) {
+            if (unknownKeyIds.size() >= MAX_UNKNOWN_KEY_IDS) {
+                unknownKeyIds.clear();
+            }
+            unknownKeyIds.put(keyId, System.currentTimeMillis() + unknownKeyIdTtlMillis);
+        }
+        return keys;
+    }
+
+    /**
+     * Fetches the key set for a connect that has no usable key, because its kid is unknown or there is no key set
+     * yet, or waits for such a fetch already in progress.
+     *
+     * @param seen the key set the connect found lacking, not fetched again if another fetch replaced it meanwhile
+     * @return the key set after the fetch, {@link #FAILED_FETCH} if it failed, null if none was made because the
+     * last one was too recent
+     */
+    private @Nullable KeySet refetch(@Nullable KeySet seen) {
+        CompletableFuture<KeySet> fetch;
+        synchronized (refetchLock) {
+            fetch = inFlightRefetch;
+            if (fetch == null) {
+                long now = System.nanoTime();
+                if (now - lastRefetchNanos < minRefetchIntervalNanos) {
+                    throttledRefetches.increment();
+                    return null;
+                }
+                lastRefetchNanos = now;
+                inFlightRefetch = new CompletableFuture<>();
+            }
+        }
+        if (fetch != null) {
+            return fetch.join();
+        }
+        refetches.increment();
+        KeySet keySet = FAILED_FETCH;
+        try {
+            keySet = fetchUnlessChanged(seen);
+        } finally {
+            synchronized (refetchLock) {
+                fetch = inFlightRefetch;
+                inFlightRefetch = null;
+            }
+            fetch.complete(keySet);
+        }
+        return keySet;
+    }
+
+    //tokens without a kid share one entry
+    private static @NotNull String keyIdOf(@NotNull JWKSelector jwkSelector) {
+        Set<String> keyIds = jwkSelector.getMatcher().getKeyIDs();
+        return keyIds == null || keyIds.isEmpty() ? "" : String.join(",", keyIds);
+    }
+
+    /**
+     * @return the key set to verify tokens with right now
+     * @throws KeySourceException if there is none or it is older than {@code maxStaleMillis}
+     */
+    @NotNull KeySet keySet() throws KeySourceException {
+        KeySet keySet = current;
+        if (keySet == null) {
+            //nothing prefetched and no snapshot, connects wait for the IdP, throttled like refetches for unknown kids
+            keySet = refetch(null);
+            if (keySet == null || keySet == FAILED_FETCH) {
+                keySet = current;
+            }
+            if (keySet == null) {
+                throw new KeySourceException("No JWKS available from " + jwksUrl);
+            }
+        }
+        if (System.currentTimeMillis() - keySet.fetchedAt > maxStaleMillis) {
+            //every connect gets here during an outage, only the first one logs
+            if (tooStale.compareAndSet(false, true)) {
+                log.error("JWKS from {} is older than the allowed {} s, refusing to verify tokens with it until it"
+                        + " is fetched again", jwksUrl, TimeUnit.MILLISECONDS.toSeconds(maxStaleMillis));
+            }
+            throw new KeySourceException("JWKS from " + jwksUrl + " is too stale");
+        }
+        return keySet;
+    }
+
+    /**
+     * Fetches the key set from the IdP and keeps the last good one if that fails.
+     *
+     * @return the key set in use after the attempt, null if there is none
+     */
+    synchronized @Nullable KeySet refresh() {
+        KeySet keySet = fetch();
+        return keySet != FAILED_FETCH ? keySet : current;
+    }
+
+    //the fetched key set, or FAILED_FETCH with the last good one left in place
+    private synchronized @NotNull KeySet fetch() {
+        long fetchStart = System.nanoTime();
+        try {
+            JWKSet jwkSet;
+            try {
+                jwkSet = JWKSet.parse(retriever.retrieveResource(jwksUrl).getContent());
+            } finally {
+                fetchTimer.update(System.nanoTime() - fetchStart, TimeUnit.NANOSECONDS);
+            }
+            KeySet previous = current;
+            //the generation only changes with the keys, so verifiers built from them survive a refresh
+            long generation = previous == null ? 0 : previous.generation;
+            if (previous != null && !previous.jwkSet.toJSONObject(true).equals(jwkSet.toJSONObject(true))) {
+                generation++;
+                log.info("JWKS from {} changed, now {} keys", jwksUrl, jwkSet.getKeys().size());
+            }
+            KeySet keySet = new KeySet(jwkSet, System.currentTimeMillis(), generation);
+            current = keySet;
+            if (tooStale.getAndSet(false)) {
+                log.info("JWKS from {} fetched again, verifying tokens with it", jwksUrl);
+            }
+            log.debug("Fetched {} keys from {}", jwkSet.getKeys().size(), jwksUrl);
+            writeSnapshot(jwkSet);
+            return keySet;
+        } catch (IOException | ParseException e) {
+            fetchFailures.increment();
+            KeySet lastGood = current;
+            if (lastGood == null) {
+                log.error("Failed to fetch JWKS from {} and no previous key set is available: {}", jwksUrl, e.getMessage());
+            } else {
+                long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - lastGood.fetchedAt);
+                log.error("JWKS STALE: failed to refresh keys from {} ({}), serving key set from {} s ago (limit {} s)",
+                        jwksUrl, e.getMessage(), ageSeconds, TimeUnit.MILLISECONDS.toSeconds(maxStaleMillis));
+            }
+            return FAILED_FETCH;
+        }
+    }
+
+    //a fetch that finished while waiting for the lock is not repeated
+    private synchronized @NotNull KeySet fetchUnlessChanged(@Nullable KeySet seen) {
+        KeySet keySet = current;
+        return keySet != null && keySet != seen ? keySet : fetch();
+    }
+
+    public @NotNull Timer fetchTimer() {
+        return fetchTimer;
+    }
+
+    public long fetchFailureCount() {
+        return fetchFailures.sum();
+    }
+
+    //fetches for connects without a usable key, for an unknown kid or before there was a key set
+    public long refetchCount() {
+        return refetches.sum();
+    }
+
+    //unknown kids not fetched because the last refetch was too recent
+    public long throttledRefetchCount() {
+        return throttledRefetches.sum();
+    }
+
+    //unknown kids not fetched because a recent refetch didn't have them
+    public long unknownKeyIdHitCount() {
+        return unknownKeyIdHits.sum();
+    }
+
+    //age of the key set in use, -1 if there is none
+    public long keySetAgeMillis() {
+        KeySet keySet = current;
+        return keySet == null ? -1 : System.currentTimeMillis() - keySet.fetchedAt;
+    }
+
+    private void loadSnapshot() {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return;
+        }
+        try {
+            JWKSet jwkSet = JWKSet.load(snapshotFile);
+            current = new KeySet(jwkSet, snapshotFile.lastModified(), 0);
+            log.info("Loaded {} keys from JWKS snapshot {}", jwkSet.getKeys().size(), snapshotFile);
+        } catch (IOException | ParseException e) {
+            log.warn("Ignoring unreadable JWKS snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private void writeSnapshot(JWKSet jwkSet) {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            Path target = snapshotFile.toPath();
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            //public keys only, the snapshot never contains secrets
+            Files.writeString(temp, jwkSet.toString(true), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write JWKS snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    static final class KeySet {
+        final JWKSet jwkSet;
+        final long fetchedAt;
+        final long generation;
+
+        KeySet(JWKSet jwkSet, long fetchedAt, long generation) {
+            this.jwkSet = jwkSet;
+            this.fetchedAt = fetchedAt;
+            this.generation = generation;
+        }
+    }
+}
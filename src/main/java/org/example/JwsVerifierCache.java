@@ -0,0 +1,339 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.JWSVerifierFactory;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Base64URL;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ready-to-use signature verifiers for the keys of the JWKS, built once per key ID and algorithm.
+ * <p>
+ * Used by the {@link TokenValidator} as both key selector and verifier factory: {@link #selectJWSKeys} returns the
+ * cached public keys of the token's {@code kid} and {@link #createJWSVerifier} the verifier built for that exact key.
+ * Nimbus' defaults instead convert the JWK to a Java key and create a new verifier, including a JCA {@link Signature}
+ * lookup, for every token. Every entry remembers the generation of the key set it was built from and is only used
+ * while that generation is current, so a verifier for a removed key is never used after a rotation, even if it was
+ * still being built while the keys changed.
+ * <p>
+ * RSA, RSA-PSS, ECDSA and Ed25519 signatures are verified with the JDK's providers, so a key set may mix RSA, EC and
+ * OKP keys. Ed25519 keys are converted here, Nimbus can only use them with Tink.
+ */
+public class JwsVerifierCache implements JWSKeySelector<SecurityContext>, JWSVerifierFactory {
+
+    //JCA names of the algorithms verified with a reused Signature, others go through Nimbus' verifiers
+    private static final Map<JWSAlgorithm, String> JCA_ALGORITHMS = Map.ofEntries(
+            Map.entry(JWSAlgorithm.RS256, "SHA256withRSA"),
+            Map.entry(JWSAlgorithm.RS384, "SHA384withRSA"),
+            Map.entry(JWSAlgorithm.RS512, "SHA512withRSA"),
+            Map.entry(JWSAlgorithm.PS256, "RSASSA-PSS"),
+            Map.entry(JWSAlgorithm.PS384, "RSASSA-PSS"),
+            Map.entry(JWSAlgorithm.PS512, "RSASSA-PSS"),
+            //JWS carries ECDSA signatures as R || S, not DER encoded
+            Map.entry(JWSAlgorithm.ES256, "SHA256withECDSAinP1363Format"),
+            Map.entry(JWSAlgorithm.ES384, "SHA384withECDSAinP1363Format"),
+            Map.entry(JWSAlgorithm.ES512, "SHA512withECDSAinP1363Format"),
+            Map.entry(JWSAlgorithm.EdDSA, "Ed25519"),
+            Map.entry(JWSAlgorithm.Ed25519, "Ed25519"));
+
+    //RFC 7518: MGF1 with the same hash, salt as long as the hash
+    private static final Map<JWSAlgorithm, PSSParameterSpec> PSS_PARAMETERS = Map.of(
+            JWSAlgorithm.PS256, new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1),
+            JWSAlgorithm.PS384, new PSSParameterSpec("SHA-384", "MGF1", MGF1ParameterSpec.SHA384, 48, 1),
+            JWSAlgorithm.PS512, new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1));
+
+    //field size of the curve each ECDSA algorithm is defined for
+    private static final Map<JWSAlgorithm, Integer> EC_FIELD_SIZES = Map.of(
+            JWSAlgorithm.ES256, 256,
+            JWSAlgorithm.ES384, 384,
+            JWSAlgorithm.ES512, 521);
+
+    //DER encoding of an Ed25519 SubjectPublicKeyInfo up to the 32 bytes of the raw key
+    private static final byte[] ED25519_X509_PREFIX = {
+            0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+
+    private final JwksManager jwksManager;
+    private final Set<JWSAlgorithm> allowedAlgorithms;
+    private final JWSVerifierFactory fallbackFactory = new DefaultJWSVerifierFactory();
+    private final JCAContext jcaContext = new JCAContext();
+
+    //per algorithm, keyed by kid, tokens without a kid use ""
+    private final Map<JWSAlgorithm, ConcurrentHashMap<String, Entry>> entries;
+    //last generation the entries were cleared for
+    private volatile long generation = -1;
+
+    public JwsVerifierCache(@NotNull JwksManager jwksManager, @NotNull Set<JWSAlgorithm> allowedAlgorithms) {
+        this.jwksManager = jwksManager;
+        this.allowedAlgorithms = Set.copyOf(allowedAlgorithms);
+        Map<JWSAlgorithm, ConcurrentHashMap<String, Entry>> entries = new HashMap<>();
+        for (JWSAlgorithm algorithm : this.allowedAlgorithms) {
+            entries.put(algorithm, new ConcurrentHashMap<>());
+        }
+        this.entries = Map.copyOf(entries);
+    }
+
+    @Override
+    public List<? extends Key> selectJWSKeys(@NotNull JWSHeader header, @Nullable SecurityContext context) throws KeySourceException {
+        JWSAlgorithm algorithm = header.getAlgorithm();
+        if (!allowedAlgorithms.contains(algorithm)) {
+            return List.of();
+        }
+        long currentGeneration = jwksManager.keySet().generation;
+        if (currentGeneration != generation) {
+            //keys were rotated, frees the verifiers of the previous keys, the generation check below keeps them unused
+            generation = currentGeneration;
+            for (ConcurrentHashMap<String, Entry> byKid : entries.values()) {
+                byKid.clear();
+            }
+        }
+        ConcurrentHashMap<String, Entry> byKid = entries.get(algorithm);
+        String kid = kidOf(header);
+        Entry entry = byKid.get(kid);
+        if (entry != null && entry.generation == currentGeneration) {
+            return entry.keys;
+        }
+        entry = build(header, context, currentGeneration);
+        if (entry.keys.isEmpty()) {
+            //unknown kid, not cached so a later rotation is picked up
+            return entry.keys;
+        }
+        //keys fetched while building may come from a newer key set, only cached if none replaced the one read above
+        if (jwksManager.keySet().generation == currentGeneration) {
+            byKid.put(kid, entry);
+        }
+        return entry.keys;
+    }
+
+    @Override
+    public JWSVerifier createJWSVerifier(@NotNull JWSHeader header, @NotNull Key key) throws JOSEException {
+        ConcurrentHashMap<String, Entry> byKid = entries.get(header.getAlgorithm());
+        Entry entry = byKid != null ? byKid.get(kidOf(header)) : null;
+        if (entry != null) {
+            for (int i = 0; i < entry.keys.size(); i++) {
+                if (entry.keys.get(i) == key) {
+                    return entry.verifiers.get(i);
+                }
+            }
+        }
+        return fallbackFactory.createJWSVerifier(header, key);
+    }
+
+    private Entry build(JWSHeader header, @Nullable SecurityContext context, long generation) throws KeySourceException {
+        JWKMatcher matcher = JWKMatcher.forJWSHeader(header);
+        if (matcher == null) {
+            return new Entry(generation, List.of(), List.of());
+        }
+        List<JWK> jwks = jwksManager.get(new JWKSelector(matcher), context);
+        List<PublicKey> keys = new ArrayList<>();
+        List<JWSVerifier> verifiers = new ArrayList<>();
+        for (JWK jwk : jwks) {
+            PublicKey key = toPublicKey(jwk);
+            if (key == null) {
+                continue;
+            }
+            try {
+                verifiers.add(createVerifier(header, key));
+                keys.add(key);
+            } catch (JOSEException e) {
+                //key type doesn't fit the algorithm, same as Nimbus' key selector skipping it
+            }
+        }
+        return new Entry(generation, List.copyOf(keys), List.copyOf(verifiers));
+    }
+
+    //null for keys that can't verify signatures, e.g. Ed448 or symmetric ones
+    static @Nullable PublicKey toPublicKey(@NotNull JWK jwk) {
+        try {
+            if (jwk instanceof OctetKeyPair) {
+                OctetKeyPair okp = (OctetKeyPair) jwk;
+                byte[] x = okp.getX().decode();
+                if (!Curve.Ed25519.equals(okp.getCurve()) || x.length != 32) {
+                    return null;
+                }
+                byte[] encoded = Arrays.copyOf(ED25519_X509_PREFIX, ED25519_X509_PREFIX.length + x.length);
+                System.arraycopy(x, 0, encoded, ED25519_X509_PREFIX.length, x.length);
+                return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(encoded));
+            }
+            if (jwk instanceof AsymmetricJWK) {
+                return ((AsymmetricJWK) jwk).toPublicKey();
+            }
+        } catch (JOSEException | GeneralSecurityException e) {
+            //not a usable key, skipped like Nimbus' key converter does
+        }
+        return null;
+    }
+
+    private JWSVerifier createVerifier(JWSHeader header, PublicKey key) throws JOSEException {
+        JWSAlgorithm algorithm = header.getAlgorithm();
+        String jcaName = JCA_ALGORITHMS.get(algorithm);
+        if (jcaName == null) {
+            return fallbackFactory.createJWSVerifier(header, key);
+        }
+        if (!fits(algorithm, key)) {
+            throw new JOSEException(algorithm + " signatures can't be verified with a " + key.getAlgorithm() + " key");
+        }
+        return new ReusableSignatureVerifier(algorithm, jcaName, PSS_PARAMETERS.get(algorithm), key, jcaContext);
+    }
+
+    //the JCA would verify ECDSA with a key of any curve, and RSA-PSS with an EC key fails late
+    private static boolean fits(JWSAlgorithm algorithm, PublicKey key) {
+        if (JWSAlgorithm.Family.RSA.contains(algorithm)) {
+            return key instanceof RSAPublicKey;
+        }
+        Integer fieldSize = EC_FIELD_SIZES.get(algorithm);
+        if (fieldSize != null) {
+            return key instanceof ECPublicKey
+                    && ((ECPublicKey) key).getParams().getCurve().getField().getFieldSize() == fieldSize;
+        }
+        return key instanceof EdECPublicKey
+                && NamedParameterSpec.ED25519.getName().equalsIgnoreCase(((EdECPublicKey) key).getParams().getName());
+    }
+
+    private static String kidOf(JWSHeader header) {
+        String kid = header.getKeyID();
+        return kid == null ? "" : kid;
+    }
+
+    //number of key ID and algorithm pairs with built verifiers
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Entry> byKid : entries.values()) {
+            size += byKid.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    @Override
+    public JCAContext getJCAContext() {
+        return jcaContext;
+    }
+
+    private static final class Entry {
+        //of the key set the keys were selected from
+        final long generation;
+        final List<PublicKey> keys;
+        final List<JWSVerifier> verifiers;
+
+        Entry(long generation, List<PublicKey> keys, List<JWSVerifier> verifiers) {
+            this.generation = generation;
+            this.keys = keys;
+            this.verifiers = verifiers;
+        }
+    }
+
+    /**
+     * Verifies with a {@link Signature} that is initialized with the key once per thread and then reused,
+     * {@link Signature#verify} resets it for the next token. On virtual threads, which are not reused,
+     * this is no cheaper than creating a new one per token.
+     */
+    static final class ReusableSignatureVerifier implements JWSVerifier {
+
+        private final JWSAlgorithm algorithm;
+        private final String jcaName;
+        //RSA-PSS only
+        private final @Nullable AlgorithmParameterSpec parameters;
+        private final PublicKey key;
+        private final JCAContext jcaContext;
+        private final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+
+        ReusableSignatureVerifier(JWSAlgorithm algorithm, String jcaName, @Nullable AlgorithmParameterSpec parameters,
+                                  PublicKey key, JCAContext jcaContext) throws JOSEException {
+            this.algorithm = algorithm;
+            this.jcaName = jcaName;
+            this.parameters = parameters;
+            this.key = key;
+            this.jcaContext = jcaContext;
+            //fails early if the JVM can't verify this algorithm with this key
+            signatures.set(newSignature());
+        }
+
+        @Override
+        public boolean verify(@NotNull JWSHeader header, byte[] signingInput, @NotNull Base64URL signature) throws JOSEException {
+            if (!algorithm.equals(header.getAlgorithm())) {
+                return false;
+            }
+            //no critical header parameters are understood, like Nimbus' verifiers without deferred parameters
+            Set<String> criticalParams = header.getCriticalParams();
+            if (criticalParams != null && !criticalParams.isEmpty()) {
+                return false;
+            }
+            Signature verifier = signatures.get();
+            if (verifier == null) {
+                verifier = newSignature();
+                signatures.set(verifier);
+            }
+            try {
+                verifier.update(signingInput);
+                return verifier.verify(signature.decode());
+            } catch (SignatureException e) {
+                //the state of the Signature is unknown after a failure
+                signatures.remove();
+                return false;
+            }
+        }
+
+        private Signature newSignature() throws JOSEException {
+            try {
+                Signature signature = Signature.getInstance(jcaName);
+                if (parameters != null) {
+                    signature.setParameter(parameters);
+                }
+                signature.initVerify(key);
+                return signature;
+            } catch (GeneralSecurityException e) {
+                throw new JOSEException("Can't verify " + algorithm + " signatures: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+            return Set.of(algorithm);
+        }
+
+        @Override
+        public JCAContext getJCAContext() {
+            return jcaContext;
+        }
+    }
+}
@@ -1,139 +1,425 @@
 package org.example;
 
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.auth.EnhancedAuthenticator;
 import com.hivemq.extension.sdk.api.auth.SimpleAuthenticator;
-import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthInput;
-import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.*;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionInformation;
+import com.hivemq.extension.sdk.api.packets.auth.AuthPacket;
+import com.hivemq.extension.sdk.api.packets.connect.ConnackReasonCode;
 import com.hivemq.extension.sdk.api.packets.connect.ConnectPacket;
+import com.hivemq.extension.sdk.api.packets.general.DisconnectedReasonCode;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JOSEObjectType;
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
 import com.nimbusds.jose.proc.*;
 import com.nimbusds.jose.util.StandardCharset;
-import com.nimbusds.jwt.JWTClaimNames;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
-import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
-import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.*;
-
-public class MyAuthenticator implements SimpleAuthenticator {
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Authenticates clients with the JWT they send as password or, with MQTT 5 enhanced authentication,
+ * as authentication data. Enhanced authentication also lets a client re-authenticate with a new token
+ * on its open connection.
+ */
+public class MyAuthenticator implements SimpleAuthenticator, EnhancedAuthenticator {
 
     private static final Logger log = LoggerFactory.getLogger(MyAuthenticator.class);
 
 
-    //Json Web Key Set URL (where the JSON Web Keys are hosted)
-    //contains the public key that can be used to verify JWT signatures
-    private static final String JWKS_URL = "http://158.39.77.107:8081/realms/smartocean-testrealm/protocol/openid-connect/certs";
+    //structure, header, unverified claims, signature and claim policies, cheapest first
+    private final TokenValidator validator;
+    private final AuthMetrics metrics;
+
+    private final VerifiedTokenCache tokenCache;
+    //null when disabled
+    private final @Nullable NegativeTokenCache negativeCache;
+    private final @Nullable JtiReplayGuard replayGuard;
+
+    //null when tokens are verified directly on the calling network thread
+    private final @Nullable VerificationExecutor verificationExecutor;
+    private final Duration asyncTimeout;
+    //null when verifications are not limited
+    private final @Nullable AdmissionController admissionController;
+    private final @Nullable ConnectRateLimiter connectRateLimiter;
+    private final AuthorizationMode authorizationMode;
+    private final PermissionRegistry permissionRegistry;
+    //null when connections are not touched once their token expired
+    private final @Nullable TokenExpiryWheel expiryWheel;
+    //audit log and decision journal, null when neither is enabled
+    private final @Nullable DecisionRecorder decisions;
+
+    //one verification per token at a time, concurrent connects with the same token wait for its result
+    private final ConcurrentHashMap<TokenDigest, CompletableFuture<JWTClaimsSet>> inFlightVerifications = new ConcurrentHashMap<>();
+    private final LongAdder coalescedVerifications = new LongAdder();
+
+    //MQTT 5 authentication method of clients sending the token as authentication data
+    private final String authenticationMethod;
+
+    /**
+     * @param issuers the IdPs whose tokens are accepted, each with the public keys to verify their signatures
+     */
+    public MyAuthenticator(@NotNull ExtensionConfig config, @NotNull List<Issuer> issuers,
+                           @Nullable VerificationExecutor verificationExecutor,
+                           @Nullable AdmissionController admissionController,
+                           @Nullable ConnectRateLimiter connectRateLimiter,
+                           @NotNull PermissionRegistry permissionRegistry,
+                           @Nullable TokenExpiryWheel expiryWheel,
+                           @NotNull AuthMetrics metrics,
+                           @Nullable DecisionRecorder decisions) {
+        this.metrics = metrics;
+        this.decisions = decisions;
+        this.expiryWheel = expiryWheel;
+        this.admissionController = admissionController;
+        this.connectRateLimiter = connectRateLimiter;
+        this.authenticationMethod = config.authenticationMethod();
+        this.permissionRegistry = permissionRegistry;
+        this.tokenCache = new VerifiedTokenCache(config.tokenCacheMaxSize());
+        this.negativeCache = config.negativeCacheMaxSize() > 0
+                ? new NegativeTokenCache(config.negativeCacheMaxSize(), config.negativeCacheTtlMillis())
+                : null;
+        this.replayGuard = config.replayPolicy() != ReplayPolicy.OFF
+                ? new JtiReplayGuard(config.replayPolicy(), config.replayBucketSeconds(),
+                        config.replayMaxTokenLifetimeSeconds(), maxClockSkewSeconds(issuers))
+                : null;
+        this.verificationExecutor = verificationExecutor;
+        this.asyncTimeout = Duration.ofMillis(config.asyncTimeoutMillis());
+        this.authorizationMode = config.authorizationMode();
+
+        validator = new TokenValidator(config, issuers, metrics);
+        metrics.gauge("verifier-cache.size", validator::verifierCacheSize);
+
+        metrics.hitRatio("token-cache.hit-ratio", tokenCache::hitCount, tokenCache::missCount);
+        metrics.gauge("token-cache.size", tokenCache::size);
+        if (negativeCache != null) {
+            metrics.gauge("negative-cache.hits", negativeCache::hitCount);
+        }
+        if (replayGuard != null) {
+            metrics.gauge("replay.tracked", replayGuard::size);
+        }
+        metrics.gauge("connect.in-flight", inFlightVerifications::size);
+        metrics.gauge("connect.coalesced", coalescedVerifications::sum);
 
-    private static final String EXPECTED_ISSUER = "http://158.39.77.107:8081/realms/smartocean-testrealm";
+    }
 
-    private static final String CLAIM_ALLOWED_TOPICS = "allowed_topics";
+    //the longest any issuer still accepts a token after its exp
+    private static long maxClockSkewSeconds(@NotNull List<Issuer> issuers) {
+        long skew = 0;
+        for (Issuer issuer : issuers) {
+            skew = Math.max(skew, issuer.claimsVerifier().getMaxClockSkew());
+        }
+        return skew;
+    }
 
-    //who the token is intended/issued for
-    private static final String EXPECTED_AUDIENCE = "hivemq-smartocean-testbroker";
+    @Override
+    public void onConnect(@NotNull SimpleAuthInput simpleAuthInput, @NotNull SimpleAuthOutput simpleAuthOutput) {
 
+        ConnectPacket connectPacket = simpleAuthInput.getConnectPacket();
+        Attempt attempt = new Attempt(connectPacket.getClientId(), simpleAuthInput.getConnectionInformation(), false);
 
-    private final ConfigurableJWTProcessor<SecurityContext> jwtProcessor;
+        if (connectPacket.getPassword().isEmpty()) {
+            rejected(attempt, RejectReason.MISSING_TOKEN);
+            simpleAuthOutput.failAuthentication();
+            return;
+        }
 
-    public MyAuthenticator() throws MalformedURLException {
-        jwtProcessor = new DefaultJWTProcessor<>();
+        authenticate(attempt, connectPacket.getPassword().get(), AuthResult.of(simpleAuthOutput));
+    }
 
-        //used to verify the signature of JWTs
-        JWKSource<SecurityContext> keySource = JWKSourceBuilder
-                .create(new URL(JWKS_URL))
-                .retrying(true)
-                .build();
+    @Override
+    public void onConnect(@NotNull EnhancedAuthConnectInput enhancedAuthConnectInput, @NotNull EnhancedAuthOutput enhancedAuthOutput) {
+
+        ConnectPacket connectPacket = enhancedAuthConnectInput.getConnectPacket();
+        Attempt attempt = new Attempt(connectPacket.getClientId(), enhancedAuthConnectInput.getConnectionInformation(), false);
+
+        //MQTT 5 clients send the token as authentication data, everyone else still uses the password
+        Optional<ByteBuffer> token;
+        Optional<String> authenticationMethod = connectPacket.getAuthenticationMethod();
+        if (authenticationMethod.isPresent()) {
+            if (!authenticationMethod.get().equals(this.authenticationMethod)) {
+                rejected(attempt, RejectReason.BAD_AUTHENTICATION_METHOD);
+                enhancedAuthOutput.failAuthentication(DisconnectedReasonCode.BAD_AUTHENTICATION_METHOD,
+                        "Unsupported authentication method");
+                return;
+            }
+            token = connectPacket.getAuthenticationData();
+        } else {
+            token = connectPacket.getPassword();
+        }
 
-        //Selects the appropriate key from the keySource to verify the signature of the JWT
-        JWSKeySelector<SecurityContext> keySelector = new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, keySource);
-        jwtProcessor.setJWSKeySelector(keySelector);
+        if (token.isEmpty()) {
+            rejected(attempt, RejectReason.MISSING_TOKEN);
+            enhancedAuthOutput.failAuthentication();
+            return;
+        }
 
-        JWTClaimsSet exactMatchClaims = new JWTClaimsSet.Builder()
-                .issuer(EXPECTED_ISSUER)
-                .build();
+        authenticate(attempt, token.get(), AuthResult.of(enhancedAuthOutput));
+    }
 
-        Set<String> requiredClaims = new HashSet<>(Arrays.asList(
-                JWTClaimNames.SUBJECT,
-                JWTClaimNames.ISSUED_AT,
-                JWTClaimNames.EXPIRATION_TIME,
-                JWTClaimNames.JWT_ID
-        ));
+    @Override
+    public void onReAuth(@NotNull EnhancedAuthInput enhancedAuthInput, @NotNull EnhancedAuthOutput enhancedAuthOutput) {
 
-        //checks the type header of the JWT
-        jwtProcessor.setJWSTypeVerifier(new DefaultJOSEObjectTypeVerifier<>(new JOSEObjectType("JWT")));
+        AuthPacket authPacket = enhancedAuthInput.getAuthPacket();
+        Attempt attempt = new Attempt(enhancedAuthInput.getClientInformation().getClientId(),
+                enhancedAuthInput.getConnectionInformation(), true);
 
-        jwtProcessor.setJWTClaimsSetVerifier(new DefaultJWTClaimsVerifier<>(
-                exactMatchClaims,
-                requiredClaims
-        ));
+        //a client refreshes its token by sending the new one in an AUTH packet, the connection stays open
+        Optional<ByteBuffer> token = authPacket.getAuthenticationData();
+        if (!authenticationMethod.equals(authPacket.getAuthenticationMethod()) || token.isEmpty()) {
+            rejected(attempt, RejectReason.MISSING_TOKEN);
+            enhancedAuthOutput.failAuthentication(DisconnectedReasonCode.NOT_AUTHORIZED, "Re-authentication needs a new token");
+            return;
+        }
 
+        authenticate(attempt, token.get(), AuthResult.of(enhancedAuthOutput));
     }
 
     @Override
-    public void onConnect(@NotNull SimpleAuthInput simpleAuthInput, @NotNull SimpleAuthOutput simpleAuthOutput) {
+    public void onAuth(@NotNull EnhancedAuthInput enhancedAuthInput, @NotNull EnhancedAuthOutput enhancedAuthOutput) {
+        //the token is complete in the CONNECT, there is no challenge to continue
+        enhancedAuthOutput.failAuthentication();
+    }
 
-        ConnectPacket connectPacket = simpleAuthInput.getConnectPacket();
+    private void authenticate(@NotNull Attempt attempt, @NotNull ByteBuffer token, @NotNull AuthResult result) {
 
-        if (connectPacket.getPassword().isEmpty()) {
-            simpleAuthOutput.failAuthentication();
+        //a re-authentication doesn't open a new connection, so it doesn't count against the connect rate
+        if (connectRateLimiter != null && !attempt.reAuthentication) {
+            Optional<InetAddress> address = attempt.connection.getInetAddress();
+            if (address.isPresent() && !connectRateLimiter.tryAcquire(address.get())) {
+                log.debug("Connect rate of {} exceeded, rejecting client: {}", address.get(), attempt.clientId);
+                rejected(attempt, RejectReason.RATE_LIMITED);
+                result.fail(ConnackReasonCode.CONNECTION_RATE_EXCEEDED, "Connection rate exceeded");
+                return;
+            }
+        }
+
+        String jwtString = StandardCharset.UTF_8
+                .decode(token)
+                .toString();
+
+        //a client reconnecting with a token we already verified skips parsing and signature verification
+        TokenDigest tokenDigest = TokenDigest.of(jwtString);
+        attempt.tokenFingerprint = tokenDigest.fingerprint();
+        JWTClaimsSet cachedClaims = tokenCache.get(tokenDigest);
+        if (cachedClaims != null) {
+            complete(attempt, result, cachedClaims, null);
             return;
         }
 
-        try {
+        //a client retrying with a token we rejected recently is rejected again without parsing or verifying it
+        if (negativeCache != null) {
+            RejectReason knownReason = negativeCache.get(tokenDigest);
+            if (knownReason != null) {
+                log.debug("Rejecting client {}, token was rejected before: {}", attempt.clientId, knownReason);
+                rejected(attempt, knownReason);
+                result.fail();
+                return;
+            }
+        }
 
-            String mqttClientId = connectPacket.getClientId();
-            log.info("Authenticating client: {} ", mqttClientId);
+        CompletableFuture<JWTClaimsSet> verification = new CompletableFuture<>();
+        CompletableFuture<JWTClaimsSet> running = inFlightVerifications.putIfAbsent(tokenDigest, verification);
+        if (running != null) {
+            //the same token is being verified for another connect right now, its result is used for this one too
+            coalescedVerifications.increment();
+            completeWhenVerified(running, attempt, result);
+            return;
+        }
 
-            String jwtString = StandardCharset.UTF_8
-                    .decode(connectPacket.getPassword().get())
-                    .toString();
+        //verifications beyond the concurrency limit wait for a permit, or are turned away when too many are waiting
+        if (admissionController != null && !admissionController.tryAcquire()) {
+            completeWhenVerified(verification, attempt, result);
+            boolean queued = admissionController.enqueue(
+                    () -> verifyAdmitted(jwtString, tokenDigest, verification),
+                    () -> reject(tokenDigest, verification));
+            if (!queued) {
+                log.warn("Too many verifications waiting, rejecting client: {}", attempt.clientId);
+                reject(tokenDigest, verification);
+            }
+            return;
+        }
+
+        if (verificationExecutor == null) {
+            verifyAdmitted(jwtString, tokenDigest, verification);
+            //already completed, so this runs right here on the calling thread
+            verification.whenComplete((claims, error) -> complete(attempt, result, claims, error));
+            return;
+        }
 
-            System.out.println("jwt String: " + jwtString);
+        //hands the verification to the dedicated executor and releases the network thread
+        completeWhenVerified(verification, attempt, result);
+        try {
+            verificationExecutor.execute(() -> verifyAdmitted(jwtString, tokenDigest, verification));
+        } catch (RejectedExecutionException e) {
+            log.warn("Verification queue full, rejecting client: {}", attempt.clientId);
+            if (admissionController != null) {
+                admissionController.release();
+            }
+            reject(tokenDigest, verification);
+        }
+    }
 
-            //parses the token, ensures the token is in a valid JWT format
-            SignedJWT signedJWT = SignedJWT.parse(jwtString);
-            //verifies the signature, checks issuer, audience, expiration and required claims
-            JWTClaimsSet claims = jwtProcessor.process(signedJWT, null);
+    private void verifyAdmitted(@NotNull String jwtString, @NotNull TokenDigest tokenDigest,
+                                @NotNull CompletableFuture<JWTClaimsSet> verification) {
+        try {
+            verify(jwtString, tokenDigest, verification);
+        } finally {
+            if (admissionController != null) {
+                admissionController.release();
+            }
+        }
+    }
 
+    //fails every connect waiting for this verification with SERVER_BUSY
+    private void reject(@NotNull TokenDigest tokenDigest, @NotNull CompletableFuture<JWTClaimsSet> verification) {
+        inFlightVerifications.remove(tokenDigest, verification);
+        verification.completeExceptionally(new RejectedExecutionException("Verification not admitted"));
+    }
 
-            System.out.println("JWT: " + signedJWT);
+    private void completeWhenVerified(@NotNull CompletableFuture<JWTClaimsSet> verification,
+                                      @NotNull Attempt attempt, @NotNull AuthResult result) {
+        //resumed by the result as soon as it succeeded or failed
+        AuthResult asyncResult = result.async(asyncTimeout);
+        verification.whenComplete((claims, error) -> complete(attempt, asyncResult, claims, error));
+    }
 
+    //completes the verification of a token for every connect waiting for it, successful or not
+    private void verify(@NotNull String jwtString, @NotNull TokenDigest tokenDigest,
+                        @NotNull CompletableFuture<JWTClaimsSet> verification) {
+        JWTClaimsSet claims = null;
+        Exception error = null;
+        try {
+            claims = validator.validate(jwtString);
+            tokenCache.put(tokenDigest, claims);
+        } catch (Exception e) {
+            error = e;
+            if (negativeCache != null) {
+                negativeCache.put(tokenDigest, RejectReason.of(e));
+            }
+        } finally {
+            //later connects with this token are served by the caches, removed before any waiting connect resumes
+            inFlightVerifications.remove(tokenDigest, verification);
+        }
+        if (error == null) {
+            verification.complete(claims);
+        } else {
+            verification.completeExceptionally(error);
+        }
+    }
 
-             List<String> allowedTopicsList = Optional.ofNullable((List<String>) claims.getClaim(CLAIM_ALLOWED_TOPICS)).orElse(List.of());
+    private void complete(@NotNull Attempt attempt, @NotNull AuthResult result,
+                          @Nullable JWTClaimsSet claims, @Nullable Throwable error) {
 
-            List<String> tokenAudience = claims.getAudience();
-            if (tokenAudience == null || !tokenAudience.contains(EXPECTED_AUDIENCE)) {
-                log.error("Invalid audience claim for {}", mqttClientId);
-                simpleAuthOutput.failAuthentication();
+        //too late, the client was already failed, neither registers permissions nor writes the output
+        if (result.timedOut()) {
+            log.debug("Verification for {} finished after the async timeout", attempt.clientId);
+            rejected(attempt, RejectReason.SERVER_BUSY);
+            return;
+        }
+        try {
+            if (error instanceof RejectedExecutionException) {
+                rejected(attempt, RejectReason.SERVER_BUSY);
+                result.fail(ConnackReasonCode.SERVER_BUSY, "Server busy, try again later");
                 return;
             }
+            if (error != null) {
+                throw error;
+            }
 
-            //Store allowed topics as comma separated string
-            String allowedTopics = String.join(",", allowedTopicsList);
-            simpleAuthInput.getConnectionInformation().getConnectionAttributeStore().put(CLAIM_ALLOWED_TOPICS, ByteBuffer.wrap(allowedTopics.getBytes(StandardCharset.UTF_8)));
-
+            //verified claims always come from a configured issuer
+            Issuer issuer = validator.issuerOf(claims.getIssuer());
+            //placeholders depend on the client ID, so they are resolved per connect and not cached with the token
+            TokenPermissions permissions = TokenPermissions.fromClaims(claims,
+                    issuer != null ? issuer.claimNames() : TokenPermissions.ClaimNames.DEFAULT)
+                    .resolve(attempt.clientId, claims);
+
+            //checked on every connect, also for cached tokens, a replay is the same token again,
+            //only once nothing else can reject the connect, so a rejected one doesn't use up the jti
+            if (replayGuard != null && !replayGuard.tryAccept(claims.getJWTID(),
+                    claims.getExpirationTime().getTime() / 1000, attempt.clientId)) {
+                log.debug("Rejecting client {}, token {} was already used", attempt.clientId, claims.getJWTID());
+                rejected(attempt, RejectReason.REPLAYED);
+                result.fail(ConnackReasonCode.NOT_AUTHORIZED, "Token already used");
+                return;
+            }
+            //a re-authentication keeps the ID of its connection, so the new permissions replace the old ones
+            long connectionId = ConnectionIds.getOrAssign(attempt.connection.getConnectionAttributeStore());
+            if (authorizationMode == AuthorizationMode.DEFAULT_PERMISSIONS) {
+                //HiveMQ enforces these itself, no authorizer is called per packet
+                ModifiableDefaultPermissions defaultPermissions = result.defaultPermissions();
+                if (attempt.reAuthentication) {
+                    //these still hold the permissions of the previous token
+                    defaultPermissions.clear();
+                }
+                permissions.addTo(defaultPermissions);
+            } else {
+                //compiled once per distinct policy here, MyClientAuthorizer only looks them up per packet,
+                //the registration is swapped in one step, so no packet sees a connection without permissions
+                permissionRegistry.register(attempt.clientId, claims.getSubject(), connectionId, permissions);
+            }
+            if (expiryWheel != null) {
+                expiryWheel.schedule(attempt.clientId, connectionId, claims.getExpirationTime().getTime());
+            }
 
             //token is valid
-            log.info("Authenticated user: {}", claims.getSubject());
-            simpleAuthOutput.authenticateSuccessfully();
+            metrics.accepted(attempt.startNanos);
+            if (decisions != null) {
+                decisions.connect(attempt.clientId, claims.getSubject(), attempt.tokenFingerprint,
+                        attempt.reAuthentication, true, null);
+            }
+            result.succeed();
 
         } catch (ParseException | BadJOSEException e) {
-            log.error("JWT validation failed: {}", e.getMessage());
-            simpleAuthOutput.failAuthentication();
+            log.debug("JWT validation failed for {}: {}", attempt.clientId, e.getMessage());
+            rejected(attempt, RejectReason.of(e));
+            result.fail();
         } catch (JOSEException e) {
-            log.error("JWT processing error: {}", e.getMessage());
-            simpleAuthOutput.failAuthentication();
+            log.debug("JWT processing error for {}: {}", attempt.clientId, e.getMessage());
+            rejected(attempt, RejectReason.PROCESSING_ERROR);
+            result.fail();
+        } catch (Throwable e) {
+            log.error("Unexpected error while authenticating {}", attempt.clientId, e);
+            rejected(attempt, RejectReason.PROCESSING_ERROR);
+            result.fail();
+        }
+    }
+
+    //every rejection is recorded, with the token's fingerprint once it was read
+    private void rejected(@NotNull Attempt attempt, @NotNull RejectReason reason) {
+        metrics.rejected(reason, attempt.startNanos);
+        if (decisions != null) {
+            decisions.connect(attempt.clientId, null, attempt.tokenFingerprint, attempt.reAuthentication, false, reason.name());
         }
     }
+
+    //one CONNECT or AUTH packet being authenticated
+    private static final class Attempt {
+        final String clientId;
+        final ConnectionInformation connection;
+        final boolean reAuthentication;
+        final long startNanos = System.nanoTime();
+        //0 until the token was read
+        long tokenFingerprint;
+
+        Attempt(String clientId, ConnectionInformation connection, boolean reAuthentication) {
+            this.clientId = clientId;
+            this.connection = connection;
+            this.reAuthentication = reAuthentication;
+        }
+    }
+
+    //connects that reused the verification of a concurrent connect with the same token
+    public long coalescedVerifications() {
+        return coalescedVerifications.sum();
+    }
 }
@@ -3,24 +3,35 @@ package org.example;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
 import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.auth.Authenticator;
+import com.hivemq.extension.sdk.api.auth.EnhancedAuthenticator;
 import com.hivemq.extension.sdk.api.auth.parameter.AuthenticatorProviderInput;
 import com.hivemq.extension.sdk.api.services.auth.provider.AuthenticatorProvider;
+import com.hivemq.extension.sdk.api.services.auth.provider.EnhancedAuthenticatorProvider;
 
-import java.net.MalformedURLException;
+import java.util.List;
 
-public class MyAuthenticatorProvider implements AuthenticatorProvider {
+public class MyAuthenticatorProvider implements AuthenticatorProvider, EnhancedAuthenticatorProvider {
     private final MyAuthenticator authenticator;
 
-    public MyAuthenticatorProvider() throws MalformedURLException {
-        try {
-            this.authenticator = new MyAuthenticator();
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("Failed to initialize authenticator", e);
-        }
+    public MyAuthenticatorProvider(@NotNull ExtensionConfig config, @NotNull List<Issuer> issuers,
+                                   @Nullable VerificationExecutor verificationExecutor,
+                                   @Nullable AdmissionController admissionController,
+                                   @Nullable ConnectRateLimiter connectRateLimiter,
+                                   @NotNull PermissionRegistry permissionRegistry,
+                                   @Nullable TokenExpiryWheel expiryWheel,
+                                   @NotNull AuthMetrics metrics,
+                                   @Nullable DecisionRecorder decisions) {
+        this.authenticator = new MyAuthenticator(config, issuers, verificationExecutor,
+                admissionController, connectRateLimiter, permissionRegistry, expiryWheel, metrics, decisions);
     }
 
     @Override
     public @Nullable Authenticator getAuthenticator(@NotNull AuthenticatorProviderInput authenticatorProviderInput) {
         return authenticator;
     }
+
+    @Override
+    public @Nullable EnhancedAuthenticator getEnhancedAuthenticator(@NotNull AuthenticatorProviderInput authenticatorProviderInput) {
+        return authenticator;
+    }
 }
@@ -10,7 +10,12 @@ import com.hivemq.extension.sdk.api.annotations.NotNull;
 
 public class MyAuthorizerProvider implements AuthorizerProvider {
 
-    private final MyClientAuthorizer myClientAuthorizer = new MyClientAuthorizer();
+    private final MyClientAuthorizer myClientAuthorizer;
+
+    public MyAuthorizerProvider(@NotNull PermissionRegistry permissionRegistry, @NotNull AuthMetrics metrics,
+                                @Nullable DecisionRecorder decisions) {
+        this.myClientAuthorizer = new MyClientAuthorizer(permissionRegistry, metrics, decisions);
+    }
 
     @Override
     public @Nullable Authorizer getAuthorizer(@NotNull AuthorizerProviderInput authorizerProviderInput) {
@@ -1,6 +1,7 @@
 package org.example;
 
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.auth.PublishAuthorizer;
 import com.hivemq.extension.sdk.api.auth.SubscriptionAuthorizer;
 import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerInput;
@@ -8,84 +9,80 @@ import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerOutput;
 import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerInput;
 import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerOutput;
 import com.hivemq.extension.sdk.api.packets.publish.AckReasonCode;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
 import com.hivemq.extension.sdk.api.packets.subscribe.SubackReasonCode;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Optional;
+import com.hivemq.extension.sdk.api.packets.subscribe.Subscription;
 
 public class MyClientAuthorizer implements PublishAuthorizer, SubscriptionAuthorizer {
 
-    private final @NotNull Logger log = LoggerFactory.getLogger(MyClientAuthorizer.class);
+    //compiled permissions of every connection, registered by MyAuthenticator
+    private final @NotNull PermissionRegistry permissionRegistry;
+    private final @NotNull AuthMetrics metrics;
+    //audit log and decision journal, null when neither is enabled
+    private final @Nullable DecisionRecorder decisions;
+
+    public MyClientAuthorizer(@NotNull PermissionRegistry permissionRegistry, @NotNull AuthMetrics metrics,
+                              @Nullable DecisionRecorder decisions) {
+        this.permissionRegistry = permissionRegistry;
+        this.metrics = metrics;
+        this.decisions = decisions;
+    }
 
     @Override
     public void authorizePublish(@NotNull PublishAuthorizerInput publishAuthorizerInput, @NotNull PublishAuthorizerOutput publishAuthorizerOutput) {
+        long startNanos = System.nanoTime();
 
         final String clientId = publishAuthorizerInput.getClientInformation().getClientId();
-        final String topic = publishAuthorizerInput.getPublishPacket().getTopic();
-        log.info("Authorizing publish for clientId: {}, topic: {} ", clientId, topic);
-
-
-        Optional<String> allowedTopicsString = getPublishClaim(publishAuthorizerInput);
-
-        log.info("allowed_topics: {}", allowedTopicsString.orElse("null"));
-
-
-        if (allowedTopicsString.isPresent()) {
-            String[] allowedTopics = allowedTopicsString.get().split(",");
-            for (String allowedTopic : allowedTopics) {
-                if (topic.equals(allowedTopic)) {
-                    publishAuthorizerOutput.authorizeSuccessfully();
-                    return;
-                }
+        final PublishPacket publishPacket = publishAuthorizerInput.getPublishPacket();
+        final String topic = publishPacket.getTopic();
+
+        PermissionRegistry.Registration registration = permissionRegistry.get(clientId);
+        if (registration != null && registration.allowsPublish(topic, publishPacket.getQos().getQosNumber())) {
+            metrics.publishAuthorized(startNanos, true);
+            if (decisions != null) {
+                decisions.publish(clientId, registration.subject(), topic, true, null);
             }
+            publishAuthorizerOutput.authorizeSuccessfully();
+            return;
         }
 
-        log.error("Authorization failed for clientId: {}, topic: {}", clientId, topic);
+        metrics.publishAuthorized(startNanos, false);
+        if (decisions != null) {
+            decisions.publish(clientId, subjectOf(registration), topic, false, denialReason(registration));
+        }
         publishAuthorizerOutput.failAuthorization(AckReasonCode.NOT_AUTHORIZED);
-
-
     }
 
     @Override
     public void authorizeSubscribe(@NotNull SubscriptionAuthorizerInput subscriptionAuthorizerInput, @NotNull SubscriptionAuthorizerOutput subscriptionAuthorizerOutput) {
+        long startNanos = System.nanoTime();
         final String clientId = subscriptionAuthorizerInput.getClientInformation().getClientId();
-        final String topic = subscriptionAuthorizerInput.getSubscription().getTopicFilter();
-        log.info("Authorizing subscribe for clientId: {}, topic: {} ", clientId, topic);
-
-        Optional<String> allowedTopicsString = getSubscribeClaim(subscriptionAuthorizerInput);
-        log.info("allowed_topics: {}", allowedTopicsString.orElse("null"));
-
-
-        if (allowedTopicsString.isPresent()) {
-            String[] allowedTopics = allowedTopicsString.get().split(",");
-            for (String allowedTopic : allowedTopics) {
-                if (topic.equals(allowedTopic)) {
-                    subscriptionAuthorizerOutput.authorizeSuccessfully();
-                    return;
-                }
+        final Subscription subscription = subscriptionAuthorizerInput.getSubscription();
+        final String topic = subscription.getTopicFilter();
+
+        PermissionRegistry.Registration registration = permissionRegistry.get(clientId);
+        if (registration != null && registration.allowsSubscribe(topic, subscription.getQos().getQosNumber())) {
+            metrics.subscribeAuthorized(startNanos, true);
+            if (decisions != null) {
+                decisions.subscribe(clientId, registration.subject(), topic, true, null);
             }
+            subscriptionAuthorizerOutput.authorizeSuccessfully();
+            return;
         }
 
-        log.error("Authorization failed for clientId: {}, topic: {}", clientId, topic);
+        metrics.subscribeAuthorized(startNanos, false);
+        if (decisions != null) {
+            decisions.subscribe(clientId, subjectOf(registration), topic, false, denialReason(registration));
+        }
         subscriptionAuthorizerOutput.failAuthorization(SubackReasonCode.NOT_AUTHORIZED);
-
     }
 
-    Optional<String> getPublishClaim(PublishAuthorizerInput publishAuthorizerInput) {
-        var attributeStore = publishAuthorizerInput.getConnectionInformation().getConnectionAttributeStore();
-        Optional<ByteBuffer> buffer = attributeStore.get("allowed_topics");
-        return buffer.map(byteBuffer -> StandardCharsets.UTF_8.decode(byteBuffer).toString());
+    private static @NotNull String denialReason(@Nullable PermissionRegistry.Registration registration) {
+        //no registration: not authenticated by this extension, e.g. connected before the extension was (re)started
+        return registration == null ? DecisionRecorder.NO_PERMISSIONS : DecisionRecorder.NOT_ALLOWED;
     }
 
-    Optional<String> getSubscribeClaim(SubscriptionAuthorizerInput subscriptionAuthorizerInput) {
-        var attributeStore = subscriptionAuthorizerInput.getConnectionInformation().getConnectionAttributeStore();
-        Optional<ByteBuffer> buffer = attributeStore.get("allowed_topics");
-        return buffer.map(byteBuffer -> StandardCharsets.UTF_8.decode(byteBuffer).toString());
+    private static @Nullable String subjectOf(@Nullable PermissionRegistry.Registration registration) {
+        return registration == null ? null : registration.subject();
     }
-
-
 }
-
@@ -2,17 +2,28 @@ package org.example;
 
 import com.hivemq.extension.sdk.api.ExtensionMain;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.disconnect.DisconnectReasonCode;
 import com.hivemq.extension.sdk.api.parameter.*;
 import com.hivemq.extension.sdk.api.services.Services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class MyExtensionMain implements ExtensionMain {
 
     private static final @NotNull Logger log = LoggerFactory.getLogger(MyExtensionMain.class);
 
+    private @Nullable VerificationExecutor verificationExecutor;
+    private @Nullable AuthMetrics metrics;
+    private @Nullable AuditLog auditLog;
+    private @Nullable DecisionJournal journal;
+
 
     @Override
     public void extensionStart(@NotNull ExtensionStartInput extensionStartInput, @NotNull ExtensionStartOutput extensionStartOutput) {
@@ -20,18 +31,101 @@ public class MyExtensionMain implements ExtensionMain {
         final ExtensionInformation extensionInformation = extensionStartInput.getExtensionInformation();
 
         try {
-            MyAuthenticatorProvider myAuthenticatorProvider = new MyAuthenticatorProvider();
-            MyAuthorizerProvider myAuthorizerProvider = new MyAuthorizerProvider();
-            Services.securityRegistry().setAuthenticatorProvider(myAuthenticatorProvider);
-            Services.securityRegistry().setAuthorizerProvider(myAuthorizerProvider);
+            ExtensionConfig config = ExtensionConfig.load(extensionInformation.getExtensionHomeFolder());
+            AuthMetrics metrics = new AuthMetrics(Services.metricRegistry());
+            this.metrics = metrics;
+
+            if (config.asyncEnabled()) {
+                verificationExecutor = VerificationExecutor.create(
+                        config.asyncThreads(), config.asyncQueueSize(), config.asyncVirtualThreads());
+            }
+
+            List<Issuer> issuers = createIssuers(config, metrics);
+
+            //verifications that have to wait for a permit run on the verification executor, or else the extension executor
+            AdmissionController admissionController = null;
+            if (config.admissionMaxConcurrent() > 0) {
+                VerificationExecutor executor = verificationExecutor;
+                admissionController = new AdmissionController(config.admissionMaxConcurrent(),
+                        config.admissionMaxWaiting(), config.admissionMaxWaitMillis(),
+                        executor != null ? executor::execute : Services.extensionExecutorService());
+                metrics.gauge("admission.running", admissionController::running);
+                metrics.gauge("admission.waiting", admissionController::waiting);
+                metrics.gauge("admission.rejected", admissionController::rejectedCount);
+            }
+            ConnectRateLimiter connectRateLimiter = null;
+            if (config.perIpConnectRate() > 0) {
+                connectRateLimiter = new ConnectRateLimiter(config.perIpConnectRate(), config.perIpConnectBurst(),
+                        ConnectRateLimiter.DEFAULT_SLOTS);
+                metrics.gauge("admission.rate-limited", connectRateLimiter::limitedCount);
+            }
+
+            PermissionRegistry permissionRegistry = new PermissionRegistry(config.publishCacheSlots());
+            metrics.gauge("permissions.connections", permissionRegistry::size);
+            metrics.gauge("permissions.distinct", permissionRegistry::distinctPermissionCount);
+            metrics.gauge("permissions.memory-bytes", permissionRegistry::estimatedMemoryBytes);
+            PublishDecisionCache.Stats publishCacheStats = permissionRegistry.publishCacheStats();
+            metrics.hitRatio("publish-cache.hit-ratio", publishCacheStats::hitCount, publishCacheStats::missCount);
+
+            TokenExpiryWheel expiryWheel = createExpiryWheel(config, permissionRegistry);
+            if (expiryWheel != null) {
+                metrics.gauge("expiry.scheduled", expiryWheel::size);
+            }
 
-            log.info("MyAuthenticatorProvider registered successfully.");
-            log.info("MyAuthorizerProvider registered successfully.");
+            //decisions are written by the extension executor, never by the threads making them
+            AuditLog auditLog = null;
+            if (config.auditEnabled()) {
+                auditLog = AuditLog.toLogger(config.auditBufferSize(), config.auditAllowSampleInterval());
+                this.auditLog = auditLog;
+                Services.extensionExecutorService().scheduleWithFixedDelay(auditLog::drain,
+                        config.auditFlushIntervalMillis(), config.auditFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+                metrics.gauge("audit.written", auditLog::writtenCount);
+                metrics.gauge("audit.dropped", auditLog::droppedCount);
+                metrics.gauge("audit.pending", auditLog::pending);
+            }
+            DecisionJournal journal = null;
+            if (config.journalEnabled()) {
+                journal = new DecisionJournal(config.journalDirectory().toPath(), config.journalSegmentBytes(),
+                        config.journalRotateIntervalMillis(), config.journalMaxSegments());
+                this.journal = journal;
+                metrics.gauge("journal.dropped", journal::droppedCount);
+                metrics.gauge("journal.rotations", journal::rotationCount);
+                log.info("Decisions are journaled to {}", config.journalDirectory());
+            }
+            DecisionRecorder decisions = DecisionRecorder.of(auditLog, journal);
+
+            MyAuthenticatorProvider myAuthenticatorProvider = new MyAuthenticatorProvider(config, issuers,
+                    verificationExecutor, admissionController, connectRateLimiter, permissionRegistry, expiryWheel,
+                    metrics, decisions);
+            if (config.enhancedAuthentication()) {
+                Services.securityRegistry().setEnhancedAuthenticatorProvider(myAuthenticatorProvider);
+                log.info("MyAuthenticatorProvider registered successfully for enhanced authentication.");
+            } else {
+                Services.securityRegistry().setAuthenticatorProvider(myAuthenticatorProvider);
+                log.info("MyAuthenticatorProvider registered successfully.");
+            }
+
+            //with default permissions the broker enforces the token's topics without calling back into the extension
+            if (config.authorizationMode() == AuthorizationMode.AUTHORIZER) {
+                MyAuthorizerProvider myAuthorizerProvider = new MyAuthorizerProvider(permissionRegistry, metrics, decisions);
+                Services.securityRegistry().setAuthorizerProvider(myAuthorizerProvider);
+                log.info("MyAuthorizerProvider registered successfully.");
+            } else {
+                log.info("Topic permissions are enforced through default permissions.");
+            }
+            if (config.authorizationMode() == AuthorizationMode.AUTHORIZER || expiryWheel != null) {
+                ConnectionCleanupListener cleanupListener = new ConnectionCleanupListener(permissionRegistry, expiryWheel);
+                Services.eventRegistry().setClientLifecycleEventListener(input -> cleanupListener);
+            }
             log.info("Started: {}:{}", extensionInformation.getName(), extensionInformation.getVersion());
         } catch (MalformedURLException e) {
             log.error("Invalid JWKS URL, extension startup aborted.", e);
             extensionStartOutput.preventExtensionStartup("Invalid JWKS URL: " + e.getMessage());
 
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Invalid configuration in {}, extension startup aborted.", ExtensionConfig.FILE_NAME, e);
+            extensionStartOutput.preventExtensionStartup("Invalid configuration: " + e.getMessage());
+
         } catch (Exception e) {
             log.error("Unexpected error during extension startup", e);
             extensionStartOutput.preventExtensionStartup("Unexpected error: " + e.getMessage());
@@ -39,9 +133,77 @@ public class MyExtensionMain implements ExtensionMain {
     }
 
 
+    //every issuer fetches its keys in the background, so a slow IdP only delays the connects with its tokens
+    private static @NotNull List<Issuer> createIssuers(@NotNull ExtensionConfig config, @NotNull AuthMetrics metrics)
+            throws MalformedURLException {
+        List<Issuer> issuers = new ArrayList<>();
+        for (ExtensionConfig issuerConfig : config.issuers()) {
+            JwksManager jwksManager = new JwksManager(issuerConfig.jwksUrl(), issuerConfig.jwksSnapshotFile(),
+                    issuerConfig.jwksRefreshIntervalMillis(), issuerConfig.jwksMaxStaleMillis(),
+                    issuerConfig.jwksConnectTimeoutMillis(), issuerConfig.jwksReadTimeoutMillis(),
+                    issuerConfig.jwksRefetchMinIntervalMillis(), issuerConfig.jwksUnknownKeyIdTtlMillis());
+            jwksManager.startInBackground(Services.extensionExecutorService());
+            Issuer issuer = new Issuer(issuerConfig, jwksManager);
+            String prefix = issuer.name().equals(ExtensionConfig.DEFAULT_ISSUER) ? "jwks." : "jwks." + issuer.name() + ".";
+            metrics.timer(prefix + "fetch.time", jwksManager.fetchTimer());
+            metrics.gauge(prefix + "fetch.failures", jwksManager::fetchFailureCount);
+            metrics.gauge(prefix + "age-ms", jwksManager::keySetAgeMillis);
+            metrics.gauge(prefix + "refetches", jwksManager::refetchCount);
+            metrics.gauge(prefix + "refetches-throttled", jwksManager::throttledRefetchCount);
+            metrics.gauge(prefix + "unknown-kid.hits", jwksManager::unknownKeyIdHitCount);
+            issuers.add(issuer);
+            log.info("Accepting tokens of issuer {} ({}), keys from {}", issuer.name(), issuer.issuer(),
+                    issuerConfig.jwksUrl());
+        }
+        return issuers;
+    }
+
+
+    //one timer for the token expiration of all connections, null if expired tokens are not enforced
+    private static @Nullable TokenExpiryWheel createExpiryWheel(@NotNull ExtensionConfig config,
+                                                                @NotNull PermissionRegistry permissionRegistry) {
+        ExpiryAction expiryAction = config.expiryAction();
+        TokenExpiryWheel.Listener listener;
+        switch (expiryAction) {
+            case DISCONNECT:
+                //the wheel only calls this while the expired token is still the client's latest, so a client that
+                //reconnected with a fresh token keeps its new connection
+                listener = (clientId, connectionId) -> Services.clientService()
+                        .disconnectClient(clientId, false, DisconnectReasonCode.NOT_AUTHORIZED, "Token expired");
+                break;
+            case REVOKE_PERMISSIONS:
+                if (config.authorizationMode() != AuthorizationMode.AUTHORIZER) {
+                    throw new IllegalArgumentException("expiry.action=revoke-permissions needs authorization.mode=authorizer");
+                }
+                listener = permissionRegistry::unregister;
+                break;
+            default:
+                return null;
+        }
+        TokenExpiryWheel expiryWheel = new TokenExpiryWheel(config.expiryTickMillis(), TokenExpiryWheel.DEFAULT_WHEEL_SIZE, listener);
+        Services.extensionExecutorService().scheduleAtFixedRate(expiryWheel::tick,
+                expiryWheel.tickMillis(), expiryWheel.tickMillis(), TimeUnit.MILLISECONDS);
+        log.info("Connections are handled with action {} once their token expired.", expiryAction);
+        return expiryWheel;
+    }
+
+
     @Override
     public void extensionStop(@NotNull ExtensionStopInput extensionStopInput, @NotNull ExtensionStopOutput extensionStopOutput) {
         final ExtensionInformation extensionInformation = extensionStopInput.getExtensionInformation();
+        if (verificationExecutor != null) {
+            verificationExecutor.shutdown();
+        }
+        if (auditLog != null) {
+            //whatever was recorded since the last scheduled drain
+            auditLog.drain();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (metrics != null) {
+            metrics.remove();
+        }
         log.info("Stopped: {}:{}", extensionInformation.getName(), extensionInformation.getVersion());
 
     }
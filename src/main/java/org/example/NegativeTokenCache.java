@@ -0,0 +1,202 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Tokens rejected recently, so a client retrying with the same bad token is rejected before any parsing or
+ * signature verification.
+ * <p>
+ * Two parts, both allocated once, so the memory use is fixed no matter how many distinct tokens are rejected:
+ * <ul>
+ * <li>a rotating Bloom filter with two generations, each covering half of the time to live. It answers "never
+ * rejected" for almost every good token from a small bit array, without touching the table.</li>
+ * <li>a direct-mapped table with one {@code long} per slot holding a 48-bit fingerprint of the digest, the
+ * generation and the reason. A Bloom filter hit only counts if the fingerprint in the table matches, so a good token
+ * is never rejected because of a false positive. A newer rejected token overwrites an older one in the same slot,
+ * which then just gets verified again.</li>
+ * </ul>
+ * Entries expire with their generation, after between half and the full time to live. A generation also ends early
+ * once it holds as many tokens as the table has slots, which keeps the false positive rate of the filter low.
+ */
+public class NegativeTokenCache {
+
+    private static final int HASHES = 4;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final RejectReason[] REASONS = RejectReason.values();
+
+    private final int capacity;
+    private final long generationNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final long bloomBitMask;
+
+    private final Object rotationLock = new Object();
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final LongAdder hits = new LongAdder();
+
+    public NegativeTokenCache(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, System::nanoTime);
+    }
+
+    NegativeTokenCache(int capacity, long ttlMillis, @NotNull LongSupplier nanoClock) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.capacity = tableSize;
+        this.table = new AtomicLongArray(tableSize);
+        this.tableMask = tableSize - 1;
+        //a power of two number of bits, so a bit index is a mask of the hash
+        long bloomBits = Long.highestOneBit((long) tableSize * BITS_PER_ENTRY - 1) << 1;
+        this.bloomBitMask = bloomBits - 1;
+        this.generationNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(ttlMillis, 2)) / 2;
+        this.nanoClock = nanoClock;
+        long now = nanoClock.getAsLong();
+        this.previous = new Generation(0, (int) (bloomBits / 64), now);
+        this.current = new Generation(1, (int) (bloomBits / 64), now);
+    }
+
+    /**
+     * @return why the token was rejected recently, or null if it wasn't
+     */
+    public @Nullable RejectReason get(@NotNull TokenDigest digest) {
+        rotateIfDue();
+        Generation currentGeneration = current;
+        Generation previousGeneration = previous;
+        if (!currentGeneration.mightContain(digest, bloomBitMask) && !previousGeneration.mightContain(digest, bloomBitMask)) {
+            return null;
+        }
+        long entry = table.get(slotOf(digest));
+        if (entry == 0 || fingerprintOf(entry) != fingerprintOf(digest)) {
+            return null;
+        }
+        int generation = generationOf(entry);
+        if (generation != (currentGeneration.number & 0xFF) && generation != (previousGeneration.number & 0xFF)) {
+            return null;
+        }
+        hits.increment();
+        return REASONS[(int) (entry & 0xFF)];
+    }
+
+    /**
+     * Records a rejected token. Reasons that are not {@link RejectReason#isCacheable() cacheable} are ignored.
+     */
+    public void put(@NotNull TokenDigest digest, @NotNull RejectReason reason) {
+        if (!reason.isCacheable()) {
+            return;
+        }
+        rotateIfDue();
+        Generation generation = current;
+        generation.add(digest, bloomBitMask);
+        long entry = fingerprintOf(digest) << 16 | (long) (generation.number & 0xFF) << 8 | reason.ordinal();
+        table.set(slotOf(digest), entry);
+        if (generation.size.incrementAndGet() >= capacity) {
+            rotate(generation);
+        }
+    }
+
+    private void rotateIfDue() {
+        Generation generation = current;
+        if (nanoClock.getAsLong() - generation.startedAt >= generationNanos) {
+            rotate(generation);
+        }
+    }
+
+    private void rotate(Generation expected) {
+        synchronized (rotationLock) {
+            if (current != expected) {
+                //rotated by another thread
+                return;
+            }
+            //the oldest generation is reused, its entries in the table no longer match any live generation
+            Generation recycled = previous;
+            recycled.reset(expected.number + 1, nanoClock.getAsLong());
+            previous = expected;
+            current = recycled;
+        }
+    }
+
+    private int slotOf(TokenDigest digest) {
+        return (int) digest.word(2) & tableMask;
+    }
+
+    //top 48 bits, never 0 for an entry so an empty slot can't match
+    private static long fingerprintOf(TokenDigest digest) {
+        return (digest.word(3) >>> 16) | 1L;
+    }
+
+    private static long fingerprintOf(long entry) {
+        return entry >>> 16;
+    }
+
+    private static int generationOf(long entry) {
+        return (int) (entry >>> 8) & 0xFF;
+    }
+
+    //bad tokens rejected from the cache
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    //bytes of the table and both filter generations
+    public long memoryBytes() {
+        return 8L * table.length() + 2L * 8 * current.bits.length();
+    }
+
+    private static final class Generation {
+        final AtomicLongArray bits;
+        final AtomicInteger size = new AtomicInteger();
+        volatile int number;
+        volatile long startedAt;
+
+        Generation(int number, int words, long startedAt) {
+            this.bits = new AtomicLongArray(words);
+            this.number = number;
+            this.startedAt = startedAt;
+        }
+
+        //double hashing with two independent words of the digest
+        boolean mightContain(TokenDigest digest, long bitMask) {
+            long h1 = digest.word(0);
+            long h2 = digest.word(1) | 1L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (h1 + i * h2) & bitMask;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(TokenDigest digest, long bitMask) {
+            long h1 = digest.word(0);
+            long h2 = digest.word(1) | 1L;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (h1 + i * h2) & bitMask;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                while (((value = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+                    //retry, another bit of this word was set concurrently
+                }
+            }
+        }
+
+        void reset(int number, long startedAt) {
+            for (int i = 0; i < bits.length(); i++) {
+                bits.set(i, 0);
+            }
+            size.set(0);
+            this.startedAt = startedAt;
+            this.number = number;
+        }
+    }
+}
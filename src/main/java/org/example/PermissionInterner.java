@@ -0,0 +1,97 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one compiled {@link ConnectionPermissions} between all connections whose tokens grant the same permissions.
+ * <p>
+ * The permissions are normalized (trimmed, deduplicated and sorted) and hashed, so tokens listing the same topics in
+ * a different order share an instance too. Instances are reference counted and dropped when the last connection
+ * using them is released. A fleet of clients from the same client scope therefore holds one compiled policy,
+ * and the compile cost is paid once per distinct policy instead of once per connection.
+ */
+public class PermissionInterner {
+
+    private final ConcurrentHashMap<TokenDigest, Shared> policies = new ConcurrentHashMap<>();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    public @NotNull ConnectionPermissions acquire(@NotNull TokenPermissions permissions) {
+        TokenDigest key = TokenDigest.of(canonicalForm(permissions));
+        //compiled outside of the map lock, at worst a racing connection compiles the same policy twice
+        ConnectionPermissions compiled = policies.containsKey(key) ? null : ConnectionPermissions.compile(permissions, key);
+        Shared shared = policies.compute(key, (k, existing) -> {
+            if (existing != null) {
+                existing.references++;
+                return existing;
+            }
+            ConnectionPermissions created = compiled != null ? compiled : ConnectionPermissions.compile(permissions, k);
+            estimatedBytes.addAndGet(created.estimatedBytes());
+            return new Shared(created);
+        });
+        return shared.permissions;
+    }
+
+    public void release(@NotNull ConnectionPermissions permissions) {
+        TokenDigest key = permissions.policyKey();
+        if (key == null) {
+            return;
+        }
+        policies.computeIfPresent(key, (k, shared) -> {
+            if (shared.permissions != permissions) {
+                return shared;
+            }
+            if (--shared.references > 0) {
+                return shared;
+            }
+            estimatedBytes.addAndGet(-shared.permissions.estimatedBytes());
+            return null;
+        });
+    }
+
+    //number of distinct compiled policies
+    public int size() {
+        return policies.size();
+    }
+
+    public long estimatedMemoryBytes() {
+        return estimatedBytes.get();
+    }
+
+    static @NotNull String canonicalForm(@NotNull TokenPermissions permissions) {
+        StringBuilder canonical = new StringBuilder();
+        canonical.append("qos=").append(permissions.maxQos()).append('\n');
+        appendSorted(canonical, "publish", permissions.publishPatterns());
+        appendSorted(canonical, "subscribe", permissions.subscribePatterns());
+        return canonical.toString();
+    }
+
+    private static void appendSorted(StringBuilder canonical, String section, List<String> patterns) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String pattern : patterns) {
+            String trimmed = pattern.trim();
+            if (!trimmed.isEmpty()) {
+                sorted.add(trimmed);
+            }
+        }
+        //counted and length-prefixed, a pattern containing the separator can't pass for several patterns
+        canonical.append(section).append(' ').append(sorted.size()).append('\n');
+        for (String pattern : sorted) {
+            canonical.append(pattern.length()).append(':').append(pattern).append('\n');
+        }
+    }
+
+    private static final class Shared {
+        final ConnectionPermissions permissions;
+        //only changed inside ConcurrentHashMap.compute, which serializes access per key
+        int references = 1;
+
+        Shared(ConnectionPermissions permissions) {
+            this.permissions = permissions;
+        }
+    }
+}
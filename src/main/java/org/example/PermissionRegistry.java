@@ -0,0 +1,140 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled permissions of every authenticated connection, keyed by client ID.
+ * Connections with identical permissions share one compiled instance through the {@link PermissionInterner},
+ * so a registration costs little more than its map entry.
+ * <p>
+ * Each registration keeps the {@link ConnectionIds connection ID} it was made for, so the disconnect of an old
+ * connection only removes the registration if it is still the one of that connection.
+ */
+public class PermissionRegistry {
+
+    //ConcurrentHashMap node, registration object and client ID string
+    private static final int ENTRY_OVERHEAD_BYTES = 32 + 32 + 40;
+
+    private final ConcurrentHashMap<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final PermissionInterner interner = new PermissionInterner();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    //0 disables the per-connection publish decision cache
+    private final int publishCacheSlots;
+    private final PublishDecisionCache.Stats publishCacheStats = new PublishDecisionCache.Stats();
+
+    public PermissionRegistry(int publishCacheSlots) {
+        this.publishCacheSlots = publishCacheSlots;
+    }
+
+    /**
+     * @param subject {@code sub} claim of the token, kept for the decisions recorded per packet
+     */
+    public void register(@NotNull String clientId, @Nullable String subject, long connectionId,
+                         @NotNull TokenPermissions tokenPermissions) {
+        ConnectionPermissions permissions = interner.acquire(tokenPermissions);
+        PublishDecisionCache decisionCache = publishCacheSlots > 0
+                ? new PublishDecisionCache(publishCacheSlots, publishCacheStats)
+                : null;
+        Registration registration = new Registration(connectionId, subject, permissions, decisionCache,
+                entryBytes(clientId, subject));
+        estimatedBytes.addAndGet(registration.bytes);
+        Registration previous = registrations.put(clientId, registration);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    public @Nullable Registration get(@NotNull String clientId) {
+        return registrations.get(clientId);
+    }
+
+    /**
+     * Removes the registration of the client if it was made for this connection.
+     */
+    public void unregister(@NotNull String clientId, long connectionId) {
+        registrations.computeIfPresent(clientId, (key, registration) -> {
+            if (registration.connectionId != connectionId) {
+                return registration;
+            }
+            release(registration);
+            return null;
+        });
+    }
+
+    private void release(Registration registration) {
+        estimatedBytes.addAndGet(-registration.bytes);
+        interner.release(registration.permissions);
+    }
+
+    public int size() {
+        return registrations.size();
+    }
+
+    //number of distinct compiled permission sets shared by the registered connections
+    public int distinctPermissionCount() {
+        return interner.size();
+    }
+
+    //approximate heap held by all registrations and their shared permissions, to size heaps for large numbers of connections
+    public long estimatedMemoryBytes() {
+        return estimatedBytes.get() + interner.estimatedMemoryBytes();
+    }
+
+    public @NotNull PublishDecisionCache.Stats publishCacheStats() {
+        return publishCacheStats;
+    }
+
+    private long entryBytes(String clientId, @Nullable String subject) {
+        long bytes = ENTRY_OVERHEAD_BYTES + clientId.length();
+        if (subject != null) {
+            //usually shared with the claims of the token cache, counted anyway as they may have been evicted
+            bytes += 40 + subject.length();
+        }
+        if (publishCacheSlots > 0) {
+            //cache object, slot array and a few cached decisions
+            bytes += 24 + 16 + 4L * publishCacheSlots + 24L * publishCacheSlots;
+        }
+        return bytes;
+    }
+
+    //permissions and publish decision cache of one connection
+    public static final class Registration {
+        final long connectionId;
+        final @Nullable String subject;
+        final ConnectionPermissions permissions;
+        final @Nullable PublishDecisionCache decisionCache;
+        final long bytes;
+
+        Registration(long connectionId, @Nullable String subject, ConnectionPermissions permissions,
+                     @Nullable PublishDecisionCache decisionCache, long bytes) {
+            this.connectionId = connectionId;
+            this.subject = subject;
+            this.permissions = permissions;
+            this.decisionCache = decisionCache;
+            this.bytes = bytes;
+        }
+
+        public boolean allowsPublish(@NotNull String topic, int qos) {
+            return decisionCache == null
+                    ? permissions.allowsPublish(topic, qos)
+                    : permissions.allowsPublish(topic, qos, decisionCache);
+        }
+
+        public boolean allowsSubscribe(@NotNull String topicFilter, int qos) {
+            return permissions.allowsSubscribe(topicFilter, qos);
+        }
+
+        public @Nullable String subject() {
+            return subject;
+        }
+
+        public @NotNull ConnectionPermissions permissions() {
+            return permissions;
+        }
+    }
+}
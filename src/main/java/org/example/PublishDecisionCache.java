@@ -0,0 +1,80 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tiny direct-mapped memo of recent publish decisions of one connection, consulted before the permission trie.
+ * Telemetry clients publish to the same few topics over and over, so most lookups end at one
+ * {@link String#equals} instead of a trie walk.
+ * <p>
+ * Slots hold immutable objects and are read and written without locking. A racing write can at worst
+ * replace a slot with another correct decision, never produce a wrong one.
+ */
+public final class PublishDecisionCache {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final Stats stats;
+
+    /**
+     * @param slotCount rounded up to a power of two
+     */
+    public PublishDecisionCache(int slotCount, @NotNull Stats stats) {
+        int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.slots = new Slot[Math.max(1, size)];
+        this.mask = slots.length - 1;
+        this.stats = stats;
+    }
+
+    /**
+     * @return whether the topic matches the permissions, computed by the trie only if it is not memoized
+     */
+    public boolean matchesTopic(@NotNull String topic, @NotNull TopicPermissionTrie permissions) {
+        int index = spread(topic.hashCode()) & mask;
+        Slot slot = slots[index];
+        if (slot != null && slot.topic.equals(topic)) {
+            stats.hits.increment();
+            return slot.allowed;
+        }
+        stats.misses.increment();
+        boolean allowed = permissions.matchesTopic(topic);
+        slots[index] = new Slot(topic, allowed);
+        return allowed;
+    }
+
+    public void invalidate() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Slot {
+        final String topic;
+        final boolean allowed;
+
+        Slot(String topic, boolean allowed) {
+            this.topic = topic;
+            this.allowed = allowed;
+        }
+    }
+
+    //hit and miss counters shared by the caches of all connections
+    public static final class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public long hitCount() {
+            return hits.sum();
+        }
+
+        public long missCount() {
+            return misses.sum();
+        }
+    }
+}
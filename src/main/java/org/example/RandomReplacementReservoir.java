@@ -0,0 +1,74 @@
+package org.example;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size latency reservoir for the hot paths, updating it neither allocates nor locks.
+ * <p>
+ * Every value overwrites a random slot, so a sample survives about as many updates as there are slots and the
+ * snapshot reflects the recent values, decaying by number of updates instead of by time. Unlike Dropwizard's
+ * decaying reservoirs there is no sample object per update, and unlike the sliding time window the memory doesn't
+ * grow with the rate, which matters for the per-packet authorizer timings.
+ */
+public class RandomReplacementReservoir implements Reservoir {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    //marks a slot nothing was written to yet, durations are never negative
+    private static final long EMPTY = -1;
+
+    private final AtomicLongArray values;
+    private final int mask;
+
+    public RandomReplacementReservoir() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size number of samples kept, rounded up to a power of two
+     */
+    public RandomReplacementReservoir(int size) {
+        int slots = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+        this.values = new AtomicLongArray(slots);
+        this.mask = slots - 1;
+        for (int i = 0; i < slots; i++) {
+            values.set(i, EMPTY);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < values.length(); i++) {
+            if (values.get(i) != EMPTY) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void update(long value) {
+        //a plain store, losing a sample to a concurrent update of the same slot doesn't matter
+        values.lazySet(ThreadLocalRandom.current().nextInt() & mask, Math.max(0, value));
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        long[] copy = new long[values.length()];
+        int size = 0;
+        for (int i = 0; i < copy.length; i++) {
+            long value = values.get(i);
+            if (value != EMPTY) {
+                copy[size++] = value;
+            }
+        }
+        return new UniformSnapshot(Arrays.copyOf(copy, size));
+    }
+}
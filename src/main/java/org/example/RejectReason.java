@@ -0,0 +1,83 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.proc.ExpiredJWTException;
+
+import java.text.ParseException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Why a token was rejected. Only reasons that depend on nothing but the token itself are cacheable, a token rejected
+ * for one of them is rejected again on every further attempt.
+ */
+public enum RejectReason {
+
+    //not a JWT, or claims of the wrong type
+    MALFORMED(true),
+    EXPIRED(true),
+    //issuer, audience or required claims
+    INVALID_CLAIMS(true),
+    BAD_SIGNATURE(true),
+    //algorithm, type or key ID not accepted
+    INVALID_HEADER(true),
+    //iss of no configured issuer
+    UNKNOWN_ISSUER(true),
+    //nbf in the future, the token becomes valid later
+    NOT_YET_VALID(false),
+    //jti already used, depends on earlier connects and not just on the token
+    REPLAYED(false),
+    //no key for the kid or algorithm of the token, may change with the next key set
+    NO_MATCHING_KEY(false),
+    //key set unavailable or another processing error
+    PROCESSING_ERROR(false),
+    SERVER_BUSY(false),
+    //connect without a token, never looked up
+    MISSING_TOKEN(false),
+    BAD_AUTHENTICATION_METHOD(false),
+    //source address over its connect rate
+    RATE_LIMITED(false);
+
+    private final boolean cacheable;
+
+    RejectReason(boolean cacheable) {
+        this.cacheable = cacheable;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public static @NotNull RejectReason of(@NotNull Throwable error) {
+        if (error instanceof ParseException) {
+            return MALFORMED;
+        }
+        if (error instanceof ExpiredJWTException) {
+            return EXPIRED;
+        }
+        if (error instanceof TokenValidator.NotYetValidException) {
+            return NOT_YET_VALID;
+        }
+        if (error instanceof BadJWTException) {
+            return INVALID_CLAIMS;
+        }
+        if (error instanceof TokenValidator.InvalidHeaderException) {
+            return INVALID_HEADER;
+        }
+        if (error instanceof TokenValidator.UnknownIssuerException) {
+            return UNKNOWN_ISSUER;
+        }
+        if (error instanceof BadJWSException) {
+            return BAD_SIGNATURE;
+        }
+        if (error instanceof BadJOSEException) {
+            return NO_MATCHING_KEY;
+        }
+        if (error instanceof RejectedExecutionException) {
+            return SERVER_BUSY;
+        }
+        return PROCESSING_ERROR;
+    }
+}
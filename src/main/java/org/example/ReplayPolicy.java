@@ -0,0 +1,31 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+//How often the jti of a token may be used before it expires
+public enum ReplayPolicy {
+
+    //jti is not checked
+    OFF("off"),
+
+    //every token connects exactly once, also a reconnect of the same client needs a new token
+    ONCE("once"),
+
+    //a token is bound to the first client id it connected with, only that client may reconnect with it
+    SINGLE_SESSION("single-session");
+
+    private final String configValue;
+
+    ReplayPolicy(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public static @NotNull ReplayPolicy fromConfigValue(@NotNull String value) {
+        for (ReplayPolicy policy : values()) {
+            if (policy.configValue.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown replay.policy: " + value);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digest of a raw token string, used as a compact key wherever a token has to be looked up
+ * without keeping the token itself around.
+ */
+public final class TokenDigest {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private final long h0;
+    private final long h1;
+    private final long h2;
+    private final long h3;
+
+    private TokenDigest(long h0, long h1, long h2, long h3) {
+        this.h0 = h0;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+    }
+
+    public static @NotNull TokenDigest of(@NotNull String token) {
+        byte[] hash = SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        return new TokenDigest(readLong(hash, 0), readLong(hash, 8), readLong(hash, 16), readLong(hash, 24));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+    //the digest is already uniformly distributed, so any 64 bits of it are a good hash
+    public long fingerprint() {
+        return h0;
+    }
+
+    //one of the four 64-bit words of the digest, for structures that need several independent hashes
+    long word(int index) {
+        switch (index) {
+            case 0:
+                return h0;
+            case 1:
+                return h1;
+            case 2:
+                return h2;
+            case 3:
+                return h3;
+            default:
+                throw new IndexOutOfBoundsException("Digest word " + index);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TokenDigest)) {
+            return false;
+        }
+        TokenDigest other = (TokenDigest) o;
+        return h0 == other.h0 && h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (h0 ^ (h0 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", h0);
+    }
+}
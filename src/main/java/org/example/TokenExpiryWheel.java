@@ -0,0 +1,202 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Fires when the token of a connection expires, for any number of connections with a single timer.
+ * <p>
+ * Hashed timing wheel: a ring of slots, one per tick, each holding a doubly linked list of the connections whose
+ * token expires in a tick that maps to that slot. Scheduling and cancelling are O(1), and {@link #tick()} only visits
+ * the slots of the ticks that passed since the last call. Expirations further away than one revolution stay in their
+ * slot and are skipped until their revolution comes. Per connection this costs one small entry object and its map
+ * node, instead of a scheduled task in a priority queue.
+ * <p>
+ * Every client has at most one entry, scheduling again (after a reconnect or re-authentication) replaces it.
+ * Expirations are accurate to one tick.
+ */
+public class TokenExpiryWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenExpiryWheel.class);
+
+    //called with the wheel unlocked, from the thread calling tick(), and only while the expired token is still the
+    //latest one of the client
+    public interface Listener {
+        void onExpired(@NotNull String clientId, long connectionId);
+    }
+
+    //a bit over an hour per revolution at the default tick of one second
+    public static final int DEFAULT_WHEEL_SIZE = 4096;
+
+    //entry, map node and a share of the slot array
+    private static final int ENTRY_BYTES = 40 + 32;
+
+    private final long tickMillis;
+    private final Entry[] slots;
+    private final int mask;
+    private final Listener listener;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    //last scheduled entry per client, kept after it fired until the connection is gone, so a reconnect or
+    //re-authentication racing the listener is noticed
+    private final ConcurrentHashMap<String, Entry> latest = new ConcurrentHashMap<>();
+
+    //guarded by this, together with the slot lists
+    private long currentTick;
+
+    /**
+     * @param wheelSize number of slots, rounded up to a power of two. One revolution should cover the usual token
+     *                  lifetime, longer lifetimes only cost a visit per revolution
+     */
+    public TokenExpiryWheel(long tickMillis, int wheelSize, @NotNull Listener listener) {
+        this(tickMillis, wheelSize, listener, System::currentTimeMillis);
+    }
+
+    TokenExpiryWheel(long tickMillis, int wheelSize, @NotNull Listener listener, @NotNull LongSupplier clock) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tickMillis must be at least 1: " + tickMillis);
+        }
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+        this.listener = listener;
+        this.clock = clock;
+        this.currentTick = clock.getAsLong() / tickMillis;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedules the expiration of a connection's token, replacing any earlier one of the client.
+     */
+    public void schedule(@NotNull String clientId, long connectionId, long expiresAtMillis) {
+        //rounded up, so it never fires before the token expired
+        long deadlineTick = (expiresAtMillis + tickMillis - 1) / tickMillis;
+        Entry entry = new Entry(clientId, connectionId, deadlineTick);
+        synchronized (this) {
+            //an already expired token fires with the next tick
+            long slotTick = Math.max(deadlineTick, currentTick + 1);
+            latest.put(clientId, entry);
+            Entry previous = entries.put(clientId, entry);
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(entry, (int) (slotTick & mask));
+        }
+    }
+
+    /**
+     * Cancels the expiration of the client, if it was scheduled for this connection.
+     */
+    public void cancel(@NotNull String clientId, long connectionId) {
+        synchronized (this) {
+            Entry last = latest.get(clientId);
+            if (last != null && last.connectionId == connectionId) {
+                latest.remove(clientId);
+            }
+            Entry entry = entries.get(clientId);
+            if (entry != null && entry.connectionId == connectionId) {
+                entries.remove(clientId);
+                unlink(entry);
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel to now and notifies the listener of every expired token. Meant to be called every tick.
+     */
+    public void tick() {
+        long nowTick = clock.getAsLong() / tickMillis;
+        List<Entry> expired = null;
+        synchronized (this) {
+            //after a long pause, one revolution visits every slot
+            long fromTick = Math.max(currentTick + 1, nowTick - mask);
+            for (long tick = fromTick; tick <= nowTick; tick++) {
+                int slot = (int) (tick & mask);
+                Entry entry = slots[slot];
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.deadlineTick <= nowTick) {
+                        unlink(entry);
+                        entries.remove(entry.clientId, entry);
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(entry);
+                    }
+                    entry = next;
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        if (expired == null) {
+            return;
+        }
+        for (Entry entry : expired) {
+            //the client reconnected or re-authenticated since, the listener must not act on its new token
+            if (latest.get(entry.clientId) != entry) {
+                continue;
+            }
+            try {
+                listener.onExpired(entry.clientId, entry.connectionId);
+            } catch (RuntimeException e) {
+                log.error("Failed to handle expired token of client {}", entry.clientId, e);
+            }
+        }
+    }
+
+    private void link(Entry entry, int slot) {
+        Entry head = slots[slot];
+        entry.slot = slot;
+        entry.next = head;
+        if (head != null) {
+            head.previous = entry;
+        }
+        slots[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else if (slots[entry.slot] == entry) {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long estimatedMemoryBytes() {
+        return 16L + 4L * slots.length + (long) ENTRY_BYTES * entries.size() + 32L * latest.size();
+    }
+
+    private static final class Entry {
+        final String clientId;
+        final long connectionId;
+        final long deadlineTick;
+        int slot;
+        Entry previous;
+        Entry next;
+
+        Entry(String clientId, long connectionId, long deadlineTick) {
+            this.clientId = clientId;
+            this.connectionId = connectionId;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
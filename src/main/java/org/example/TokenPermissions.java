@@ -0,0 +1,264 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.auth.parameter.DefaultAuthorizationBehaviour;
+import com.hivemq.extension.sdk.api.auth.parameter.ModifiableDefaultPermissions;
+import com.hivemq.extension.sdk.api.auth.parameter.TopicPermission;
+import com.hivemq.extension.sdk.api.services.builder.Builders;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.BadJWTException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The topic permissions granted by a token.
+ * <ul>
+ *     <li>{@code allowed_topics}: patterns the client may publish and subscribe to</li>
+ *     <li>{@code allowed_publish_topics}: optional, patterns the client may only publish to</li>
+ *     <li>{@code allowed_subscribe_topics}: optional, patterns the client may only subscribe to</li>
+ *     <li>{@code max_qos}: optional, highest QoS (0-2) the client may use, unrestricted if absent</li>
+ * </ul>
+ * An issuer may name these claims differently, see {@link ClaimNames}.
+ * <p>
+ * Patterns may contain placeholders, {@code ${client_id}} for the MQTT client ID and {@code ${<claim>}} for a string
+ * or number claim of the token such as {@code ${sub}}. They are replaced once at CONNECT by {@link #resolve}, so a
+ * fleet shares one short claim like {@code sensors/${client_id}/#} instead of every token listing its own topics.
+ */
+public final class TokenPermissions {
+
+    public static final String CLAIM_ALLOWED_TOPICS = "allowed_topics";
+    public static final String CLAIM_ALLOWED_PUBLISH_TOPICS = "allowed_publish_topics";
+    public static final String CLAIM_ALLOWED_SUBSCRIBE_TOPICS = "allowed_subscribe_topics";
+    public static final String CLAIM_MAX_QOS = "max_qos";
+    //placeholder for the MQTT client ID, takes precedence over a claim of the same name
+    public static final String PLACEHOLDER_CLIENT_ID = "client_id";
+
+    private final List<String> allowedTopics;
+    private final List<String> publishTopics;
+    private final List<String> subscribeTopics;
+    private final int maxQos;
+
+    TokenPermissions(@NotNull List<String> allowedTopics, @NotNull List<String> publishTopics,
+                     @NotNull List<String> subscribeTopics, int maxQos) {
+        this.allowedTopics = List.copyOf(allowedTopics);
+        this.publishTopics = List.copyOf(publishTopics);
+        this.subscribeTopics = List.copyOf(subscribeTopics);
+        this.maxQos = maxQos;
+    }
+
+    /**
+     * @throws ParseException if a permission claim has the wrong type or max_qos is out of range
+     */
+    public static @NotNull TokenPermissions fromClaims(@NotNull JWTClaimsSet claims) throws ParseException {
+        return fromClaims(claims, ClaimNames.DEFAULT);
+    }
+
+    /**
+     * @throws ParseException if a permission claim has the wrong type or max_qos is out of range
+     */
+    public static @NotNull TokenPermissions fromClaims(@NotNull JWTClaimsSet claims, @NotNull ClaimNames names)
+            throws ParseException {
+        Integer maxQos = claims.getIntegerClaim(names.maxQos);
+        if (maxQos != null && (maxQos < 0 || maxQos > 2)) {
+            throw new ParseException("Invalid " + names.maxQos + " claim: " + maxQos, 0);
+        }
+        return new TokenPermissions(
+                stringList(claims, names.allowedTopics),
+                stringList(claims, names.publishTopics),
+                stringList(claims, names.subscribeTopics),
+                maxQos == null ? 2 : maxQos);
+    }
+
+    private static List<String> stringList(JWTClaimsSet claims, String name) throws ParseException {
+        return Optional.ofNullable(claims.getStringListClaim(name)).orElse(List.of());
+    }
+
+    /**
+     * Replaces the placeholders in the patterns with the client ID and the claims of the connection.
+     *
+     * @return these permissions if no pattern has a placeholder
+     * @throws BadJWTException if a placeholder names a claim the token doesn't have, or its value is empty or
+     *                         contains a topic level separator or wildcard, which would grant other clients' topics
+     */
+    public @NotNull TokenPermissions resolve(@NotNull String clientId, @NotNull JWTClaimsSet claims)
+            throws BadJWTException {
+        if (!hasPlaceholder(allowedTopics) && !hasPlaceholder(publishTopics) && !hasPlaceholder(subscribeTopics)) {
+            return this;
+        }
+        return new TokenPermissions(
+                resolve(allowedTopics, clientId, claims),
+                resolve(publishTopics, clientId, claims),
+                resolve(subscribeTopics, clientId, claims),
+                maxQos);
+    }
+
+    private static boolean hasPlaceholder(List<String> patterns) {
+        for (String pattern : patterns) {
+            if (pattern.contains("${")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> resolve(List<String> patterns, String clientId, JWTClaimsSet claims)
+            throws BadJWTException {
+        List<String> resolved = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            resolved.add(resolve(pattern, clientId, claims));
+        }
+        return resolved;
+    }
+
+    //an unterminated ${ is kept literally, it matches no topic a client would use
+    private static String resolve(String pattern, String clientId, JWTClaimsSet claims) throws BadJWTException {
+        int start = pattern.indexOf("${");
+        if (start < 0) {
+            return pattern;
+        }
+        StringBuilder resolved = new StringBuilder(pattern.length() + clientId.length());
+        int copied = 0;
+        while (start >= 0) {
+            int end = pattern.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            String name = pattern.substring(start + 2, end);
+            resolved.append(pattern, copied, start).append(placeholderValue(name, clientId, claims));
+            copied = end + 1;
+            start = pattern.indexOf("${", copied);
+        }
+        return resolved.append(pattern, copied, pattern.length()).toString();
+    }
+
+    private static String placeholderValue(String name, String clientId, JWTClaimsSet claims) throws BadJWTException {
+        String value;
+        if (name.equals(PLACEHOLDER_CLIENT_ID)) {
+            value = clientId;
+        } else {
+            Object claim = claims.getClaim(name);
+            if (!(claim instanceof String) && !(claim instanceof Number)) {
+                throw new BadJWTException("No string claim for topic placeholder ${" + name + "}");
+            }
+            value = claim.toString();
+        }
+        if (!isTopicLevel(value)) {
+            throw new BadJWTException("Value of topic placeholder ${" + name + "} is not a single topic level");
+        }
+        return value;
+    }
+
+    //a single topic level, never a wildcard, so a client can't widen its own permissions, and without U+0000 or
+    //other control characters, which MQTT doesn't allow in topic names
+    private static boolean isTopicLevel(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '/' || c == '+' || c == '#' || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //patterns the client may publish to
+    public @NotNull List<String> publishPatterns() {
+        return union(allowedTopics, publishTopics);
+    }
+
+    //patterns the client may subscribe to
+    public @NotNull List<String> subscribePatterns() {
+        return union(allowedTopics, subscribeTopics);
+    }
+
+    public int maxQos() {
+        return maxQos;
+    }
+
+    private static List<String> union(List<String> first, List<String> second) {
+        if (second.isEmpty()) {
+            return first;
+        }
+        Set<String> union = new LinkedHashSet<>(first);
+        union.addAll(second);
+        return List.copyOf(union);
+    }
+
+    /**
+     * Adds the permissions to the connection's default permissions, so that HiveMQ enforces them itself
+     * without calling an authorizer for every PUBLISH and SUBSCRIBE. Everything else is denied.
+     */
+    public void addTo(@NotNull ModifiableDefaultPermissions defaultPermissions) {
+        TopicPermission.Qos qos = toPermissionQos(maxQos);
+        List<TopicPermission> permissions = new ArrayList<>();
+        for (String topic : allowedTopics) {
+            if (isUsable(topic)) {
+                permissions.add(permission(topic, TopicPermission.MqttActivity.ALL, qos));
+            }
+        }
+        for (String topic : publishTopics) {
+            if (isUsable(topic)) {
+                permissions.add(permission(topic, TopicPermission.MqttActivity.PUBLISH, qos));
+            }
+        }
+        for (String topic : subscribeTopics) {
+            if (isUsable(topic)) {
+                permissions.add(permission(topic, TopicPermission.MqttActivity.SUBSCRIBE, qos));
+            }
+        }
+        defaultPermissions.addAll(permissions);
+        defaultPermissions.setDefaultBehaviour(DefaultAuthorizationBehaviour.DENY);
+    }
+
+    private static TopicPermission permission(String topic, TopicPermission.MqttActivity activity, TopicPermission.Qos qos) {
+        return Builders.topicPermission()
+                .topicFilter(topic.trim())
+                .type(TopicPermission.PermissionType.ALLOW)
+                .activity(activity)
+                .qos(qos)
+                .build();
+    }
+
+    //the permission builder rejects invalid filters, the authorizer ignores them the same way
+    private static boolean isUsable(String topic) {
+        String trimmed = topic.trim();
+        return !trimmed.isEmpty() && TopicPermissionTrie.isValidPattern(trimmed);
+    }
+
+    private static TopicPermission.Qos toPermissionQos(int maxQos) {
+        switch (maxQos) {
+            case 0:
+                return TopicPermission.Qos.ZERO;
+            case 1:
+                return TopicPermission.Qos.ZERO_ONE;
+            default:
+                return TopicPermission.Qos.ALL;
+        }
+    }
+
+    //the claims an issuer puts the permissions into
+    public static final class ClaimNames {
+        public static final ClaimNames DEFAULT = new ClaimNames(CLAIM_ALLOWED_TOPICS, CLAIM_ALLOWED_PUBLISH_TOPICS,
+                CLAIM_ALLOWED_SUBSCRIBE_TOPICS, CLAIM_MAX_QOS);
+
+        private final String allowedTopics;
+        private final String publishTopics;
+        private final String subscribeTopics;
+        private final String maxQos;
+
+        public ClaimNames(@NotNull String allowedTopics, @NotNull String publishTopics,
+                          @NotNull String subscribeTopics, @NotNull String maxQos) {
+            this.allowedTopics = allowedTopics;
+            this.publishTopics = publishTopics;
+            this.subscribeTopics = subscribeTopics;
+            this.maxQos = maxQos;
+        }
+    }
+}
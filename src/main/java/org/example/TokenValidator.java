@@ -0,0 +1,261 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.util.DateUtils;
+
+import java.security.Key;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates a token in ordered stages, cheapest first, so garbage, expired or foreign tokens are rejected before
+ * any signature is verified:
+ * <ol>
+ * <li>{@link Stage#STRUCTURE}: size limit, three base64url parts, parsable header</li>
+ * <li>{@link Stage#HEADER}: accepted {@code alg}, {@code typ} and {@code kid}, no critical parameters, before the
+ * payload is decoded. With several issuers {@code alg} and {@code kid} must be accepted by one of them here, and
+ * by the token's own issuer once that is known</li>
+ * <li>{@link Stage#ISSUER}: the still unverified {@code iss} picks the {@link Issuer} whose settings the further
+ * stages apply, with a single hash lookup however many issuers are configured</li>
+ * <li>{@link Stage#PRECHECK}: the still unverified claims, issuer, audience, expiration and not-before with
+ * clock skew and required claims. A token failing these is rejected whoever signed it</li>
+ * <li>{@link Stage#SIGNATURE}: signature with the issuer's key for the token's {@code kid}</li>
+ * <li>{@link Stage#POLICY}: claims that are only acted on once they are known to come from the IdP, the maximum
+ * token lifetime and the topic permission claims</li>
+ * </ol>
+ * Rejections are counted per stage. Replay protection stays with the connect, it must only see verified tokens
+ * and applies to cached ones too.
+ */
+public class TokenValidator {
+
+    public enum Stage {
+        STRUCTURE, HEADER, ISSUER, PRECHECK, SIGNATURE, POLICY
+    }
+
+    private static final JOSEObjectType JWT_TYPE = new JOSEObjectType("JWT");
+    //longer key IDs are not from any IdP we know, they are not looked up
+    private static final int MAX_KEY_ID_LENGTH = 256;
+
+    private final AuthMetrics metrics;
+    private final int maxLength;
+    //keyed by iss, never changed after construction
+    private final Map<String, Issuer> issuers = new HashMap<>();
+    //accepted by at least one issuer, null if one of them accepts every key ID
+    private final Set<JWSAlgorithm> anyIssuerAlgorithms = new HashSet<>();
+    private @Nullable Set<String> anyIssuerKeyIds = new HashSet<>();
+
+    public TokenValidator(@NotNull ExtensionConfig config, @NotNull List<Issuer> issuers, @NotNull AuthMetrics metrics) {
+        this.metrics = metrics;
+        this.maxLength = config.maxTokenLength();
+        for (Issuer issuer : issuers) {
+            Issuer previous = this.issuers.put(issuer.issuer(), issuer);
+            if (previous != null) {
+                throw new IllegalArgumentException("Issuers " + previous.name() + " and " + issuer.name()
+                        + " both accept iss " + issuer.issuer());
+            }
+            anyIssuerAlgorithms.addAll(issuer.allowedAlgorithms());
+            if (issuer.allowedKeyIds().isEmpty()) {
+                anyIssuerKeyIds = null;
+            } else if (anyIssuerKeyIds != null) {
+                anyIssuerKeyIds.addAll(issuer.allowedKeyIds());
+            }
+        }
+    }
+
+    //the issuer of a token with this iss claim, null if its tokens are not accepted
+    public @Nullable Issuer issuerOf(@Nullable String iss) {
+        return iss == null ? null : issuers.get(iss);
+    }
+
+    //number of key IDs with built verifiers, over all issuers
+    public int verifierCacheSize() {
+        int size = 0;
+        for (Issuer issuer : issuers.values()) {
+            size += issuer.verifiers().size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the verified claims of the token
+     * @throws ParseException   if the token is not a well-formed signed JWT
+     * @throws BadJOSEException if the token is rejected, {@link RejectReason#of} tells why
+     * @throws JOSEException    if the token could not be verified, e.g. without a usable key set
+     */
+    public @NotNull JWTClaimsSet validate(@NotNull String token) throws ParseException, BadJOSEException, JOSEException {
+        Stage stage = Stage.STRUCTURE;
+        try {
+            long stageStart = System.nanoTime();
+            checkStructure(token);
+            SignedJWT signedJWT = SignedJWT.parse(token);
+
+            stage = Stage.HEADER;
+            JWSHeader header = signedJWT.getHeader();
+            checkHeader(header);
+
+            //the payload is only decoded and parsed here
+            stage = Stage.ISSUER;
+            JWTClaimsSet claims = signedJWT.getJWTClaimsSet();
+            Issuer issuer = issuerOf(claims.getIssuer());
+            if (issuer == null) {
+                throw new UnknownIssuerException("Issuer not accepted: " + claims.getIssuer());
+            }
+
+            //accepted by some issuer, but maybe not by this one, still counted as a header rejection
+            stage = Stage.HEADER;
+            checkHeader(issuer, header);
+            metrics.parsed(stageStart);
+
+            stage = Stage.PRECHECK;
+            stageStart = System.nanoTime();
+            //checked here with the same skew as the claims verifier, so it is told apart by type and not by message
+            Date notBefore = claims.getNotBeforeTime();
+            if (notBefore != null
+                    && !DateUtils.isBefore(notBefore, new Date(), issuer.claimsVerifier().getMaxClockSkew())) {
+                throw new NotYetValidException("Token not valid before " + notBefore.toInstant());
+            }
+            issuer.claimsVerifier().verify(claims, null);
+            List<String> tokenAudience = claims.getAudience();
+            if (tokenAudience == null || !tokenAudience.contains(issuer.audience())) {
+                throw new BadJWTException("Invalid audience claim");
+            }
+            metrics.claimsVerified(stageStart);
+
+            stage = Stage.SIGNATURE;
+            stageStart = System.nanoTime();
+            verifySignature(issuer.verifiers(), signedJWT, header);
+            metrics.signatureVerified(stageStart);
+
+            stage = Stage.POLICY;
+            checkPolicies(issuer, claims);
+            return claims;
+        } catch (ParseException | BadJOSEException | JOSEException | RuntimeException e) {
+            metrics.stageRejected(stage);
+            throw e;
+        }
+    }
+
+    //a single pass over the characters, before anything is decoded
+    private void checkStructure(String token) throws ParseException {
+        if (token.length() > maxLength) {
+            throw new ParseException("Token longer than " + maxLength + " characters", maxLength);
+        }
+        int dots = 0;
+        int partStart = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '.') {
+                if (i == partStart) {
+                    throw new ParseException("Empty token part", i);
+                }
+                dots++;
+                partStart = i + 1;
+            } else if (!isBase64Url(c)) {
+                throw new ParseException("Invalid character in token", i);
+            }
+        }
+        if (dots != 2 || partStart == token.length()) {
+            throw new ParseException("Not a signed JWT", 0);
+        }
+    }
+
+    private static boolean isBase64Url(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+    }
+
+    private void checkHeader(JWSHeader header) throws InvalidHeaderException {
+        if (!anyIssuerAlgorithms.contains(header.getAlgorithm())) {
+            throw new InvalidHeaderException("Algorithm not accepted: " + header.getAlgorithm());
+        }
+        if (!JWT_TYPE.equals(header.getType())) {
+            throw new InvalidHeaderException("Type not accepted: " + header.getType());
+        }
+        Set<String> criticalParams = header.getCriticalParams();
+        if (criticalParams != null && !criticalParams.isEmpty()) {
+            throw new InvalidHeaderException("Critical header parameters not supported: " + criticalParams);
+        }
+        String keyId = header.getKeyID();
+        if (keyId != null && keyId.length() > MAX_KEY_ID_LENGTH) {
+            throw new InvalidHeaderException("Key ID too long");
+        }
+        if (anyIssuerKeyIds != null && (keyId == null || !anyIssuerKeyIds.contains(keyId))) {
+            throw new InvalidHeaderException("Key ID not accepted: " + keyId);
+        }
+    }
+
+    //the parts of the header that depend on the issuer, the same as above with a single issuer
+    private static void checkHeader(Issuer issuer, JWSHeader header) throws InvalidHeaderException {
+        if (!issuer.allowedAlgorithms().contains(header.getAlgorithm())) {
+            throw new InvalidHeaderException("Algorithm not accepted: " + header.getAlgorithm());
+        }
+        String keyId = header.getKeyID();
+        Set<String> allowedKeyIds = issuer.allowedKeyIds();
+        if (!allowedKeyIds.isEmpty() && (keyId == null || !allowedKeyIds.contains(keyId))) {
+            throw new InvalidHeaderException("Key ID not accepted: " + keyId);
+        }
+    }
+
+    //same outcomes as Nimbus' JWT processor, so RejectReason tells them apart the same way
+    private static void verifySignature(JwsVerifierCache verifiers, SignedJWT signedJWT, JWSHeader header)
+            throws BadJOSEException, JOSEException {
+        List<? extends Key> keys = verifiers.selectJWSKeys(header, null);
+        if (keys.isEmpty()) {
+            throw new BadJOSEException("Signed JWT rejected: Another algorithm expected, or no matching key(s) found");
+        }
+        for (Key key : keys) {
+            if (signedJWT.verify(verifiers.createJWSVerifier(header, key))) {
+                return;
+            }
+        }
+        throw new BadJWSException("Signed JWT rejected: Invalid signature");
+    }
+
+    private static void checkPolicies(Issuer issuer, JWTClaimsSet claims) throws ParseException, BadJWTException {
+        long maxLifetimeMillis = issuer.maxLifetimeMillis();
+        if (maxLifetimeMillis > 0) {
+            Date issuedAt = claims.getIssueTime();
+            Date expiration = claims.getExpirationTime();
+            if (expiration.getTime() - issuedAt.getTime() > maxLifetimeMillis) {
+                throw new BadJWTException("Token lifetime exceeds the accepted maximum");
+            }
+        }
+        //the connect builds the permissions again, this only rejects tokens whose permission claims can't be used
+        TokenPermissions.fromClaims(claims, issuer.claimNames());
+    }
+
+    //the header names an algorithm, type or key ID that is not accepted, a property of the token alone
+    public static final class InvalidHeaderException extends BadJOSEException {
+        public InvalidHeaderException(@Nullable String message) {
+            super(message);
+        }
+    }
+
+    //no issuer with the token's iss is configured
+    public static final class UnknownIssuerException extends BadJOSEException {
+        public UnknownIssuerException(@Nullable String message) {
+            super(message);
+        }
+    }
+
+    //nbf is still in the future beyond the clock skew, the same token is accepted later
+    public static final class NotYetValidException extends BadJWTException {
+        public NotYetValidException(@Nullable String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The allowed topic patterns of a token compiled into a trie with one level per topic level.
+ * Supports the MQTT wildcards {@code +} (exactly one level) and {@code #} (all remaining levels, including none).
+ * <p>
+ * A lookup walks the topic level by level and never looks at patterns that don't share its prefix, so its cost
+ * depends on the depth of the topic rather than on the number of patterns. Lookups don't allocate.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class TopicPermissionTrie {
+
+    private static final Logger log = LoggerFactory.getLogger(TopicPermissionTrie.class);
+
+    public static final TopicPermissionTrie EMPTY = new TopicPermissionTrie(new Node(), 0, 0);
+
+    //rough sizes on a 64-bit JVM with compressed oops
+    private static final int OBJECT_HEADER_BYTES = 16;
+    private static final int NODE_BYTES = OBJECT_HEADER_BYTES + 4 * 4 + 4 + 2;
+    private static final int STRING_BYTES = OBJECT_HEADER_BYTES + 8 + OBJECT_HEADER_BYTES;
+
+    private final Node root;
+    private final int patternCount;
+    private final int nodeCount;
+    private final long estimatedBytes;
+
+    private TopicPermissionTrie(Node root, int patternCount, int nodeCount) {
+        this.root = root;
+        this.patternCount = patternCount;
+        this.nodeCount = nodeCount;
+        this.estimatedBytes = OBJECT_HEADER_BYTES + 16 + estimateBytes(root);
+    }
+
+    /**
+     * Invalid patterns (for example a {@code #} that is not the last level) are logged and skipped.
+     */
+    public static @NotNull TopicPermissionTrie compile(@NotNull Collection<String> patterns) {
+        Node root = new Node();
+        int patternCount = 0;
+        int[] nodeCount = {1};
+        for (String rawPattern : patterns) {
+            String pattern = rawPattern == null ? "" : rawPattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (!isValidPattern(pattern)) {
+                log.warn("Ignoring invalid topic pattern: {}", pattern);
+                continue;
+            }
+            insert(root, pattern, nodeCount);
+            patternCount++;
+        }
+        if (patternCount == 0) {
+            return EMPTY;
+        }
+        return new TopicPermissionTrie(root, patternCount, nodeCount[0]);
+    }
+
+    public static @NotNull TopicPermissionTrie compileCsv(@NotNull String csv) {
+        return csv.isEmpty() ? EMPTY : compile(List.of(csv.split(",")));
+    }
+
+    static boolean isValidPattern(String pattern) {
+        int levelStart = 0;
+        while (true) {
+            int levelEnd = pattern.indexOf('/', levelStart);
+            boolean last = levelEnd < 0;
+            if (last) {
+                levelEnd = pattern.length();
+            }
+            for (int i = levelStart; i < levelEnd; i++) {
+                char c = pattern.charAt(i);
+                if ((c == '+' || c == '#') && levelEnd - levelStart != 1) {
+                    return false;
+                }
+                if (c == '#' && !last) {
+                    return false;
+                }
+            }
+            if (last) {
+                return true;
+            }
+            levelStart = levelEnd + 1;
+        }
+    }
+
+    private static void insert(Node root, String pattern, int[] nodeCount) {
+        Node node = root;
+        int levelStart = 0;
+        while (true) {
+            int levelEnd = pattern.indexOf('/', levelStart);
+            boolean last = levelEnd < 0;
+            if (last) {
+                levelEnd = pattern.length();
+            }
+            String level = pattern.substring(levelStart, levelEnd);
+            if (level.equals("#")) {
+                node.multiLevel = true;
+                return;
+            }
+            Node next;
+            if (level.equals("+")) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node();
+                    nodeCount[0]++;
+                }
+                next = node.singleLevel;
+            } else {
+                next = node.child(level, 0, level.length());
+                if (next == null) {
+                    next = new Node();
+                    node.putChild(level, next);
+                    nodeCount[0]++;
+                }
+            }
+            node = next;
+            if (last) {
+                node.terminal = true;
+                return;
+            }
+            levelStart = levelEnd + 1;
+        }
+    }
+
+    /**
+     * @param topic a topic name as used in PUBLISH, without wildcards
+     */
+    public boolean matchesTopic(@NotNull String topic) {
+        if (patternCount == 0) {
+            return false;
+        }
+        return matches(root, topic, 0, topic.startsWith("$"), false);
+    }
+
+    /**
+     * @param topicFilter a topic filter as used in SUBSCRIBE, may contain wildcards
+     * @return true if every topic the filter can match is allowed by a single pattern
+     */
+    public boolean coversFilter(@NotNull String topicFilter) {
+        if (patternCount == 0) {
+            return false;
+        }
+        return matches(root, topicFilter, 0, topicFilter.startsWith("$"), true);
+    }
+
+    //levelStart is -1 once all levels of the topic have been consumed
+    private static boolean matches(Node node, String topic, int levelStart, boolean dollarTopic, boolean filter) {
+        if (levelStart < 0) {
+            return node.terminal || node.multiLevel;
+        }
+        //wildcards at the first level never match topics starting with $ (MQTT 4.7.2)
+        boolean wildcardsAllowed = !dollarTopic || levelStart > 0;
+        if (node.multiLevel && wildcardsAllowed) {
+            return true;
+        }
+        int levelEnd = topic.indexOf('/', levelStart);
+        int next = levelEnd < 0 ? -1 : levelEnd + 1;
+        if (levelEnd < 0) {
+            levelEnd = topic.length();
+        }
+        if (filter && levelEnd - levelStart == 1) {
+            char c = topic.charAt(levelStart);
+            if (c == '#') {
+                //only a # pattern (checked above) covers a # filter
+                return false;
+            }
+            if (c == '+') {
+                return node.singleLevel != null && wildcardsAllowed
+                        && matches(node.singleLevel, topic, next, dollarTopic, true);
+            }
+        }
+        Node literal = node.child(topic, levelStart, levelEnd);
+        if (literal != null && matches(literal, topic, next, dollarTopic, filter)) {
+            return true;
+        }
+        return node.singleLevel != null && wildcardsAllowed
+                && matches(node.singleLevel, topic, next, dollarTopic, filter);
+    }
+
+    public int patternCount() {
+        return patternCount;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    //approximate heap held by this trie, used for sizing the permission registry
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private static long estimateBytes(Node node) {
+        long bytes = NODE_BYTES;
+        if (node.keys != null) {
+            bytes += 2L * (OBJECT_HEADER_BYTES + 4L * node.keys.length);
+            for (int i = 0; i < node.keys.length; i++) {
+                if (node.keys[i] != null) {
+                    bytes += STRING_BYTES + node.keys[i].length() + estimateBytes(node.children[i]);
+                }
+            }
+        }
+        if (node.singleLevel != null) {
+            bytes += estimateBytes(node.singleLevel);
+        }
+        return bytes;
+    }
+
+    /**
+     * Node with an open addressing table of literal children, so a level can be looked up directly
+     * from the topic string without creating a substring.
+     */
+    private static final class Node {
+        private String[] keys;
+        private Node[] children;
+        private int size;
+        private Node singleLevel;
+        private boolean multiLevel;
+        private boolean terminal;
+
+        Node child(String topic, int start, int end) {
+            if (keys == null) {
+                return null;
+            }
+            int mask = keys.length - 1;
+            int length = end - start;
+            int i = hash(topic, start, end) & mask;
+            while (true) {
+                String key = keys[i];
+                if (key == null) {
+                    return null;
+                }
+                if (key.length() == length && key.regionMatches(0, topic, start, length)) {
+                    return children[i];
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        void putChild(String level, Node child) {
+            if (keys == null) {
+                keys = new String[2];
+                children = new Node[2];
+            } else if ((size + 1) * 2 > keys.length) {
+                String[] oldKeys = keys;
+                Node[] oldChildren = children;
+                keys = new String[oldKeys.length * 2];
+                children = new Node[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insertSlot(oldKeys[i], oldChildren[i]);
+                    }
+                }
+            }
+            insertSlot(level, child);
+        }
+
+        private void insertSlot(String level, Node child) {
+            int mask = keys.length - 1;
+            int i = hash(level, 0, level.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = level;
+            children[i] = child;
+            size++;
+        }
+
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor that runs token verifications away from HiveMQ's network threads.
+ * At most {@code threads} verifications run at once and at most {@code queueSize} wait for their turn,
+ * anything beyond that is rejected with a {@link RejectedExecutionException}.
+ * <p>
+ * With virtual threads (JDK 21+) every verification gets its own virtual thread and the same limits are
+ * enforced with semaphores, so a verification blocked on a slow JWKS fetch does not hold a platform thread.
+ */
+public class VerificationExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(VerificationExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore admitted;
+    private final Semaphore running;
+
+    private VerificationExecutor(ExecutorService executor, Semaphore admitted, Semaphore running) {
+        this.executor = executor;
+        this.admitted = admitted;
+        this.running = running;
+    }
+
+    public static @NotNull VerificationExecutor create(int threads, int queueSize, boolean virtualThreads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("async.threads must be positive");
+        }
+        if (virtualThreads) {
+            ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+            if (virtualExecutor != null) {
+                log.info("Verifying tokens on virtual threads, concurrency {}, queue {}", threads, queueSize);
+                return new VerificationExecutor(virtualExecutor, new Semaphore(threads + queueSize), new Semaphore(threads));
+            }
+            log.warn("Virtual threads are not available on Java {}, using a platform thread pool instead",
+                    Runtime.version().feature());
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                new VerificationThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("Verifying tokens on {} threads, queue {}", threads, queueSize);
+        return new VerificationExecutor(pool, null, null);
+    }
+
+    //looked up reflectively because the extension is compiled for Java 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public void execute(@NotNull Runnable task) {
+        if (admitted == null) {
+            executor.execute(task);
+            return;
+        }
+        if (!admitted.tryAcquire()) {
+            throw new RejectedExecutionException("Verification queue is full");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    running.acquireUninterruptibly();
+                    try {
+                        task.run();
+                    } finally {
+                        running.release();
+                    }
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class VerificationThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "jwt-verification-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.nimbusds.jwt.JWTClaimsSet;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of tokens that already passed signature and claims verification, so that a client reconnecting
+ * with the same token does not pay for another RSA verification.
+ * <p>
+ * Entries are keyed by the {@link TokenDigest} of the raw token and expire at the token's {@code exp}.
+ * The cache is split into independently locked segments, each kept in LRU order. When a segment is full,
+ * a new token only replaces the least recently used one if it has been seen at least as often
+ * (estimated by a {@link FrequencySketch}), which keeps the fleet's steady reconnecting tokens
+ * from being flushed by a burst of one-off tokens.
+ */
+public class VerifiedTokenCache {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int EXPIRY_SCAN_LIMIT = 8;
+
+    private final Segment[] segments;
+    private final FrequencySketch sketch;
+    private final LongSupplier clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public VerifiedTokenCache(int maximumSize) {
+        this(maximumSize, System::currentTimeMillis);
+    }
+
+    VerifiedTokenCache(int maximumSize, @NotNull LongSupplier clock) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        int segmentCapacity = Math.max(1, (maximumSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.sketch = new FrequencySketch(maximumSize);
+        this.clock = clock;
+    }
+
+    /**
+     * @return the verified claims of the token, or null if the token is unknown or has expired
+     */
+    public @Nullable JWTClaimsSet get(@NotNull TokenDigest digest) {
+        sketch.increment(digest.fingerprint());
+        JWTClaimsSet claims = segmentFor(digest).get(digest, clock.getAsLong());
+        if (claims == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return claims;
+    }
+
+    /**
+     * Stores verified claims. Tokens without an expiration time are not cached.
+     */
+    public void put(@NotNull TokenDigest digest, @NotNull JWTClaimsSet claims) {
+        Date expirationTime = claims.getExpirationTime();
+        if (expirationTime == null) {
+            return;
+        }
+        long expiresAt = expirationTime.getTime();
+        long now = clock.getAsLong();
+        if (expiresAt <= now) {
+            return;
+        }
+        segmentFor(digest).put(digest, new Entry(claims, expiresAt), now);
+    }
+
+    public void invalidate(@NotNull TokenDigest digest) {
+        segmentFor(digest).remove(digest);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private Segment segmentFor(TokenDigest digest) {
+        return segments[(int) (digest.fingerprint() >>> 60) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final class Entry {
+        final JWTClaimsSet claims;
+        final long expiresAt;
+
+        Entry(JWTClaimsSet claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Segment {
+        private final int capacity;
+        private final LinkedHashMap<TokenDigest, Entry> entries;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        synchronized JWTClaimsSet get(TokenDigest digest, long now) {
+            Entry entry = entries.get(digest);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= now) {
+                entries.remove(digest);
+                return null;
+            }
+            return entry.claims;
+        }
+
+        synchronized void put(TokenDigest digest, Entry entry, long now) {
+            if (entries.containsKey(digest) || entries.size() < capacity || evictExpired(now)) {
+                entries.put(digest, entry);
+                return;
+            }
+            Iterator<Map.Entry<TokenDigest, Entry>> eldest = entries.entrySet().iterator();
+            TokenDigest victim = eldest.next().getKey();
+            if (sketch.frequency(digest.fingerprint()) >= sketch.frequency(victim.fingerprint())) {
+                eldest.remove();
+                entries.put(digest, entry);
+            }
+        }
+
+        //only looks at the least recently used end, so a full segment never pays for a complete scan
+        private boolean evictExpired(long now) {
+            boolean evicted = false;
+            Iterator<Entry> iterator = entries.values().iterator();
+            for (int scanned = 0; scanned < EXPIRY_SCAN_LIMIT && iterator.hasNext(); scanned++) {
+                if (iterator.next().expiresAt <= now) {
+                    iterator.remove();
+                    evicted = true;
+                }
+            }
+            return evicted;
+        }
+
+        synchronized void remove(TokenDigest digest) {
+            entries.remove(digest);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
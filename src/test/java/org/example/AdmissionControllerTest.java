@@ -0,0 +1,95 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    private final List<Runnable> dispatched = new ArrayList<>();
+    private final long[] now = {0};
+
+    private AdmissionController controller(int maxConcurrent, int maxWaiting) {
+        return new AdmissionController(maxConcurrent, maxWaiting, 1_000, dispatched::add, () -> now[0]);
+    }
+
+    @Test
+    public void testPermitsAreLimited() {
+        AdmissionController admission = controller(2, 10);
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.tryAcquire());
+        assertFalse(admission.tryAcquire());
+
+        admission.release();
+        assertTrue(admission.tryAcquire());
+        assertEquals(2, admission.running());
+    }
+
+    @Test
+    public void testReleasedPermitIsHandedToTheOldestWaiting() {
+        AdmissionController admission = controller(1, 10);
+        AtomicInteger rejected = new AtomicInteger();
+        Runnable first = () -> { };
+        Runnable second = () -> { };
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.enqueue(first, rejected::incrementAndGet));
+        assertTrue(admission.enqueue(second, rejected::incrementAndGet));
+        //waiting connects are not overtaken
+        assertFalse(admission.tryAcquire());
+
+        admission.release();
+        assertEquals(List.of(first), dispatched);
+        assertEquals(1, admission.running());
+        assertEquals(1, admission.waiting());
+        assertEquals(0, rejected.get());
+    }
+
+    @Test
+    public void testQueueIsBounded() {
+        AdmissionController admission = controller(1, 1);
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.enqueue(() -> { }, () -> { }));
+        assertFalse(admission.enqueue(() -> { }, () -> { }));
+        assertEquals(1, admission.rejectedCount());
+    }
+
+    @Test
+    public void testConnectsThatWaitedTooLongAreRejected() {
+        AdmissionController admission = controller(1, 10);
+        AtomicInteger rejected = new AtomicInteger();
+        Runnable fresh = () -> { };
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.enqueue(() -> { }, rejected::incrementAndGet));
+        now[0] = 2_000_000_000L;
+        assertTrue(admission.enqueue(fresh, rejected::incrementAndGet));
+
+        admission.release();
+        assertEquals(1, rejected.get());
+        assertEquals(List.of(fresh), dispatched);
+    }
+
+    @Test
+    public void testPermitIsReturnedWhenDispatcherIsFull() {
+        AtomicInteger rejected = new AtomicInteger();
+        AdmissionController admission = new AdmissionController(1, 10, 1_000, task -> {
+            throw new RejectedExecutionException();
+        });
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.enqueue(() -> { }, rejected::incrementAndGet));
+        admission.release();
+
+        assertEquals(1, rejected.get());
+        assertEquals(0, admission.running());
+        assertTrue(admission.tryAcquire());
+    }
+}
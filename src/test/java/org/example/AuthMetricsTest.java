@@ -0,0 +1,47 @@
+package org.example;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthMetricsTest {
+
+    @Test
+    public void testRejectionsAreCountedPerReason() {
+        MetricRegistry registry = new MetricRegistry();
+        AuthMetrics metrics = new AuthMetrics(registry);
+
+        long start = System.nanoTime();
+        metrics.rejected(RejectReason.EXPIRED, start);
+        metrics.rejected(RejectReason.EXPIRED, start);
+        metrics.rejected(RejectReason.RATE_LIMITED, start);
+        metrics.accepted(start);
+
+        assertEquals(2, metrics.rejectedCount(RejectReason.EXPIRED));
+        assertEquals(1, metrics.rejectedCount(RejectReason.RATE_LIMITED));
+        assertEquals(0, metrics.rejectedCount(RejectReason.BAD_SIGNATURE));
+        assertEquals(1, metrics.acceptedCount());
+        assertEquals(2, registry.counter(AuthMetrics.PREFIX + ".connect.rejected.expired").getCount());
+        assertEquals(4, ((Timer) registry.getMetrics().get(AuthMetrics.PREFIX + ".connect.time")).getCount());
+    }
+
+    @Test
+    public void testRestartReplacesTheMetricsOfThePreviousStart() {
+        MetricRegistry registry = new MetricRegistry();
+        AuthMetrics first = new AuthMetrics(registry);
+        first.gauge("permissions.connections", () -> 1);
+        first.rejected(RejectReason.MALFORMED, System.nanoTime());
+
+        AuthMetrics second = new AuthMetrics(registry);
+        second.gauge("permissions.connections", () -> 2);
+
+        assertEquals(0, second.rejectedCount(RejectReason.MALFORMED));
+        assertEquals(2L, ((Gauge<?>) registry.getMetrics().get(AuthMetrics.PREFIX + ".permissions.connections")).getValue());
+
+        second.remove();
+        assertTrue(registry.getMetrics().isEmpty());
+    }
+}
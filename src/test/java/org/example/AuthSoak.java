@@ -0,0 +1,255 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerInput;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthInput;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthOutput;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.nimbusds.jose.JWSAlgorithm;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Load and soak run of the extension against a {@link MockIdentityProvider}, without a broker or network access.
+ * <p>
+ * Every client connects with a token from a pool that is continuously replaced with fresh tokens, publishes a few
+ * times and connects again. The IdP rotates its key and, if asked to, goes down for a while in the middle of the run.
+ * Latency percentiles and throughput of connects and publishes are printed at the end.
+ * <p>
+ * Options are given as {@code key=value} arguments, see {@link #main}:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.example.AuthSoak \
+ *     -Dexec.args="clients=64 duration-s=300 outage-s=30"
+ * </pre>
+ */
+public class AuthSoak {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+        }
+        int clients = Integer.parseInt(options.getOrDefault("clients", "32"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration-s", "60"));
+        int publishesPerConnect = Integer.parseInt(options.getOrDefault("publishes", "20"));
+        int tokenPoolSize = Integer.parseInt(options.getOrDefault("tokens", "1000"));
+        long rotateSeconds = Long.parseLong(options.getOrDefault("rotate-s", "20"));
+        long outageSeconds = Long.parseLong(options.getOrDefault("outage-s", "0"));
+        long idpLatencyMillis = Long.parseLong(options.getOrDefault("idp-latency-ms", "20"));
+        JWSAlgorithm algorithm = JWSAlgorithm.parse(options.getOrDefault("alg", "RS256"));
+
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+        PrintStream out = System.out;
+
+        try (MockIdentityProvider idp = new MockIdentityProvider(algorithm)) {
+            idp.setLatencyMillis(idpLatencyMillis);
+
+            Properties props = new Properties();
+            props.setProperty("jwks.url", idp.jwksUrl());
+            props.setProperty("jwks.snapshot-file", "none");
+            props.setProperty("jwks.refresh-interval-s", "5");
+            props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+            props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+            props.setProperty("jwt.algorithms", algorithm.getName());
+            props.setProperty("async.enabled", "true");
+            props.setProperty("admission.max-concurrent", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            //any other setting of jwt-auth.properties can be given as -Dkey=value
+            props.putAll(System.getProperties());
+            ExtensionConfig config = new ExtensionConfig(props);
+
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+            JwksManager jwksManager = new JwksManager(config.jwksUrl(), config.jwksSnapshotFile(),
+                    config.jwksRefreshIntervalMillis(), config.jwksMaxStaleMillis(),
+                    config.jwksConnectTimeoutMillis(), config.jwksReadTimeoutMillis(),
+                    config.jwksRefetchMinIntervalMillis(), config.jwksUnknownKeyIdTtlMillis());
+            jwksManager.start(scheduler);
+            VerificationExecutor verificationExecutor = VerificationExecutor.create(
+                    config.asyncThreads(), config.asyncQueueSize(), config.asyncVirtualThreads());
+            AdmissionController admissionController = config.admissionMaxConcurrent() > 0
+                    ? new AdmissionController(config.admissionMaxConcurrent(), config.admissionMaxWaiting(),
+                    config.admissionMaxWaitMillis(), verificationExecutor::execute)
+                    : null;
+            PermissionRegistry registry = new PermissionRegistry(config.publishCacheSlots());
+            AuthMetrics metrics = new AuthMetrics(new MetricRegistry());
+            //audited like in the broker, the lines are discarded
+            AuditLog auditLog = new AuditLog(config.auditBufferSize(), config.auditAllowSampleInterval(), line -> {
+            });
+            scheduler.scheduleWithFixedDelay(auditLog::drain, config.auditFlushIntervalMillis(),
+                    config.auditFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+            List<Issuer> issuers = List.of(new Issuer(config, jwksManager));
+            MyAuthenticator authenticator = new MyAuthenticator(config, issuers, verificationExecutor,
+                    admissionController, null, registry, null, metrics, auditLog);
+            MyClientAuthorizer authorizer = new MyClientAuthorizer(registry, metrics, auditLog);
+
+            //tokens are replaced all the time, so some connects hit the token cache and some verify a signature
+            AtomicReferenceArray<String> tokens = new AtomicReferenceArray<>(tokenPoolSize);
+            for (int i = 0; i < tokenPoolSize; i++) {
+                tokens.set(i, idp.mint("sensor-" + i, topicsOf(i), 600));
+            }
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    int i = ThreadLocalRandom.current().nextInt(tokenPoolSize);
+                    tokens.set(i, idp.mint("sensor-" + i, topicsOf(i), 600));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, 1, 1, TimeUnit.MILLISECONDS);
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    out.println("Rotated to key " + idp.rotateKey());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, rotateSeconds, rotateSeconds, TimeUnit.SECONDS);
+            if (outageSeconds > 0) {
+                long outageStart = Math.max(0, (durationSeconds - outageSeconds) / 2);
+                scheduler.schedule(() -> idp.setDown(true), outageStart, TimeUnit.SECONDS);
+                scheduler.schedule(() -> idp.setDown(false), outageStart + outageSeconds, TimeUnit.SECONDS);
+            }
+
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+            ExecutorService workers = Executors.newFixedThreadPool(clients);
+            List<Recorder> recorders = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                Recorder recorder = new Recorder();
+                recorders.add(recorder);
+                String clientId = "soak-client-" + c;
+                workers.execute(() -> runClient(clientId, authenticator, authorizer, tokens, publishesPerConnect, end, recorder));
+            }
+            workers.shutdown();
+            workers.awaitTermination(durationSeconds + 60, TimeUnit.SECONDS);
+            scheduler.shutdownNow();
+            verificationExecutor.shutdown();
+
+            Recorder total = new Recorder();
+            for (Recorder recorder : recorders) {
+                total.add(recorder);
+            }
+            out.printf("%d clients, %d s, IdP latency %d ms, %s%n", clients, durationSeconds, idpLatencyMillis, algorithm);
+            total.connects.print(out, "connect", durationSeconds);
+            total.publishes.print(out, "publish", durationSeconds);
+            out.printf("connects accepted %d, rejected %d, timed out %d%n",
+                    metrics.acceptedCount(), total.rejected, total.timedOut);
+            for (RejectReason reason : RejectReason.values()) {
+                if (metrics.rejectedCount(reason) > 0) {
+                    out.printf("  rejected %s: %d%n", reason, metrics.rejectedCount(reason));
+                }
+            }
+            out.printf("JWKS requests %d, failed fetches %d%n", idp.jwksRequestCount(), jwksManager.fetchFailureCount());
+            out.printf("audit lines written %d, dropped %d%n", auditLog.writtenCount(), auditLog.droppedCount());
+        }
+    }
+
+    private static List<String> topicsOf(int id) {
+        return List.of("sensors/sensor-" + id + "/telemetry", "sensors/sensor-" + id + "/cmd/#");
+    }
+
+    private static void runClient(String clientId, MyAuthenticator authenticator, MyClientAuthorizer authorizer,
+                                  AtomicReferenceArray<String> tokens, int publishesPerConnect, long end,
+                                  Recorder recorder) {
+        try {
+            SdkStubs.Decision connected = new SdkStubs.Decision();
+            SdkStubs.Decision published = new SdkStubs.Decision();
+            SimpleAuthOutput authOutput = SdkStubs.authOutput(connected);
+            PublishAuthorizerOutput publishOutput = SdkStubs.publishOutput(published);
+            InetAddress address = InetAddress.getLoopbackAddress();
+            while (System.nanoTime() < end) {
+                int tokenIndex = ThreadLocalRandom.current().nextInt(tokens.length());
+                String token = tokens.get(tokenIndex);
+                //a new connection every time, like a reconnecting device
+                SimpleAuthInput connect = SdkStubs.connect(clientId, () -> token, SdkStubs.connection(address));
+
+                connected.reset();
+                long start = System.nanoTime();
+                authenticator.onConnect(connect, authOutput);
+                if (!connected.await(10_000)) {
+                    recorder.timedOut++;
+                    continue;
+                }
+                recorder.connects.record(System.nanoTime() - start);
+                if (!connected.isAllowed()) {
+                    recorder.rejected++;
+                    continue;
+                }
+
+                String topic = "sensors/sensor-" + tokenIndex + "/telemetry";
+                PublishAuthorizerInput publish = SdkStubs.publish(clientId, () -> topic, Qos.AT_LEAST_ONCE);
+                for (int i = 0; i < publishesPerConnect; i++) {
+                    published.reset();
+                    start = System.nanoTime();
+                    authorizer.authorizePublish(publish, publishOutput);
+                    recorder.publishes.record(System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //samples of one client, merged once the run is over
+    private static final class Recorder {
+        final Latencies connects = new Latencies();
+        final Latencies publishes = new Latencies();
+        long rejected;
+        long timedOut;
+
+        void add(Recorder other) {
+            connects.add(other.connects);
+            publishes.add(other.publishes);
+            rejected += other.rejected;
+            timedOut += other.timedOut;
+        }
+    }
+
+    //every sample is kept, so the tail percentiles are exact
+    private static final class Latencies {
+        private long[] nanos = new long[1024];
+        private int size;
+
+        void record(long latencyNanos) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = latencyNanos;
+        }
+
+        void add(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                record(other.nanos[i]);
+            }
+        }
+
+        void print(PrintStream out, String name, long durationSeconds) {
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            out.printf("%-8s %,12d ops  %,10.0f ops/s  p50 %8.1f us  p99 %8.1f us  p999 %8.1f us  max %8.1f us%n",
+                    name, size, size / (double) durationSeconds,
+                    percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                    size == 0 ? 0 : sorted[size - 1] / 1000.0);
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1000.0;
+        }
+    }
+}
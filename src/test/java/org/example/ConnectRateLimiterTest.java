@@ -0,0 +1,55 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectRateLimiterTest {
+
+    private final long[] now = {1_000_000_000L};
+
+    @Test
+    public void testBurstIsAllowedThenRateIsEnforced() throws Exception {
+        ConnectRateLimiter limiter = new ConnectRateLimiter(10, 5, 1024, () -> now[0]);
+        InetAddress device = InetAddress.getByName("10.0.0.1");
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(device));
+        }
+        assertFalse(limiter.tryAcquire(device));
+
+        //one connect every 100 ms at 10 per second
+        now[0] += 100_000_000L;
+        assertTrue(limiter.tryAcquire(device));
+        assertFalse(limiter.tryAcquire(device));
+        assertEquals(2, limiter.limitedCount());
+    }
+
+    @Test
+    public void testAddressesAreLimitedSeparately() throws Exception {
+        ConnectRateLimiter limiter = new ConnectRateLimiter(1, 1, 1024, () -> now[0]);
+
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("10.0.0.1")));
+        assertFalse(limiter.tryAcquire(InetAddress.getByName("10.0.0.1")));
+        assertTrue(limiter.tryAcquire(InetAddress.getByName("10.0.0.2")));
+    }
+
+    @Test
+    public void testIdleAddressGetsItsBurstBack() throws Exception {
+        ConnectRateLimiter limiter = new ConnectRateLimiter(2, 3, 1024, () -> now[0]);
+        InetAddress device = InetAddress.getByName("2001:db8::1");
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(device));
+        }
+        assertFalse(limiter.tryAcquire(device));
+
+        now[0] += 60_000_000_000L;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(device));
+        }
+        assertFalse(limiter.tryAcquire(device));
+    }
+}
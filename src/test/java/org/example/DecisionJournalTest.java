@@ -0,0 +1,240 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DecisionJournalTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testDecisionsAreReadBackAndFiltered() throws Exception {
+        long tokenFingerprint = TokenDigest.of("token").fingerprint();
+        try (DecisionJournal journal = new DecisionJournal(directory, 1024 * 1024, 0, 10)) {
+            journal.connect("sensor-1", "device-1", tokenFingerprint, false, true, null);
+            journal.publish("sensor-1", "device-1", "sensors/1/telemetry", true, null);
+            journal.publish("sensor-1", "device-1", "admin/shutdown", false, DecisionRecorder.NOT_ALLOWED);
+            journal.subscribe("sensor-2", null, "#", false, DecisionRecorder.NO_PERMISSIONS);
+            journal.connect("sensor-3", null, tokenFingerprint, true, false, RejectReason.EXPIRED.name());
+        }
+
+        List<String> all = read(new DecisionJournalReader.Filter());
+        assertEquals(5, all.size());
+        assertTrue(all.get(0).contains("CONNECT allow client=\"sensor-1\" sub=\"device-1\" token=" + TokenDigest.of("token")));
+        assertTrue(all.get(2).contains("PUBLISH deny client=\"sensor-1\" sub=\"device-1\" topic=\"admin/shutdown\" reason=NOT_ALLOWED"));
+        assertTrue(all.get(3).contains("SUBSCRIBE deny client=\"sensor-2\" topic=\"#\" reason=NO_PERMISSIONS"));
+        assertTrue(all.get(4).contains("REAUTH deny client=\"sensor-3\" reason=EXPIRED"));
+
+        DecisionJournalReader.Filter denied = new DecisionJournalReader.Filter();
+        denied.allowed = false;
+        denied.clientId = "sensor-1";
+        List<String> lines = read(denied);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("topic=\"admin/shutdown\""));
+
+        DecisionJournalReader.Filter publishes = new DecisionJournalReader.Filter();
+        publishes.type = DecisionRecorder.Type.PUBLISH;
+        publishes.subject = "device-1";
+        assertEquals(2, read(publishes).size());
+
+        //not in the dictionary, so nothing can match
+        DecisionJournalReader.Filter unknown = new DecisionJournalReader.Filter();
+        unknown.clientId = "sensor-9";
+        assertEquals(0, read(unknown).size());
+
+        DecisionJournalReader.Filter future = new DecisionJournalReader.Filter();
+        future.fromMillis = System.currentTimeMillis() + 60_000;
+        assertEquals(0, read(future).size());
+    }
+
+    @Test
+    public void testRotatesWhenFullAndKeepsNewestSegments() throws Exception {
+        //room for 10 records per segment
+        long segmentBytes = DecisionJournal.HEADER_BYTES + 10 * DecisionJournal.RECORD_BYTES;
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 3)) {
+            for (int i = 0; i < 45; i++) {
+                journal.publish("client-" + i, null, "a/b", false, DecisionRecorder.NOT_ALLOWED);
+            }
+            assertEquals(4, journal.rotationCount());
+            assertEquals(0, journal.droppedCount());
+        }
+
+        List<Path> segments = DecisionJournal.segments(directory);
+        assertEquals(3, segments.size());
+        for (Path segment : segments) {
+            assertTrue(Files.exists(DecisionJournal.dictionaryOf(segment)));
+        }
+        //the oldest two segments with records 0-19 are gone
+        List<String> lines = read(new DecisionJournalReader.Filter());
+        assertEquals(25, lines.size());
+        assertTrue(lines.get(0).contains("client=\"client-20\""));
+        assertTrue(lines.get(24).contains("client=\"client-44\""));
+    }
+
+    @Test
+    public void testRotatesWhenOld() throws Exception {
+        try (DecisionJournal journal = new DecisionJournal(directory, 1024 * 1024, 200, 10)) {
+            journal.publish("client-1", null, "a/b", true, null);
+            Thread.sleep(250);
+            journal.publish("client-2", null, "a/b", true, null);
+            assertEquals(1, journal.rotationCount());
+        }
+        assertEquals(2, DecisionJournal.segments(directory).size());
+        assertEquals(2, read(new DecisionJournalReader.Filter()).size());
+    }
+
+    @Test
+    public void testRestartContinuesAfterExistingSegments() throws Exception {
+        try (DecisionJournal journal = new DecisionJournal(directory, 1024 * 1024, 0, 10)) {
+            journal.publish("before-restart", null, "a/b", true, null);
+        }
+        try (DecisionJournal journal = new DecisionJournal(directory, 1024 * 1024, 0, 10)) {
+            journal.publish("after-restart", null, "a/b", true, null);
+        }
+        List<String> lines = read(new DecisionJournalReader.Filter());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("before-restart"));
+        assertTrue(lines.get(1).contains("after-restart"));
+    }
+
+    @Test
+    public void testConcurrentProducersAcrossRotations() throws Exception {
+        int producers = 4;
+        int perProducer = 5_000;
+        long segmentBytes = DecisionJournal.HEADER_BYTES + 1_000 * DecisionJournal.RECORD_BYTES;
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 1_000)) {
+            ExecutorService executor = Executors.newFixedThreadPool(producers);
+            CountDownLatch start = new CountDownLatch(1);
+            for (int p = 0; p < producers; p++) {
+                String clientId = "client-" + p;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        journal.publish(clientId, clientId, "topic/" + (i % 100), i % 2 == 0, null);
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals(0, journal.droppedCount());
+        }
+
+        assertEquals(producers * perProducer, read(new DecisionJournalReader.Filter()).size());
+        DecisionJournalReader.Filter oneClient = new DecisionJournalReader.Filter();
+        oneClient.clientId = "client-2";
+        oneClient.topic = "topic/42";
+        assertEquals(perProducer / 100, read(oneClient).size());
+    }
+
+    @Test
+    public void testRotatesWhenDictionaryIsFull() throws Exception {
+        //room for 1000 records, but the dictionary only holds a few hundred of these topics
+        long segmentBytes = DecisionJournal.HEADER_BYTES + 1_000 * DecisionJournal.RECORD_BYTES;
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 100)) {
+            for (int i = 0; i < 1_000; i++) {
+                journal.publish("sensor-" + i, null, "sensors/sensor-" + i + "/telemetry/" + "x".repeat(64), true, null);
+            }
+            assertTrue(journal.rotationCount() >= 2);
+            assertEquals(0, journal.droppedCount());
+            //the live segment's dictionary is not cut to its entries yet
+            assertEquals(1_000, read(new DecisionJournalReader.Filter()).size());
+        }
+        List<String> lines = read(new DecisionJournalReader.Filter());
+        assertEquals(1_000, lines.size());
+        assertTrue(lines.get(999).contains("client=\"sensor-999\" topic=\"sensors/sensor-999/telemetry/x"));
+    }
+
+    @Test
+    public void testNonAsciiStringsAreReadBack() throws Exception {
+        String topic = "g\u00e4rten/\u6e29\u5ea6/\ud83c\udf21/broken-\ud83c";
+        assertEquals(topic.getBytes(StandardCharsets.UTF_8).length, DecisionJournal.utf8Length(topic));
+        try (DecisionJournal journal = new DecisionJournal(directory, 1024 * 1024, 0, 10)) {
+            journal.publish("sensor-\u00f8", null, topic, true, null);
+        }
+        String expected = new String(topic.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        List<String> lines = read(new DecisionJournalReader.Filter());
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("client=\"sensor-\u00f8\" topic=\"" + expected + "\""));
+    }
+
+    @Test
+    public void testStringLargerThanADictionaryIsDropped() throws Exception {
+        long segmentBytes = DecisionJournal.HEADER_BYTES + 10 * DecisionJournal.RECORD_BYTES;
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 10)) {
+            journal.publish("sensor-1", null, "a/" + "x".repeat(1_000), true, null);
+            journal.publish("sensor-1", null, "a/b", true, null);
+            assertEquals(1, journal.droppedCount());
+            assertEquals(0, journal.rotationCount());
+        }
+        assertEquals(1, read(new DecisionJournalReader.Filter()).size());
+    }
+
+    @Test
+    public void testRestartDeletesSegmentsBeyondTheLimit() throws Exception {
+        long segmentBytes = DecisionJournal.HEADER_BYTES + 10 * DecisionJournal.RECORD_BYTES;
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 10)) {
+            for (int i = 0; i < 45; i++) {
+                journal.publish("client-" + i, null, "a/b", true, null);
+            }
+        }
+        assertEquals(5, DecisionJournal.segments(directory).size());
+        try (DecisionJournal journal = new DecisionJournal(directory, segmentBytes, 0, 2)) {
+            journal.publish("after-restart", null, "a/b", true, null);
+        }
+        List<Path> segments = DecisionJournal.segments(directory);
+        assertEquals(2, segments.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(4, files.count());
+        }
+        List<String> lines = read(new DecisionJournalReader.Filter());
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(5).contains("after-restart"));
+    }
+
+    private List<String> read(DecisionJournalReader.Filter filter) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long printed;
+        try (PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8)) {
+            printed = DecisionJournalReader.print(DecisionJournal.segments(directory), filter, out);
+        }
+        List<String> lines = bytes.toString(StandardCharsets.UTF_8).lines().collect(Collectors.toList());
+        assertEquals(printed, lines.size());
+        return lines;
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JtiReplayGuardTest {
+
+    private final long[] now = {1_700_000_000L};
+
+    @Test
+    public void testOnceRejectsEveryReuse() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.ONCE, 60, 3600, 0, () -> now[0]);
+
+        assertTrue(guard.tryAccept("jti-1", now[0] + 300, "sensor-1"));
+        assertFalse(guard.tryAccept("jti-1", now[0] + 300, "sensor-1"));
+        assertFalse(guard.tryAccept("jti-1", now[0] + 300, "sensor-2"));
+        assertTrue(guard.tryAccept("jti-2", now[0] + 300, "sensor-1"));
+        assertEquals(2, guard.rejectedCount());
+    }
+
+    @Test
+    public void testSingleSessionAllowsReconnectOfTheSameClientOnly() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.SINGLE_SESSION, 60, 3600, 0, () -> now[0]);
+
+        assertTrue(guard.tryAccept("jti-1", now[0] + 300, "sensor-1"));
+        assertTrue(guard.tryAccept("jti-1", now[0] + 300, "sensor-1"));
+        assertFalse(guard.tryAccept("jti-1", now[0] + 300, "attacker"));
+    }
+
+    @Test
+    public void testJtisAreForgottenWhenTheirBucketExpires() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.ONCE, 60, 3600, 0, () -> now[0]);
+        assertTrue(guard.tryAccept("short-lived", now[0] + 60, "sensor-1"));
+        assertTrue(guard.tryAccept("long-lived", now[0] + 1800, "sensor-2"));
+        assertEquals(2, guard.size());
+
+        now[0] += 180;
+        assertTrue(guard.tryAccept("other", now[0] + 60, "sensor-3"));
+        assertEquals(2, guard.size());
+        assertFalse(guard.tryAccept("long-lived", now[0] + 1620, "sensor-2"));
+    }
+
+    @Test
+    public void testManyJtisGrowTheirBucket() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.ONCE, 60, 3600, 0, () -> now[0]);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(guard.tryAccept("jti-" + i, now[0] + 600, "sensor-" + i));
+        }
+        assertEquals(100_000, guard.size());
+        assertFalse(guard.tryAccept("jti-99999", now[0] + 600, "sensor-99999"));
+        //12 bytes per slot, a table is between a quarter and half full
+        assertTrue(guard.memoryBytes() <= 24L * 100_000 * 2);
+    }
+
+    @Test
+    public void testOffAcceptsEverything() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.OFF, 60, 3600, 0, () -> now[0]);
+
+        assertTrue(guard.tryAccept("jti-1", now[0] + 300, "sensor-1"));
+        assertTrue(guard.tryAccept("jti-1", now[0] + 300, "sensor-2"));
+        assertEquals(0, guard.size());
+    }
+
+    @Test
+    public void testJtiIsKeptWhileTheClockSkewStillAcceptsTheToken() {
+        JtiReplayGuard guard = new JtiReplayGuard(ReplayPolicy.ONCE, 60, 3600, 60, () -> now[0]);
+        long exp = now[0] + 60;
+        assertTrue(guard.tryAccept("jti-1", exp, "sensor-1"));
+
+        //past exp and past its bucket, but within the skew the validator allows
+        now[0] = exp + 50;
+        assertFalse(guard.tryAccept("jti-1", exp, "sensor-2"));
+        assertEquals(1, guard.size());
+
+        now[0] = exp + 180;
+        assertTrue(guard.tryAccept("other", now[0] + 60, "sensor-3"));
+        assertEquals(1, guard.size());
+    }
+}
@@ -0,0 +1,275 @@
+package org.example;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwksManagerTest {
+
+    private static final JWKSelector ANY_KEY = new JWKSelector(new JWKMatcher.Builder().build());
+
+    //fake IdP, fails while down is set and answers once slow is counted down
+    private static final class FakeIdp implements ResourceRetriever {
+        volatile String jwks;
+        volatile boolean down;
+        volatile CountDownLatch slow = new CountDownLatch(0);
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public Resource retrieveResource(URL url) throws IOException {
+            requests.incrementAndGet();
+            try {
+                slow.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+            return new Resource(jwks, "application/json");
+        }
+    }
+
+    private static String publicJwks(String kid) throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID(kid).generate();
+        return new JWKSet(key).toString(true);
+    }
+
+    @Test
+    public void testSnapshotServesKeysWhileIdpIsDown() throws Exception {
+        File snapshot = Files.createTempFile("jwks", ".json").toFile();
+        snapshot.deleteOnExit();
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+
+        JwksManager first = new JwksManager(new URL("http://idp/certs"), idp, snapshot, 60_000, 60_000);
+        assertNotNull(first.refresh());
+        assertTrue(snapshot.length() > 0);
+
+        //restarted broker, IdP unreachable
+        idp.down = true;
+        JwksManager restarted = new JwksManager(new URL("http://idp/certs"), idp, snapshot, 60_000, 60_000);
+        restarted.start(Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        }));
+
+        assertEquals("key-1", restarted.get(ANY_KEY, null).get(0).getKeyID());
+        assertFalse(restarted.get(ANY_KEY, null).get(0).isPrivate());
+    }
+
+    @Test
+    public void testLastGoodKeySetIsKeptUntilTooStale() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 50);
+
+        manager.refresh();
+        idp.down = true;
+        assertNotNull(manager.refresh());
+        assertEquals(1, manager.get(ANY_KEY, null).size());
+
+        Thread.sleep(100);
+        assertThrows(KeySourceException.class, () -> manager.get(ANY_KEY, null));
+    }
+
+    @Test
+    public void testUnknownKeyTriggersRefresh() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000);
+        manager.refresh();
+
+        //the IdP rotated its key
+        idp.jwks = publicJwks("key-2");
+        JWKSelector rotated = new JWKSelector(new JWKMatcher.Builder().keyID("key-2").build());
+
+        assertEquals(1, manager.get(rotated, null).size());
+        assertEquals(2, idp.requests.get());
+    }
+
+    @Test
+    public void testBackgroundStartDoesNotWaitForTheIdp() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch idpResponds = new CountDownLatch(1);
+        try {
+            //a slow IdP, the start must not wait for it
+            scheduler.execute(() -> {
+                try {
+                    idpResponds.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            manager.startInBackground(scheduler);
+            assertEquals(-1, manager.keySetAgeMillis());
+            assertEquals(0, idp.requests.get());
+            idpResponds.countDown();
+
+            //fetched once the IdP answers, by the scheduler or by the first connect waiting for them
+            assertEquals("key-1", manager.get(ANY_KEY, null).get(0).getKeyID());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static JWKSelector keyId(String kid) {
+        return new JWKSelector(new JWKMatcher.Builder().keyID(kid).build());
+    }
+
+    @Test
+    public void testConcurrentUnknownKeysShareOneThrottledRefetch() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000, 60_000, 0);
+        manager.refresh();
+
+        //the IdP rotated its key and is slow to answer
+        idp.jwks = publicJwks("key-2");
+        idp.slow = new CountDownLatch(1);
+        ExecutorService connects = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<?>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(connects.submit(() -> manager.get(keyId("key-2"), null)));
+            }
+            while (idp.requests.get() < 2) {
+                Thread.sleep(1);
+            }
+            //give the other connects time to find the refetch in progress
+            Thread.sleep(100);
+            idp.slow.countDown();
+            for (Future<List<?>> result : results) {
+                assertEquals(1, result.get(10, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            connects.shutdownNow();
+        }
+        assertEquals(2, idp.requests.get());
+        assertEquals(1, manager.refetchCount());
+
+        //made-up key IDs right after don't reach the IdP
+        for (int i = 0; i < 100; i++) {
+            assertTrue(manager.get(keyId("made-up-" + i), null).isEmpty());
+        }
+        assertEquals(2, idp.requests.get());
+        assertEquals(100, manager.throttledRefetchCount());
+    }
+
+    @Test
+    public void testUnknownKeyIsRememberedForAWhile() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000, 0, 200);
+        manager.refresh();
+
+        assertTrue(manager.get(keyId("made-up"), null).isEmpty());
+        assertEquals(2, idp.requests.get());
+        assertTrue(manager.get(keyId("made-up"), null).isEmpty());
+        assertEquals(2, idp.requests.get());
+        assertEquals(1, manager.unknownKeyIdHitCount());
+
+        //a rotated key is still picked up right away
+        idp.jwks = publicJwks("key-2");
+        assertEquals(1, manager.get(keyId("key-2"), null).size());
+        assertEquals(3, idp.requests.get());
+
+        //looked up again once remembered long enough
+        Thread.sleep(300);
+        assertTrue(manager.get(keyId("made-up"), null).isEmpty());
+        assertEquals(4, idp.requests.get());
+    }
+
+    @Test
+    public void testFailedRefetchDoesNotRememberTheKey() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000, 0, 60_000);
+        manager.refresh();
+
+        //the IdP has the new key, but can't be reached for a moment
+        idp.jwks = publicJwks("key-2");
+        idp.down = true;
+        assertTrue(manager.get(keyId("key-2"), null).isEmpty());
+        idp.down = false;
+        assertEquals(1, manager.get(keyId("key-2"), null).size());
+        assertEquals(0, manager.unknownKeyIdHitCount());
+    }
+
+    @Test
+    public void testConnectsWithoutKeysDoNotHammerTheIdp() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        idp.down = true;
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000, 60_000, 0);
+
+        //no snapshot and the IdP down, one fetch per interval however many clients connect
+        for (int i = 0; i < 50; i++) {
+            assertThrows(KeySourceException.class, () -> manager.get(ANY_KEY, null));
+        }
+        assertEquals(1, idp.requests.get());
+        assertEquals(49, manager.throttledRefetchCount());
+
+        //the scheduled refresh is not throttled
+        idp.down = false;
+        assertNotNull(manager.refresh());
+        assertEquals(1, manager.get(ANY_KEY, null).size());
+        assertEquals(2, idp.requests.get());
+    }
+
+    @Test
+    public void testConnectsWaitingForAFailedFetchAllFail() throws Exception {
+        FakeIdp idp = new FakeIdp();
+        idp.jwks = publicJwks("key-1");
+        idp.down = true;
+        idp.slow = new CountDownLatch(1);
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"), idp, null, 60_000, 60_000, 60_000, 0);
+
+        ExecutorService connects = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<?>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(connects.submit(() -> manager.get(ANY_KEY, null)));
+            }
+            while (idp.requests.get() < 1) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            idp.slow.countDown();
+            for (Future<List<?>> result : results) {
+                Exception e = assertThrows(Exception.class, () -> result.get(10, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof KeySourceException);
+            }
+        } finally {
+            connects.shutdownNow();
+        }
+        assertEquals(1, idp.requests.get());
+        assertEquals(-1, manager.keySetAgeMillis());
+    }
+}
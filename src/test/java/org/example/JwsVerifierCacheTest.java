@@ -0,0 +1,197 @@
+package org.example;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwsVerifierCacheTest {
+
+    private static SignedJWT sign(RSAKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder().subject("sensor-1").build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt;
+    }
+
+    private static JwksManager managerServing(String[] jwks) throws Exception {
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"),
+                url -> new Resource(jwks[0], "application/json"), null, 60_000, 60_000);
+        manager.refresh();
+        return manager;
+    }
+
+    @Test
+    public void testVerifierIsBuiltOnceAndReused() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        JwsVerifierCache cache = new JwsVerifierCache(
+                managerServing(new String[]{new JWKSet(key).toString(true)}), Set.of(JWSAlgorithm.RS256));
+
+        for (int i = 0; i < 3; i++) {
+            SignedJWT jwt = sign(key);
+            List<? extends Key> keys = cache.selectJWSKeys(jwt.getHeader(), null);
+            assertEquals(1, keys.size());
+            JWSVerifier verifier = cache.createJWSVerifier(jwt.getHeader(), keys.get(0));
+            assertTrue(verifier instanceof JwsVerifierCache.ReusableSignatureVerifier);
+            assertTrue(jwt.verify(verifier));
+            assertSame(keys, cache.selectJWSKeys(jwt.getHeader(), null));
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testForgedSignatureDoesNotBreakTheReusedSignature() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        RSAKey attacker = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        JwsVerifierCache cache = new JwsVerifierCache(
+                managerServing(new String[]{new JWKSet(key).toString(true)}), Set.of(JWSAlgorithm.RS256));
+
+        SignedJWT forged = sign(attacker);
+        Key publicKey = cache.selectJWSKeys(forged.getHeader(), null).get(0);
+        assertFalse(forged.verify(cache.createJWSVerifier(forged.getHeader(), publicKey)));
+
+        SignedJWT genuine = sign(key);
+        assertTrue(genuine.verify(cache.createJWSVerifier(genuine.getHeader(), publicKey)));
+    }
+
+    @Test
+    public void testVerifiersAreRebuiltWhenKeysRotate() throws Exception {
+        RSAKey oldKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        RSAKey newKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        String[] jwks = {new JWKSet(oldKey).toString(true)};
+        JwksManager manager = managerServing(jwks);
+        JwsVerifierCache cache = new JwsVerifierCache(manager, Set.of(JWSAlgorithm.RS256));
+
+        SignedJWT jwt = sign(newKey);
+        Key stale = cache.selectJWSKeys(jwt.getHeader(), null).get(0);
+        assertFalse(jwt.verify(cache.createJWSVerifier(jwt.getHeader(), stale)));
+
+        jwks[0] = new JWKSet(newKey).toString(true);
+        manager.refresh();
+        Key rotated = cache.selectJWSKeys(jwt.getHeader(), null).get(0);
+        assertNotSame(stale, rotated);
+        assertTrue(jwt.verify(cache.createJWSVerifier(jwt.getHeader(), rotated)));
+    }
+
+    @Test
+    public void testVerifierBuiltDuringARotationIsNotKept() throws Exception {
+        RSAKey oldKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        RSAKey newKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        String[] jwks = {new JWKSet(oldKey).toString(true)};
+        JwsVerifierCache[] cache = new JwsVerifierCache[1];
+        SignedJWT jwt = sign(newKey);
+        boolean[] rotated = {false};
+        //the keys rotate while the first verifier is being built from the old ones, and another connect sees that
+        JwksManager manager = new JwksManager(new URL("http://idp/certs"),
+                url -> new Resource(jwks[0], "application/json"), null, 60_000, 60_000) {
+            @Override
+            public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+                List<JWK> keys = super.get(jwkSelector, context);
+                if (!rotated[0]) {
+                    rotated[0] = true;
+                    jwks[0] = new JWKSet(newKey).toString(true);
+                    refresh();
+                    assertEquals(1, cache[0].selectJWSKeys(jwt.getHeader(), null).size());
+                }
+                return keys;
+            }
+        };
+        manager.refresh();
+        cache[0] = new JwsVerifierCache(manager, Set.of(JWSAlgorithm.RS256));
+
+        Key stale = cache[0].selectJWSKeys(jwt.getHeader(), null).get(0);
+        assertFalse(jwt.verify(cache[0].createJWSVerifier(jwt.getHeader(), stale)));
+        //the old key's verifier did not replace the one built for the new keys
+        Key current = cache[0].selectJWSKeys(jwt.getHeader(), null).get(0);
+        assertNotSame(stale, current);
+        assertTrue(jwt.verify(cache[0].createJWSVerifier(jwt.getHeader(), current)));
+        assertEquals(1, cache[0].size());
+    }
+
+    @Test
+    public void testKeyUsedWithTwoAlgorithmsKeepsBothVerifiers() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        JwsVerifierCache cache = new JwsVerifierCache(managerServing(new String[]{new JWKSet(key).toString(true)}),
+                Set.of(JWSAlgorithm.RS256, JWSAlgorithm.PS256));
+        JWSHeader rs256 = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("key-1").build();
+        JWSHeader ps256 = new JWSHeader.Builder(JWSAlgorithm.PS256).keyID("key-1").build();
+
+        List<? extends Key> rs256Keys = cache.selectJWSKeys(rs256, null);
+        List<? extends Key> ps256Keys = cache.selectJWSKeys(ps256, null);
+        //alternating algorithms don't rebuild each other's verifiers
+        assertSame(rs256Keys, cache.selectJWSKeys(rs256, null));
+        assertSame(ps256Keys, cache.selectJWSKeys(ps256, null));
+        assertEquals(2, cache.size());
+        assertNotSame(cache.createJWSVerifier(rs256, rs256Keys.get(0)), cache.createJWSVerifier(ps256, ps256Keys.get(0)));
+    }
+
+    @Test
+    public void testAlgorithmsThatAreNotAllowedGetNoKeys() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        JwsVerifierCache cache = new JwsVerifierCache(
+                managerServing(new String[]{new JWKSet(key).toString(true)}), Set.of(JWSAlgorithm.RS256));
+
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS512).keyID("key-1").build();
+        assertTrue(cache.selectJWSKeys(header, null).isEmpty());
+    }
+
+    @Test
+    public void testMixedKeySetVerifiesEveryAlgorithm() throws Exception {
+        List<JWSAlgorithm> algorithms = List.of(JWSAlgorithm.RS256, JWSAlgorithm.PS256, JWSAlgorithm.ES256,
+                JWSAlgorithm.EdDSA);
+        List<TokenMinter> minters = new ArrayList<>();
+        List<JWK> publicKeys = new ArrayList<>();
+        for (JWSAlgorithm algorithm : algorithms) {
+            TokenMinter minter = new TokenMinter(algorithm, "key-" + algorithm);
+            minters.add(minter);
+            publicKeys.add(minter.publicKey());
+        }
+        JwsVerifierCache cache = new JwsVerifierCache(
+                managerServing(new String[]{new JWKSet(publicKeys).toString(true)}), Set.copyOf(algorithms));
+
+        for (TokenMinter minter : minters) {
+            SignedJWT jwt = SignedJWT.parse(minter.mint("sensor-1", List.of("a/b"), 60));
+            List<? extends Key> keys = cache.selectJWSKeys(jwt.getHeader(), null);
+            assertEquals(1, keys.size(), jwt.getHeader().getAlgorithm().getName());
+            JWSVerifier verifier = cache.createJWSVerifier(jwt.getHeader(), keys.get(0));
+            assertTrue(verifier instanceof JwsVerifierCache.ReusableSignatureVerifier);
+            assertTrue(jwt.verify(verifier), jwt.getHeader().getAlgorithm().getName());
+        }
+
+        //an EC key named by a token claiming RS256
+        JWSHeader mismatched = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("key-ES256").build();
+        assertTrue(cache.selectJWSKeys(mismatched, null).isEmpty());
+    }
+
+    @Test
+    public void testEcdsaKeyOfAnotherCurveIsNotUsed() throws Exception {
+        ECKey p384 = new ECKeyGenerator(Curve.P_384).keyID("key-1").generate();
+        JwsVerifierCache cache = new JwsVerifierCache(
+                managerServing(new String[]{new JWKSet(p384.toPublicJWK()).toString(true)}), Set.of(JWSAlgorithm.ES256));
+
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID("key-1").build();
+        assertTrue(cache.selectJWSKeys(header, null).isEmpty());
+    }
+}
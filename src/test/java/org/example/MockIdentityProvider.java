@@ -0,0 +1,149 @@
+package org.example;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for Keycloak, for tests and load runs without network access.
+ * <p>
+ * Serves a JWKS on the loopback interface and signs tokens with the keys in it. Keys can be rotated (the previous
+ * key stays published, like an IdP does during a rotation), and the key set endpoint can be slowed down or taken
+ * down to see how the extension copes.
+ */
+final class MockIdentityProvider implements AutoCloseable {
+
+    //keys published at the same time, the newest one signs
+    private static final int PUBLISHED_KEYS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final JWSAlgorithm algorithm;
+    private final CopyOnWriteArrayList<TokenMinter> keys = new CopyOnWriteArrayList<>();
+    private final AtomicInteger keyCounter = new AtomicInteger();
+
+    private volatile long latencyMillis;
+    private volatile boolean down;
+    private final AtomicLong jwksRequests = new AtomicLong();
+
+    MockIdentityProvider(JWSAlgorithm algorithm) throws IOException, JOSEException {
+        this.algorithm = algorithm;
+        rotateKey();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/certs", exchange -> {
+            jwksRequests.incrementAndGet();
+            try {
+                long latency = latencyMillis;
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                if (down) {
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                byte[] body = jwks().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    String jwksUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/certs";
+    }
+
+    //the published key set, the newest keys only
+    String jwks() {
+        List<JWK> published = new ArrayList<>();
+        for (TokenMinter key : keys) {
+            published.add(key.publicKey());
+        }
+        return new JWKSet(published).toString(true);
+    }
+
+    /**
+     * Signs with a new key from now on. The previous key stays published, older ones are dropped.
+     *
+     * @return the key ID of the new key
+     */
+    String rotateKey() throws JOSEException {
+        TokenMinter key = new TokenMinter(algorithm, "key-" + keyCounter.incrementAndGet());
+        keys.add(key);
+        while (keys.size() > PUBLISHED_KEYS) {
+            keys.remove(0);
+        }
+        return key.keyId();
+    }
+
+    String currentKeyId() {
+        return current().keyId();
+    }
+
+    //a token the extension accepts with its default checks
+    String mint(String subject, List<String> allowedTopics, long lifetimeSeconds) throws JOSEException {
+        return current().mint(subject, allowedTopics, lifetimeSeconds);
+    }
+
+    //claims to adjust before minting, e.g. lifetimes in the past or another audience
+    JWTClaimsSet.Builder claims(String subject, List<String> allowedTopics, long lifetimeSeconds) {
+        return current().claims(subject, allowedTopics, lifetimeSeconds);
+    }
+
+    String mint(JWTClaimsSet claims) throws JOSEException {
+        return current().mint(claims);
+    }
+
+    //signed with the current key, but naming any key ID, also one that was never published
+    String mint(JWTClaimsSet claims, String keyId) throws JOSEException {
+        return current().mint(claims, keyId);
+    }
+
+    private TokenMinter current() {
+        return keys.get(keys.size() - 1);
+    }
+
+    //delay of every key set request
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    //while down, key set requests are answered with 503
+    void setDown(boolean down) {
+        this.down = down;
+    }
+
+    long jwksRequestCount() {
+        return jwksRequests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,104 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthInput;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWKSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MockIdentityProviderTest {
+
+    private MockIdentityProvider idp;
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        idp = new MockIdentityProvider(JWSAlgorithm.RS256);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+        idp.close();
+    }
+
+    private JwksManager startManager() throws Exception {
+        JwksManager manager = new JwksManager(idp.jwksUrl(), null, 3_600_000, 3_600_000, 2_000, 2_000,
+                5_000, 30_000);
+        manager.start(scheduler);
+        return manager;
+    }
+
+    @Test
+    public void testRotationKeepsThePreviousKeyPublished() throws Exception {
+        String first = idp.currentKeyId();
+        String second = idp.rotateKey();
+        JWKSet published = JWKSet.parse(idp.jwks());
+        assertNotNull(published.getKeyByKeyId(first));
+        assertNotNull(published.getKeyByKeyId(second));
+
+        String third = idp.rotateKey();
+        published = JWKSet.parse(idp.jwks());
+        assertNull(published.getKeyByKeyId(first));
+        assertNotNull(published.getKeyByKeyId(third));
+    }
+
+    @Test
+    public void testKeySetIsServedOverHttp() throws Exception {
+        JwksManager manager = startManager();
+        assertEquals(1, manager.keySet().jwkSet.getKeys().size());
+        assertEquals(idp.currentKeyId(), manager.keySet().jwkSet.getKeys().get(0).getKeyID());
+        assertEquals(1, idp.jwksRequestCount());
+    }
+
+    @Test
+    public void testOutageKeepsTheLastGoodKeySet() throws Exception {
+        JwksManager manager = startManager();
+        String keyId = idp.currentKeyId();
+
+        idp.setDown(true);
+        idp.rotateKey();
+        assertSame(manager.keySet(), manager.refresh());
+        assertEquals(1, manager.fetchFailureCount());
+        assertEquals(keyId, manager.keySet().jwkSet.getKeys().get(0).getKeyID());
+
+        idp.setDown(false);
+        manager.refresh();
+        assertEquals(2, manager.keySet().jwkSet.getKeys().size());
+    }
+
+    @Test
+    public void testMintedTokensAreAccepted() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        ExtensionConfig config = new ExtensionConfig(props);
+        MyAuthenticator authenticator = new MyAuthenticator(config, List.of(new Issuer(config, startManager())),
+                null, null, null, new PermissionRegistry(0), null, new AuthMetrics(new MetricRegistry()), null);
+
+        String[] token = {idp.mint("sensor-1", List.of("sensors/sensor-1/#"), 60)};
+        SdkStubs.Decision decision = new SdkStubs.Decision();
+        SimpleAuthInput connect = SdkStubs.connect("sensor-1", () -> token[0],
+                SdkStubs.connection(InetAddress.getLoopbackAddress()));
+        authenticator.onConnect(connect, SdkStubs.authOutput(decision));
+        assertTrue(decision.isAllowed());
+
+        //expired an hour ago
+        token[0] = idp.mint(idp.claims("sensor-1", List.of("sensors/sensor-1/#"), -3600).build());
+        decision.reset();
+        authenticator.onConnect(connect, SdkStubs.authOutput(decision));
+        assertTrue(decision.isDecided());
+        assertFalse(decision.isAllowed());
+    }
+}
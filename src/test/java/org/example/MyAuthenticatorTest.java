@@ -0,0 +1,407 @@
+package org.example;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.auth.parameter.DefaultAuthorizationBehaviour;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionInformation;
+import com.hivemq.extension.sdk.api.packets.connect.ConnackReasonCode;
+import com.hivemq.extension.sdk.api.packets.general.DisconnectedReasonCode;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MyAuthenticatorTest {
+
+    private TokenMinter minter;
+    private JwksManager jwksManager;
+    private PermissionRegistry permissionRegistry;
+    private AuthMetrics metrics;
+    private ConnectionInformation connection;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        minter = new TokenMinter(JWSAlgorithm.RS256, "key-1");
+        String jwks = minter.jwks();
+        jwksManager = new JwksManager(new URL("http://idp.invalid/certs"),
+                url -> new Resource(jwks, "application/json"), null, 60_000, 86_400_000);
+        jwksManager.refresh();
+        permissionRegistry = new PermissionRegistry(0);
+        metrics = new AuthMetrics(new MetricRegistry());
+        connection = SdkStubs.connection(InetAddress.getLoopbackAddress());
+    }
+
+    private MyAuthenticator authenticator(TokenExpiryWheel expiryWheel, String... properties) {
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        for (int i = 0; i < properties.length; i += 2) {
+            props.setProperty(properties[i], properties[i + 1]);
+        }
+        ExtensionConfig config = new ExtensionConfig(props);
+        return new MyAuthenticator(config, List.of(new Issuer(config, jwksManager)), null, null, null,
+                permissionRegistry, expiryWheel, metrics, null);
+    }
+
+    //a JwksManager without keys yet, its first fetch waits for the IdP to respond
+    private static JwksManager slowJwksManager(String jwks, CountDownLatch idpResponds, AtomicInteger fetches)
+            throws Exception {
+        ResourceRetriever retriever = url -> {
+            fetches.incrementAndGet();
+            try {
+                idpResponds.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new Resource(jwks, "application/json");
+        };
+        return new JwksManager(new URL("http://idp.invalid/certs"), retriever, null, 60_000, 86_400_000);
+    }
+
+    //connects from several threads at once, returns once every connect went async
+    private List<SdkStubs.Decision> connectConcurrently(MyAuthenticator authenticator, String token, int clients)
+            throws Exception {
+        List<SdkStubs.Decision> decisions = new ArrayList<>();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            for (int i = 0; i < clients; i++) {
+                SdkStubs.Decision decision = new SdkStubs.Decision();
+                decisions.add(decision);
+                clientThreads.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    authenticator.onConnect(SdkStubs.enhancedConnect("sensor-1", "JWT", token, connection),
+                            SdkStubs.enhancedOutput(decision, new SdkStubs.DefaultPermissions()));
+                });
+            }
+            start.countDown();
+        } finally {
+            clientThreads.shutdown();
+            assertTrue(clientThreads.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        return decisions;
+    }
+
+    private SdkStubs.Decision connect(MyAuthenticator authenticator, String clientId, String token,
+                                      SdkStubs.DefaultPermissions defaultPermissions) {
+        SdkStubs.Decision decision = new SdkStubs.Decision();
+        authenticator.onConnect(SdkStubs.enhancedConnect(clientId, "JWT", token, connection),
+                SdkStubs.enhancedOutput(decision, defaultPermissions));
+        return decision;
+    }
+
+    private SdkStubs.Decision reAuth(MyAuthenticator authenticator, String clientId, String method, String token,
+                                     SdkStubs.DefaultPermissions defaultPermissions) {
+        SdkStubs.Decision decision = new SdkStubs.Decision();
+        authenticator.onReAuth(SdkStubs.reAuth(clientId, method, token, connection),
+                SdkStubs.enhancedOutput(decision, defaultPermissions));
+        return decision;
+    }
+
+    @Test
+    public void testReAuthReplacesThePermissions() throws Exception {
+        MyAuthenticator authenticator = authenticator(null);
+        SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+        assertTrue(connect(authenticator, "sensor-1", minter.mint("sensor-1", List.of("a/#"), 60),
+                defaultPermissions).isAllowed());
+        assertTrue(permissionRegistry.get("sensor-1").allowsPublish("a/x", 0));
+        long connectionId = ConnectionIds.of(connection.getConnectionAttributeStore());
+
+        assertTrue(reAuth(authenticator, "sensor-1", "JWT", minter.mint("sensor-1", List.of("b/#"), 60),
+                defaultPermissions).isAllowed());
+        PermissionRegistry.Registration registration = permissionRegistry.get("sensor-1");
+        assertFalse(registration.allowsPublish("a/x", 0));
+        assertTrue(registration.allowsPublish("b/x", 0));
+        assertEquals(1, permissionRegistry.size());
+        assertEquals(1, permissionRegistry.distinctPermissionCount());
+        //the same connection, its disconnect still removes the new registration
+        assertEquals(connectionId, ConnectionIds.of(connection.getConnectionAttributeStore()));
+        permissionRegistry.unregister("sensor-1", connectionId);
+        assertEquals(0, permissionRegistry.size());
+    }
+
+    @Test
+    public void testReAuthClearsTheDefaultPermissions() throws Exception {
+        MyAuthenticator authenticator = authenticator(null, "authorization.mode", "default-permissions");
+        SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+        //no topics, building topic permissions needs a running broker
+        assertTrue(connect(authenticator, "sensor-1", minter.mint("sensor-1", List.of(), 60),
+                defaultPermissions).isAllowed());
+        assertEquals(0, defaultPermissions.clears);
+        assertEquals(DefaultAuthorizationBehaviour.DENY, defaultPermissions.behaviour);
+
+        assertTrue(reAuth(authenticator, "sensor-1", "JWT", minter.mint("sensor-1", List.of(), 60),
+                defaultPermissions).isAllowed());
+        assertEquals(1, defaultPermissions.clears);
+        assertEquals(DefaultAuthorizationBehaviour.DENY, defaultPermissions.behaviour);
+        //not registered for the authorizer in this mode
+        assertEquals(0, permissionRegistry.size());
+    }
+
+    @Test
+    public void testWrongAuthenticationMethodIsRejected() throws Exception {
+        MyAuthenticator authenticator = authenticator(null);
+        SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+        String token = minter.mint("sensor-1", List.of("a/#"), 60);
+
+        SdkStubs.Decision decision = new SdkStubs.Decision();
+        authenticator.onConnect(SdkStubs.enhancedConnect("sensor-1", "SCRAM-SHA-256", token, connection),
+                SdkStubs.enhancedOutput(decision, defaultPermissions));
+        assertTrue(decision.isDecided());
+        assertFalse(decision.isAllowed());
+        assertEquals(DisconnectedReasonCode.BAD_AUTHENTICATION_METHOD, decision.reasonCode);
+        assertEquals(1, metrics.rejectedCount(RejectReason.BAD_AUTHENTICATION_METHOD));
+
+        assertTrue(connect(authenticator, "sensor-1", token, defaultPermissions).isAllowed());
+        decision = reAuth(authenticator, "sensor-1", "SCRAM-SHA-256", token, defaultPermissions);
+        assertFalse(decision.isAllowed());
+        assertEquals(DisconnectedReasonCode.NOT_AUTHORIZED, decision.reasonCode);
+        //the permissions of the connection are kept until the broker disconnects it
+        assertTrue(permissionRegistry.get("sensor-1").allowsPublish("a/x", 0));
+    }
+
+    @Test
+    public void testReAuthReschedulesTheExpiry() throws Exception {
+        long[] now = {System.currentTimeMillis()};
+        List<String> expired = new ArrayList<>();
+        TokenExpiryWheel expiryWheel = new TokenExpiryWheel(100, 64,
+                (clientId, connectionId) -> expired.add(clientId), () -> now[0]);
+        MyAuthenticator authenticator = authenticator(expiryWheel);
+        SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+
+        assertTrue(connect(authenticator, "sensor-1", minter.mint("sensor-1", List.of("a/#"), 60),
+                defaultPermissions).isAllowed());
+        assertTrue(reAuth(authenticator, "sensor-1", "JWT", minter.mint("sensor-1", List.of("a/#"), 3600),
+                defaultPermissions).isAllowed());
+        assertEquals(1, expiryWheel.size());
+
+        //past the first token's expiration, but not the second's
+        now[0] += 120_000;
+        expiryWheel.tick();
+        assertTrue(expired.isEmpty());
+
+        now[0] += 3_600_000;
+        expiryWheel.tick();
+        assertEquals(List.of("sensor-1"), expired);
+    }
+
+    @Test
+    public void testFailedReAuthIsAnsweredAsynchronously() throws Exception {
+        VerificationExecutor executor = VerificationExecutor.create(1, 16, false);
+        try {
+            Properties props = new Properties();
+            props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+            props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+            props.setProperty("replay.policy", "once");
+            ExtensionConfig config = new ExtensionConfig(props);
+            MyAuthenticator authenticator = new MyAuthenticator(config, List.of(new Issuer(config, jwksManager)),
+                    executor, null, null, permissionRegistry, null, metrics, null);
+            SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+            String token = minter.mint("sensor-1", List.of("a/#"), 60);
+
+            SdkStubs.Decision decision = connect(authenticator, "sensor-1", token, defaultPermissions);
+            assertTrue(decision.awaitResumed(5_000));
+            assertTrue(decision.isAllowed());
+            assertEquals(1, decision.resumed);
+
+            //a forged token is verified on the executor too, and the failure resumes the output
+            String forged = new TokenMinter(JWSAlgorithm.RS256, "key-1").mint("sensor-1", List.of("#"), 60);
+            decision = reAuth(authenticator, "sensor-1", "JWT", forged, defaultPermissions);
+            assertTrue(decision.awaitResumed(5_000));
+            assertFalse(decision.isAllowed());
+            assertEquals(1, decision.resumed);
+            assertEquals(1, metrics.rejectedCount(RejectReason.BAD_SIGNATURE));
+
+            //the same single-use token again, served by the token cache and rejected with a code a DISCONNECT can carry
+            decision = reAuth(authenticator, "sensor-1", "JWT", token, defaultPermissions);
+            assertTrue(decision.await(5_000));
+            assertFalse(decision.isAllowed());
+            assertEquals(DisconnectedReasonCode.NOT_AUTHORIZED, decision.reasonCode);
+            assertEquals(1, metrics.rejectedCount(RejectReason.REPLAYED));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEveryConnackCodeHasADisconnectCode() {
+        for (ConnackReasonCode reasonCode : ConnackReasonCode.values()) {
+            assertNotNull(AuthResult.EnhancedResult.disconnectReasonOf(reasonCode));
+        }
+        SdkStubs.Decision decision = new SdkStubs.Decision();
+        AuthResult result = AuthResult.of(SdkStubs.enhancedOutput(decision, new SdkStubs.DefaultPermissions()))
+                .async(Duration.ofSeconds(1));
+        result.fail(ConnackReasonCode.BAD_USER_NAME_OR_PASSWORD, "Bad token");
+        assertEquals(DisconnectedReasonCode.NOT_AUTHORIZED, decision.reasonCode);
+        assertEquals(1, decision.resumed);
+    }
+
+    @Test
+    public void testConcurrentConnectsShareOneVerification() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        metrics = new AuthMetrics(registry);
+        CountDownLatch idpResponds = new CountDownLatch(1);
+        AtomicInteger fetches = new AtomicInteger();
+        jwksManager = slowJwksManager(minter.jwks(), idpResponds, fetches);
+        VerificationExecutor executor = VerificationExecutor.create(4, 16, false);
+        try {
+            MyAuthenticator authenticator = new MyAuthenticator(config(), List.of(new Issuer(config(), jwksManager)),
+                    executor, null, null, permissionRegistry, null, metrics, null);
+            String token = minter.mint("sensor-1", List.of("a/#"), 60);
+
+            //the first connect verifies the token and waits for the keys, the others wait for its result
+            List<SdkStubs.Decision> decisions = connectConcurrently(authenticator, token, 8);
+            assertEquals(7, authenticator.coalescedVerifications());
+            assertEquals(1, gauge(registry, "connect.in-flight"));
+            idpResponds.countDown();
+
+            for (SdkStubs.Decision decision : decisions) {
+                assertTrue(decision.awaitResumed(5_000));
+                assertTrue(decision.isAllowed());
+            }
+            assertEquals(1, fetches.get());
+            assertEquals(1, registry.timer(MetricRegistry.name(AuthMetrics.PREFIX, "connect.signature.time")).getCount());
+            assertEquals(8, metrics.acceptedCount());
+            assertEquals(0, gauge(registry, "connect.in-flight"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedVerificationCompletesEveryWaiter() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        metrics = new AuthMetrics(registry);
+        CountDownLatch idpResponds = new CountDownLatch(1);
+        jwksManager = slowJwksManager(minter.jwks(), idpResponds, new AtomicInteger());
+        VerificationExecutor executor = VerificationExecutor.create(4, 16, false);
+        try {
+            MyAuthenticator authenticator = new MyAuthenticator(config(), List.of(new Issuer(config(), jwksManager)),
+                    executor, null, null, permissionRegistry, null, metrics, null);
+            String forged = new TokenMinter(JWSAlgorithm.RS256, "key-1").mint("sensor-1", List.of("#"), 60);
+
+            List<SdkStubs.Decision> decisions = connectConcurrently(authenticator, forged, 8);
+            idpResponds.countDown();
+
+            for (SdkStubs.Decision decision : decisions) {
+                assertTrue(decision.awaitResumed(5_000));
+                assertFalse(decision.isAllowed());
+                assertEquals(decisions.get(0).reasonCode, decision.reasonCode);
+            }
+            assertEquals(1, metrics.stageRejectedCount(TokenValidator.Stage.SIGNATURE));
+            assertEquals(8, metrics.rejectedCount(RejectReason.BAD_SIGNATURE));
+            assertEquals(0, gauge(registry, "connect.in-flight"));
+
+            //the next connect is rejected right away by the negative cache, not verified again
+            SdkStubs.Decision decision = connect(authenticator, "sensor-1", forged, new SdkStubs.DefaultPermissions());
+            assertTrue(decision.isDecided());
+            assertFalse(decision.isAllowed());
+            assertEquals(1, metrics.stageRejectedCount(TokenValidator.Stage.SIGNATURE));
+            assertEquals(9, metrics.rejectedCount(RejectReason.BAD_SIGNATURE));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullVerificationQueueAnswersServerBusy() throws Exception {
+        CountDownLatch idpResponds = new CountDownLatch(1);
+        jwksManager = slowJwksManager(minter.jwks(), idpResponds, new AtomicInteger());
+        //one thread and no queue, taken by the first verification until the IdP answers
+        VerificationExecutor executor = VerificationExecutor.create(1, 0, false);
+        try {
+            MyAuthenticator authenticator = new MyAuthenticator(config(), List.of(new Issuer(config(), jwksManager)),
+                    executor, null, null, permissionRegistry, null, metrics, null);
+            SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+            SdkStubs.Decision first = connect(authenticator, "sensor-1", minter.mint("sensor-1", List.of("a/#"), 60),
+                    defaultPermissions);
+
+            SdkStubs.Decision rejected = connect(authenticator, "sensor-2", minter.mint("sensor-2", List.of("a/#"), 60),
+                    defaultPermissions);
+            assertTrue(rejected.awaitResumed(5_000));
+            assertFalse(rejected.isAllowed());
+            assertEquals(DisconnectedReasonCode.SERVER_BUSY, rejected.reasonCode);
+            assertEquals(1, metrics.rejectedCount(RejectReason.SERVER_BUSY));
+
+            idpResponds.countDown();
+            assertTrue(first.awaitResumed(5_000));
+            assertTrue(first.isAllowed());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVerificationFinishingAfterTheTimeoutIsNotWritten() throws Exception {
+        CountDownLatch idpResponds = new CountDownLatch(1);
+        jwksManager = slowJwksManager(minter.jwks(), idpResponds, new AtomicInteger());
+        VerificationExecutor executor = VerificationExecutor.create(1, 16, false);
+        MyAuthenticator authenticator = new MyAuthenticator(config(), List.of(new Issuer(config(), jwksManager)),
+                executor, null, null, permissionRegistry, null, metrics, null);
+        SdkStubs.Decision decision = connect(authenticator, "sensor-1", minter.mint("sensor-1", List.of("a/#"), 60),
+                new SdkStubs.DefaultPermissions());
+
+        //the timeout fallback already failed the client when the IdP finally answers
+        decision.asyncStatus = Async.Status.CANCELED;
+        idpResponds.countDown();
+        executor.shutdown();
+
+        assertFalse(decision.isDecided());
+        assertEquals(0, decision.resumed);
+        assertEquals(0, permissionRegistry.size());
+        assertEquals(0, metrics.acceptedCount());
+        assertEquals(1, metrics.rejectedCount(RejectReason.SERVER_BUSY));
+    }
+
+    @Test
+    public void testRejectedClientIdDoesNotUseUpTheToken() throws Exception {
+        MyAuthenticator authenticator = authenticator(null, "replay.policy", "once");
+        SdkStubs.DefaultPermissions defaultPermissions = new SdkStubs.DefaultPermissions();
+        String token = minter.mint("sensor-1", List.of("sensors/${client_id}/#"), 60);
+
+        //a client ID that would widen the permissions is rejected before the jti is recorded
+        SdkStubs.Decision decision = connect(authenticator, "#", token, defaultPermissions);
+        assertFalse(decision.isAllowed());
+        assertEquals(1, metrics.rejectedCount(RejectReason.INVALID_CLAIMS));
+        assertEquals(0, metrics.rejectedCount(RejectReason.REPLAYED));
+
+        assertTrue(connect(authenticator, "sensor-1", token, defaultPermissions).isAllowed());
+        assertTrue(permissionRegistry.get("sensor-1").allowsPublish("sensors/sensor-1/x", 0));
+
+        assertFalse(connect(authenticator, "sensor-1", token, defaultPermissions).isAllowed());
+        assertEquals(1, metrics.rejectedCount(RejectReason.REPLAYED));
+    }
+
+    private static ExtensionConfig config() {
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        return new ExtensionConfig(props);
+    }
+
+    private static long gauge(MetricRegistry registry, String name) {
+        Gauge<?> gauge = (Gauge<?>) registry.getMetrics().get(MetricRegistry.name(AuthMetrics.PREFIX, name));
+        return ((Number) gauge.getValue()).longValue();
+    }
+}
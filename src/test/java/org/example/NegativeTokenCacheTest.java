@@ -0,0 +1,68 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NegativeTokenCacheTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final long[] now = {0};
+
+    @Test
+    public void testRejectedTokenIsRememberedWithItsReason() {
+        NegativeTokenCache cache = new NegativeTokenCache(1024, 60_000, () -> now[0]);
+        TokenDigest expired = TokenDigest.of("expired-token");
+        TokenDigest forged = TokenDigest.of("forged-token");
+
+        cache.put(expired, RejectReason.EXPIRED);
+        cache.put(forged, RejectReason.BAD_SIGNATURE);
+
+        assertEquals(RejectReason.EXPIRED, cache.get(expired));
+        assertEquals(RejectReason.BAD_SIGNATURE, cache.get(forged));
+        assertNull(cache.get(TokenDigest.of("good-token")));
+        assertEquals(2, cache.hitCount());
+    }
+
+    @Test
+    public void testTransientReasonsAreNotCached() {
+        NegativeTokenCache cache = new NegativeTokenCache(1024, 60_000, () -> now[0]);
+        TokenDigest token = TokenDigest.of("token-with-new-kid");
+
+        cache.put(token, RejectReason.NO_MATCHING_KEY);
+        cache.put(token, RejectReason.NOT_YET_VALID);
+
+        assertNull(cache.get(token));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTwoGenerations() {
+        NegativeTokenCache cache = new NegativeTokenCache(1024, 60_000, () -> now[0]);
+        TokenDigest token = TokenDigest.of("expired-token");
+        cache.put(token, RejectReason.EXPIRED);
+
+        now[0] += 31 * SECOND;
+        assertEquals(RejectReason.EXPIRED, cache.get(token));
+
+        now[0] += 31 * SECOND;
+        assertNull(cache.get(token));
+    }
+
+    @Test
+    public void testSprayedTokensDoNotGrowMemoryOrRejectGoodTokens() {
+        NegativeTokenCache cache = new NegativeTokenCache(1024, 60_000, () -> now[0]);
+        long memory = cache.memoryBytes();
+
+        for (int i = 0; i < 100_000; i++) {
+            cache.put(TokenDigest.of("forged-" + i), RejectReason.BAD_SIGNATURE);
+        }
+
+        assertEquals(memory, cache.memoryBytes());
+        for (int i = 0; i < 10_000; i++) {
+            assertNull(cache.get(TokenDigest.of("good-" + i)));
+        }
+        //the most recent ones are still there
+        assertEquals(RejectReason.BAD_SIGNATURE, cache.get(TokenDigest.of("forged-99999")));
+    }
+}
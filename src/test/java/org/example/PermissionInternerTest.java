@@ -0,0 +1,70 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PermissionInternerTest {
+
+    private static TokenPermissions permissions(List<String> allowedTopics, int maxQos) {
+        return new TokenPermissions(allowedTopics, List.of(), List.of(), maxQos);
+    }
+
+    @Test
+    public void testIdenticalPermissionsShareOneInstance() {
+        PermissionInterner interner = new PermissionInterner();
+
+        ConnectionPermissions first = interner.acquire(permissions(List.of("a/+", "b/#"), 2));
+        ConnectionPermissions second = interner.acquire(permissions(List.of("b/#", " a/+", "a/+"), 2));
+
+        assertSame(first, second);
+        assertEquals(1, interner.size());
+        assertTrue(first.allowsPublish("a/x", 1));
+    }
+
+    @Test
+    public void testDifferentPermissionsAreNotShared() {
+        PermissionInterner interner = new PermissionInterner();
+
+        ConnectionPermissions first = interner.acquire(permissions(List.of("a/+"), 2));
+        ConnectionPermissions otherTopics = interner.acquire(permissions(List.of("a/#"), 2));
+        ConnectionPermissions otherQos = interner.acquire(permissions(List.of("a/+"), 0));
+
+        assertNotSame(first, otherTopics);
+        assertNotSame(first, otherQos);
+        assertEquals(3, interner.size());
+    }
+
+    @Test
+    public void testInstanceIsDroppedWhenLastReferenceIsReleased() {
+        PermissionInterner interner = new PermissionInterner();
+
+        ConnectionPermissions first = interner.acquire(permissions(List.of("a/+"), 2));
+        ConnectionPermissions second = interner.acquire(permissions(List.of("a/+"), 2));
+        assertTrue(interner.estimatedMemoryBytes() > 0);
+
+        interner.release(first);
+        assertEquals(1, interner.size());
+
+        interner.release(second);
+        assertEquals(0, interner.size());
+        assertEquals(0, interner.estimatedMemoryBytes());
+    }
+
+    @Test
+    public void testPatternsContainingTheSeparatorAreNotShared() {
+        PermissionInterner interner = new PermissionInterner();
+
+        ConnectionPermissions joined = interner.acquire(permissions(List.of("sensors/a\nzone/#"), 2));
+        ConnectionPermissions split = interner.acquire(permissions(List.of("sensors/a", "zone/#"), 2));
+
+        assertNotSame(joined, split);
+        assertEquals(2, interner.size());
+        assertNotEquals(PermissionInterner.canonicalForm(permissions(List.of("sensors/a\nzone/#"), 2)),
+                PermissionInterner.canonicalForm(permissions(List.of("sensors/a", "zone/#"), 2)));
+        assertTrue(split.allowsPublish("zone/x", 0));
+        assertFalse(joined.allowsPublish("zone/x", 0));
+    }
+}
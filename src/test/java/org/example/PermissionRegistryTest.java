@@ -0,0 +1,85 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PermissionRegistryTest {
+
+    private static TokenPermissions permissions(List<String> allowedTopics) {
+        return new TokenPermissions(allowedTopics, List.of(), List.of(), 2);
+    }
+
+    @Test
+    public void testUnregisterOnlyRemovesItsOwnConnection() {
+        PermissionRegistry registry = new PermissionRegistry(0);
+        registry.register("sensor-1", "owner", 1, permissions(List.of("a/#")));
+
+        //the session was taken over by a new connection before the old one's disconnect arrived
+        registry.register("sensor-1", "owner", 2, permissions(List.of("b/#")));
+        registry.unregister("sensor-1", 1);
+        PermissionRegistry.Registration registration = registry.get("sensor-1");
+        assertNotNull(registration);
+        assertTrue(registration.allowsPublish("b/x", 0));
+        assertFalse(registration.allowsPublish("a/x", 0));
+
+        registry.unregister("sensor-1", 2);
+        assertNull(registry.get("sensor-1"));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.distinctPermissionCount());
+    }
+
+    @Test
+    public void testUnregisterUnknownClientIsIgnored() {
+        PermissionRegistry registry = new PermissionRegistry(0);
+        registry.unregister("sensor-1", 1);
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.estimatedMemoryBytes());
+    }
+
+    @Test
+    public void testSizeAndBytesFollowTheRegistrations() {
+        PermissionRegistry registry = new PermissionRegistry(0);
+        registry.register("sensor-1", "owner", 1, permissions(List.of("a/#")));
+        long one = registry.estimatedMemoryBytes();
+        assertTrue(one > 0);
+
+        //identical permissions are shared, only the registration itself is added
+        registry.register("sensor-2", "owner", 2, permissions(List.of("a/#")));
+        long two = registry.estimatedMemoryBytes();
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.distinctPermissionCount());
+        assertTrue(two > one);
+        assertTrue(two - one < one);
+
+        registry.register("sensor-3", "owner", 3, permissions(List.of("b/#")));
+        assertEquals(3, registry.size());
+        assertEquals(2, registry.distinctPermissionCount());
+
+        //replacing a registration releases the previous one
+        registry.register("sensor-3", "owner", 4, permissions(List.of("a/#")));
+        assertEquals(3, registry.size());
+        assertEquals(1, registry.distinctPermissionCount());
+
+        registry.unregister("sensor-1", 1);
+        registry.unregister("sensor-2", 2);
+        registry.unregister("sensor-3", 4);
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.distinctPermissionCount());
+        assertEquals(0, registry.estimatedMemoryBytes());
+    }
+
+    @Test
+    public void testPublishDecisionCacheIsCounted() {
+        PermissionRegistry uncached = new PermissionRegistry(0);
+        PermissionRegistry cached = new PermissionRegistry(8);
+        uncached.register("sensor-1", "owner", 1, permissions(List.of("a/#")));
+        cached.register("sensor-1", "owner", 1, permissions(List.of("a/#")));
+
+        assertTrue(cached.estimatedMemoryBytes() > uncached.estimatedMemoryBytes());
+        assertTrue(cached.get("sensor-1").allowsPublish("a/x", 0));
+        assertFalse(cached.get("sensor-1").allowsPublish("b/x", 0));
+    }
+}
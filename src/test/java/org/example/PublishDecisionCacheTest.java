@@ -0,0 +1,50 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublishDecisionCacheTest {
+
+    private final TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("sensors/+/telemetry"));
+
+    @Test
+    public void testRepeatedTopicIsServedFromCache() {
+        PublishDecisionCache.Stats stats = new PublishDecisionCache.Stats();
+        PublishDecisionCache cache = new PublishDecisionCache(8, stats);
+
+        assertTrue(cache.matchesTopic("sensors/1/telemetry", trie));
+        assertTrue(cache.matchesTopic("sensors/1/telemetry", trie));
+        assertFalse(cache.matchesTopic("sensors/1/cmd", trie));
+        assertFalse(cache.matchesTopic("sensors/1/cmd", trie));
+
+        assertEquals(2, stats.hitCount());
+        assertEquals(2, stats.missCount());
+    }
+
+    @Test
+    public void testCollidingTopicsStillGetCorrectDecisions() {
+        PublishDecisionCache.Stats stats = new PublishDecisionCache.Stats();
+        PublishDecisionCache cache = new PublishDecisionCache(1, stats);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(cache.matchesTopic("sensors/" + i + "/telemetry", trie));
+            assertFalse(cache.matchesTopic("sensors/" + i + "/cmd", trie));
+        }
+    }
+
+    @Test
+    public void testInvalidateForgetsDecisions() {
+        PublishDecisionCache.Stats stats = new PublishDecisionCache.Stats();
+        PublishDecisionCache cache = new PublishDecisionCache(8, stats);
+
+        cache.matchesTopic("sensors/1/telemetry", trie);
+        cache.invalidate();
+        cache.matchesTopic("sensors/1/telemetry", trie);
+
+        assertEquals(0, stats.hitCount());
+        assertEquals(2, stats.missCount());
+    }
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RandomReplacementReservoirTest {
+
+    @Test
+    public void testEmptySlotsAreNotPartOfTheSnapshot() {
+        RandomReplacementReservoir reservoir = new RandomReplacementReservoir(64);
+        assertEquals(0, reservoir.getSnapshot().size());
+
+        reservoir.update(42);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertTrue(snapshot.size() >= 1);
+        assertEquals(42, snapshot.getMin());
+        assertEquals(42, snapshot.getMax());
+    }
+
+    @Test
+    public void testOldSamplesAreReplacedByRecentOnes() {
+        RandomReplacementReservoir reservoir = new RandomReplacementReservoir(64);
+        for (int i = 0; i < 10_000; i++) {
+            reservoir.update(1_000_000);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            reservoir.update(10);
+        }
+        //each old sample survives 10000 replacements among 64 slots with a chance of about e^-156
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(64, snapshot.size());
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    public void testSizeIsRoundedUpToAPowerOfTwo() {
+        RandomReplacementReservoir reservoir = new RandomReplacementReservoir(100);
+        for (int i = 0; i < 100_000; i++) {
+            reservoir.update(i);
+        }
+        assertEquals(128, reservoir.size());
+    }
+}
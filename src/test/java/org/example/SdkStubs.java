@@ -0,0 +1,312 @@
+package org.example;
+
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extension.sdk.api.auth.parameter.DefaultAuthorizationBehaviour;
+import com.hivemq.extension.sdk.api.auth.parameter.EnhancedAuthConnectInput;
+import com.hivemq.extension.sdk.api.auth.parameter.EnhancedAuthInput;
+import com.hivemq.extension.sdk.api.auth.parameter.EnhancedAuthOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.ModifiableDefaultPermissions;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerInput;
+import com.hivemq.extension.sdk.api.auth.parameter.PublishAuthorizerOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthInput;
+import com.hivemq.extension.sdk.api.auth.parameter.SimpleAuthOutput;
+import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerInput;
+import com.hivemq.extension.sdk.api.auth.parameter.SubscriptionAuthorizerOutput;
+import com.hivemq.extension.sdk.api.client.parameter.ClientInformation;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionAttributeStore;
+import com.hivemq.extension.sdk.api.client.parameter.ConnectionInformation;
+import com.hivemq.extension.sdk.api.packets.auth.AuthPacket;
+import com.hivemq.extension.sdk.api.packets.connect.ConnectPacket;
+import com.hivemq.extension.sdk.api.packets.general.MqttVersion;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.packets.subscribe.Subscription;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Minimal stand-ins for the SDK inputs and outputs, so the authenticator and authorizer can be driven without a
+ * broker. Only the methods the extension calls are answered, everything else returns null.
+ */
+final class SdkStubs {
+
+    private SdkStubs() {
+    }
+
+    //answers are returned as they are, or called if they are a Supplier
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(SdkStubs.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return type.getSimpleName() + answers.keySet();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    Object answer = answers.get(method.getName());
+                    return answer instanceof Supplier ? ((Supplier<?>) answer).get() : answer;
+            }
+        });
+    }
+
+    //the result an output was completed with
+    static final class Decision {
+        private volatile Boolean allowed;
+        //reason code of a failed enhanced authentication, null if none was given
+        volatile Object reasonCode;
+        //async outputs resumed
+        volatile int resumed;
+        //CANCELED acts as if the timeout of an async output fired
+        volatile Async.Status asyncStatus = Async.Status.RUNNING;
+
+        boolean isAllowed() {
+            return Boolean.TRUE.equals(allowed);
+        }
+
+        boolean isDecided() {
+            return allowed != null;
+        }
+
+        void reset() {
+            allowed = null;
+            reasonCode = null;
+        }
+
+        private void decide(boolean allowed) {
+            this.allowed = allowed;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        private void resume() {
+            synchronized (this) {
+                resumed++;
+                notifyAll();
+            }
+        }
+
+        //for outputs completed asynchronously, false if nothing was decided in time
+        boolean await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (this) {
+                long remaining;
+                while (allowed == null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+            }
+            return allowed != null;
+        }
+
+        //an async output is decided before it is resumed, false if it wasn't resumed in time
+        boolean awaitResumed(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (this) {
+                long remaining;
+                while (resumed == 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+            }
+            return resumed != 0;
+        }
+    }
+
+    static ConnectionInformation connection(InetAddress address) {
+        Map<String, ByteBuffer> attributes = new ConcurrentHashMap<>();
+        ConnectionAttributeStore store = (ConnectionAttributeStore) Proxy.newProxyInstance(SdkStubs.class.getClassLoader(),
+                new Class<?>[]{ConnectionAttributeStore.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "put":
+                            attributes.put((String) args[0], ((ByteBuffer) args[1]).asReadOnlyBuffer());
+                            return null;
+                        case "get":
+                            return Optional.ofNullable(attributes.get(args[0])).map(ByteBuffer::duplicate);
+                        case "remove":
+                            return Optional.ofNullable(attributes.remove(args[0]));
+                        default:
+                            return null;
+                    }
+                });
+        return stub(ConnectionInformation.class, Map.of(
+                "getInetAddress", Optional.of(address),
+                "getConnectionAttributeStore", store,
+                "getMqttVersion", MqttVersion.V_5));
+    }
+
+    static ClientInformation client(String clientId) {
+        return stub(ClientInformation.class, Map.of("getClientId", clientId));
+    }
+
+    /**
+     * @param token read on every call, so one input can connect with changing tokens
+     */
+    static SimpleAuthInput connect(String clientId, Supplier<String> token, ConnectionInformation connection) {
+        ConnectPacket packet = stub(ConnectPacket.class, Map.of(
+                "getClientId", clientId,
+                "getPassword", (Supplier<Optional<ByteBuffer>>) () ->
+                        Optional.of(ByteBuffer.wrap(token.get().getBytes(StandardCharsets.UTF_8))),
+                "getAuthenticationMethod", Optional.empty(),
+                "getAuthenticationData", Optional.empty()));
+        return stub(SimpleAuthInput.class, Map.of(
+                "getConnectPacket", packet,
+                "getClientInformation", client(clientId),
+                "getConnectionInformation", connection));
+    }
+
+    //going async hands out the same output, the decision is whatever it is completed with
+    static SimpleAuthOutput authOutput(Decision decision) {
+        Map<String, Object> answers = new ConcurrentHashMap<>();
+        answers.put("authenticateSuccessfully", (Supplier<Object>) () -> {
+            decision.decide(true);
+            return null;
+        });
+        answers.put("failAuthentication", (Supplier<Object>) () -> {
+            decision.decide(false);
+            return null;
+        });
+        SimpleAuthOutput output = stub(SimpleAuthOutput.class, answers);
+        Async<?> async = stub(Async.class, Map.of("getOutput", output,
+                "getStatus", (Supplier<Object>) () -> decision.asyncStatus));
+        answers.put("async", async);
+        return output;
+    }
+
+    static EnhancedAuthConnectInput enhancedConnect(String clientId, String authenticationMethod, String token,
+                                                    ConnectionInformation connection) {
+        ConnectPacket packet = stub(ConnectPacket.class, Map.of(
+                "getClientId", clientId,
+                "getPassword", Optional.empty(),
+                "getAuthenticationMethod", Optional.ofNullable(authenticationMethod),
+                "getAuthenticationData", (Supplier<Optional<ByteBuffer>>) () ->
+                        Optional.of(ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8)))));
+        return stub(EnhancedAuthConnectInput.class, Map.of(
+                "getConnectPacket", packet,
+                "getClientInformation", client(clientId),
+                "getConnectionInformation", connection));
+    }
+
+    //an AUTH packet with a new token on an open connection
+    static EnhancedAuthInput reAuth(String clientId, String authenticationMethod, String token,
+                                    ConnectionInformation connection) {
+        AuthPacket packet = stub(AuthPacket.class, Map.of(
+                "getAuthenticationMethod", authenticationMethod,
+                "getAuthenticationData", (Supplier<Optional<ByteBuffer>>) () ->
+                        Optional.of(ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8)))));
+        return stub(EnhancedAuthInput.class, Map.of(
+                "getAuthPacket", packet,
+                "isReAuthentication", true,
+                "getClientInformation", client(clientId),
+                "getConnectionInformation", connection));
+    }
+
+    //going async hands out the same output, resuming it is counted
+    static EnhancedAuthOutput enhancedOutput(Decision decision, DefaultPermissions defaultPermissions) {
+        EnhancedAuthOutput[] output = new EnhancedAuthOutput[1];
+        Async<?> async = stub(Async.class, Map.of(
+                "getOutput", (Supplier<Object>) () -> output[0],
+                "getStatus", (Supplier<Object>) () -> decision.asyncStatus,
+                "resume", (Supplier<Object>) () -> {
+                    decision.resume();
+                    return null;
+                }));
+        output[0] = (EnhancedAuthOutput) Proxy.newProxyInstance(SdkStubs.class.getClassLoader(),
+                new Class<?>[]{EnhancedAuthOutput.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "authenticateSuccessfully":
+                            decision.decide(true);
+                            return null;
+                        case "failAuthentication":
+                            decision.reasonCode = args != null && args.length == 2 ? args[0] : null;
+                            decision.decide(false);
+                            return null;
+                        case "getDefaultPermissions":
+                            return defaultPermissions.proxy;
+                        case "async":
+                            return async;
+                        default:
+                            return null;
+                    }
+                });
+        return output[0];
+    }
+
+    //default permissions of a connection, as far as the authenticator changes them
+    static final class DefaultPermissions {
+        final List<Object> permissions = new ArrayList<>();
+        volatile int clears;
+        volatile DefaultAuthorizationBehaviour behaviour;
+        final ModifiableDefaultPermissions proxy = (ModifiableDefaultPermissions) Proxy.newProxyInstance(
+                SdkStubs.class.getClassLoader(), new Class<?>[]{ModifiableDefaultPermissions.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "add":
+                            permissions.add(args[0]);
+                            return null;
+                        case "addAll":
+                            permissions.addAll((Collection<?>) args[0]);
+                            return null;
+                        case "clear":
+                            permissions.clear();
+                            clears++;
+                            return null;
+                        case "setDefaultBehaviour":
+                            behaviour = (DefaultAuthorizationBehaviour) args[0];
+                            return null;
+                        case "getDefaultBehaviour":
+                            return behaviour;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    static PublishAuthorizerInput publish(String clientId, Supplier<String> topic, Qos qos) {
+        PublishPacket packet = stub(PublishPacket.class, Map.of("getTopic", topic, "getQos", qos, "getRetain", false));
+        return stub(PublishAuthorizerInput.class, Map.of(
+                "getPublishPacket", packet,
+                "getClientInformation", client(clientId)));
+    }
+
+    static PublishAuthorizerOutput publishOutput(Decision decision) {
+        return stub(PublishAuthorizerOutput.class, Map.of(
+                "authorizeSuccessfully", (Supplier<Object>) () -> {
+                    decision.decide(true);
+                    return null;
+                },
+                "failAuthorization", (Supplier<Object>) () -> {
+                    decision.decide(false);
+                    return null;
+                }));
+    }
+
+    static SubscriptionAuthorizerInput subscribe(String clientId, Supplier<String> topicFilter, Qos qos) {
+        Subscription subscription = stub(Subscription.class, Map.of("getTopicFilter", topicFilter, "getQos", qos));
+        return stub(SubscriptionAuthorizerInput.class, Map.of(
+                "getSubscription", subscription,
+                "getClientInformation", client(clientId)));
+    }
+
+    static SubscriptionAuthorizerOutput subscribeOutput(Decision decision) {
+        return stub(SubscriptionAuthorizerOutput.class, Map.of(
+                "authorizeSuccessfully", (Supplier<Object>) () -> {
+                    decision.decide(true);
+                    return null;
+                },
+                "failAuthorization", (Supplier<Object>) () -> {
+                    decision.decide(false);
+                    return null;
+                }));
+    }
+}
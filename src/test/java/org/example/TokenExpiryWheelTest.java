@@ -0,0 +1,123 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenExpiryWheelTest {
+
+    private final long[] now = {1_000_000L};
+    private final List<String> expired = new ArrayList<>();
+
+    private TokenExpiryWheel wheel(int wheelSize) {
+        return new TokenExpiryWheel(100, wheelSize, (clientId, connectionId) -> expired.add(clientId + "#" + connectionId),
+                () -> now[0]);
+    }
+
+    @Test
+    public void testFiresOnceTheTokenExpired() {
+        TokenExpiryWheel wheel = wheel(64);
+        wheel.schedule("sensor-1", 1, now[0] + 1_000);
+        wheel.schedule("sensor-2", 2, now[0] + 2_000);
+
+        now[0] += 900;
+        wheel.tick();
+        assertTrue(expired.isEmpty());
+
+        now[0] += 100;
+        wheel.tick();
+        assertEquals(List.of("sensor-1#1"), expired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void testExpirationsBeyondOneRevolutionWaitForTheirRevolution() {
+        TokenExpiryWheel wheel = wheel(8);
+        //8 slots of 100 ms, so this slot is passed three times before the deadline
+        wheel.schedule("sensor-1", 1, now[0] + 3_050);
+
+        for (int i = 0; i < 30; i++) {
+            now[0] += 100;
+            wheel.tick();
+        }
+        assertTrue(expired.isEmpty());
+
+        now[0] += 100;
+        wheel.tick();
+        assertEquals(List.of("sensor-1#1"), expired);
+    }
+
+    @Test
+    public void testCancelOnlyRemovesTheEntryOfThatConnection() {
+        TokenExpiryWheel wheel = wheel(64);
+        wheel.schedule("sensor-1", 1, now[0] + 1_000);
+        //reconnect with a new token before the old connection's disconnect event
+        wheel.schedule("sensor-1", 2, now[0] + 5_000);
+        wheel.cancel("sensor-1", 1);
+
+        now[0] += 1_000;
+        wheel.tick();
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.size());
+
+        wheel.cancel("sensor-1", 2);
+        now[0] += 5_000;
+        wheel.tick();
+        assertTrue(expired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExpiryRacingAReconnectLeavesTheNewConnection() {
+        TokenExpiryWheel[] holder = new TokenExpiryWheel[1];
+        TokenExpiryWheel wheel = new TokenExpiryWheel(100, 64, (clientId, connectionId) -> {
+            expired.add(clientId + "#" + connectionId);
+            if (clientId.equals("sensor-1")) {
+                //while the listener runs outside the lock, sensor-2 reconnects and sensor-3 re-authenticates,
+                //both already taken off the wheel by this tick
+                holder[0].schedule("sensor-2", 4, now[0] + 60_000);
+                holder[0].schedule("sensor-3", 3, now[0] + 60_000);
+            }
+        }, () -> now[0]);
+        holder[0] = wheel;
+        wheel.schedule("sensor-3", 3, now[0] + 1_000);
+        wheel.schedule("sensor-2", 2, now[0] + 1_000);
+        wheel.schedule("sensor-1", 1, now[0] + 1_000);
+
+        now[0] += 1_000;
+        wheel.tick();
+        assertEquals(List.of("sensor-1#1"), expired);
+        assertEquals(2, wheel.size());
+
+        now[0] += 60_000;
+        wheel.tick();
+        assertEquals(List.of("sensor-1#1", "sensor-3#3", "sensor-2#4"), expired);
+    }
+
+    @Test
+    public void testLongPauseFiresEverythingOverdue() {
+        TokenExpiryWheel wheel = wheel(16);
+        for (int i = 0; i < 1_000; i++) {
+            wheel.schedule("sensor-" + i, i, now[0] + 10L * i);
+        }
+        wheel.schedule("later", 1_000, now[0] + 60_000);
+
+        now[0] += 20_000;
+        wheel.tick();
+        assertEquals(1_000, expired.size());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void testAlreadyExpiredTokenFiresWithTheNextTick() {
+        TokenExpiryWheel wheel = wheel(64);
+        wheel.schedule("sensor-1", 1, now[0] - 5_000);
+
+        now[0] += 100;
+        wheel.tick();
+        assertEquals(List.of("sensor-1#1"), expired);
+    }
+}
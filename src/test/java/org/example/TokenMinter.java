@@ -0,0 +1,149 @@
+package org.example;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Signs tokens the way the IdP does, with a locally generated key, for tests and benchmarks without an IdP.
+ */
+final class TokenMinter {
+
+    static final String ISSUER = "https://idp.example.org/realms/test";
+    static final String AUDIENCE = "hivemq";
+
+    private final JWSAlgorithm algorithm;
+    private final JWK key;
+    private final JWSSigner signer;
+
+    TokenMinter(JWSAlgorithm algorithm, String keyId) throws JOSEException {
+        this.algorithm = algorithm;
+        if (JWSAlgorithm.Family.RSA.contains(algorithm)) {
+            RSAKey rsaKey = new RSAKeyGenerator(2048).keyID(keyId).algorithm(algorithm).generate();
+            this.key = rsaKey;
+            this.signer = new RSASSASigner(rsaKey);
+        } else if (JWSAlgorithm.ES256.equals(algorithm)) {
+            ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyID(keyId).algorithm(algorithm).generate();
+            this.key = ecKey;
+            this.signer = new ECDSASigner(ecKey);
+        } else if (JWSAlgorithm.EdDSA.equals(algorithm) || JWSAlgorithm.Ed25519.equals(algorithm)) {
+            //Nimbus' Ed25519 generator and signer need Tink, the JDK has Ed25519 built in
+            KeyPair keyPair;
+            try {
+                keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+            } catch (GeneralSecurityException e) {
+                throw new JOSEException(e.getMessage(), e);
+            }
+            byte[] encoded = keyPair.getPublic().getEncoded();
+            //the raw key follows the 12 bytes of the X.509 header
+            this.key = new OctetKeyPair.Builder(Curve.Ed25519,
+                    Base64URL.encode(Arrays.copyOfRange(encoded, 12, encoded.length)))
+                    .keyID(keyId).algorithm(algorithm).build();
+            this.signer = new Ed25519Signer(keyPair.getPrivate());
+        } else {
+            throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+        }
+    }
+
+    //the public key set to serve as JWKS
+    String jwks() {
+        return new JWKSet(key.toPublicJWK()).toString(true);
+    }
+
+    JWK publicKey() {
+        return key.toPublicJWK();
+    }
+
+    String keyId() {
+        return key.getKeyID();
+    }
+
+    //a token accepted with the default claim checks, valid for the given number of seconds
+    String mint(String subject, List<String> allowedTopics, long lifetimeSeconds) throws JOSEException {
+        return mint(claims(subject, allowedTopics, lifetimeSeconds).build());
+    }
+
+    JWTClaimsSet.Builder claims(String subject, List<String> allowedTopics, long lifetimeSeconds) {
+        long now = System.currentTimeMillis();
+        return new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .audience(AUDIENCE)
+                .subject(subject)
+                .jwtID(UUID.randomUUID().toString())
+                .issueTime(new Date(now))
+                .expirationTime(new Date(now + lifetimeSeconds * 1000))
+                .claim(TokenPermissions.CLAIM_ALLOWED_TOPICS, allowedTopics);
+    }
+
+    String mint(JWTClaimsSet claims) throws JOSEException {
+        return mint(claims, key.getKeyID());
+    }
+
+    //signed with this key but naming another one, e.g. a kid the IdP never published
+    String mint(JWTClaimsSet claims, String keyId) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm)
+                .type(JOSEObjectType.JWT)
+                .keyID(keyId)
+                .build(), claims);
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+
+    private static final class Ed25519Signer implements JWSSigner {
+        private final PrivateKey privateKey;
+        private final JCAContext jcaContext = new JCAContext();
+
+        Ed25519Signer(PrivateKey privateKey) {
+            this.privateKey = privateKey;
+        }
+
+        @Override
+        public Base64URL sign(JWSHeader header, byte[] signingInput) throws JOSEException {
+            try {
+                Signature signature = Signature.getInstance("Ed25519");
+                signature.initSign(privateKey);
+                signature.update(signingInput);
+                return Base64URL.encode(signature.sign());
+            } catch (GeneralSecurityException e) {
+                throw new JOSEException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+            return Set.of(JWSAlgorithm.EdDSA, JWSAlgorithm.Ed25519);
+        }
+
+        @Override
+        public JCAContext getJCAContext() {
+            return jcaContext;
+        }
+    }
+}
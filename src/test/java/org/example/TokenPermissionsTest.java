@@ -0,0 +1,71 @@
+package org.example;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.proc.BadJWTException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenPermissionsTest {
+
+    private static JWTClaimsSet claims(List<String> allowedTopics) {
+        return new JWTClaimsSet.Builder()
+                .subject("device-owner")
+                .claim("tenant", "plant-a")
+                .claim("line", 7)
+                .claim(TokenPermissions.CLAIM_ALLOWED_TOPICS, allowedTopics)
+                .build();
+    }
+
+    private static TokenPermissions resolved(String clientId, List<String> allowedTopics) throws Exception {
+        JWTClaimsSet claims = claims(allowedTopics);
+        return TokenPermissions.fromClaims(claims).resolve(clientId, claims);
+    }
+
+    @Test
+    public void testPlaceholdersAreResolvedPerConnection() throws Exception {
+        List<String> templates = List.of("sensors/${client_id}/cmd/#", "owners/${sub}/${tenant}/line-${line}");
+        assertEquals(List.of("sensors/sensor-1/cmd/#", "owners/device-owner/plant-a/line-7"),
+                resolved("sensor-1", templates).publishPatterns());
+
+        ConnectionPermissions compiled = ConnectionPermissions.compile(resolved("sensor-2", templates));
+        assertTrue(compiled.allowsPublish("sensors/sensor-2/cmd/reboot", 1));
+        assertFalse(compiled.allowsPublish("sensors/sensor-1/cmd/reboot", 1));
+    }
+
+    @Test
+    public void testPermissionsWithoutPlaceholdersAreKept() throws Exception {
+        JWTClaimsSet claims = claims(List.of("a/+", "b/#"));
+        TokenPermissions permissions = TokenPermissions.fromClaims(claims);
+        assertSame(permissions, permissions.resolve("sensor-1", claims));
+    }
+
+    @Test
+    public void testValuesCantWidenThePermissions() {
+        List<String> templates = List.of("sensors/${client_id}/#");
+        assertThrows(BadJWTException.class, () -> resolved("a/#", templates));
+        assertThrows(BadJWTException.class, () -> resolved("+", templates));
+        assertThrows(BadJWTException.class, () -> resolved("", templates));
+        assertThrows(BadJWTException.class, () -> resolved("sensor-1", List.of("sensors/${missing}/#")));
+        assertThrows(BadJWTException.class, () -> resolved("a\nzone", templates));
+        assertThrows(BadJWTException.class, () -> resolved("sensor\u0000", templates));
+        assertThrows(BadJWTException.class, () -> resolved("sensor\u007f", templates));
+        JWTClaimsSet newlineClaim = new JWTClaimsSet.Builder()
+                .claim("tenant", "plant-a\nzone")
+                .claim(TokenPermissions.CLAIM_ALLOWED_TOPICS, List.of("tenants/${tenant}/#"))
+                .build();
+        assertThrows(BadJWTException.class,
+                () -> TokenPermissions.fromClaims(newlineClaim).resolve("sensor-1", newlineClaim));
+        assertEquals(RejectReason.INVALID_CLAIMS,
+                RejectReason.of(assertThrows(BadJWTException.class, () -> resolved("#", templates))));
+    }
+
+    @Test
+    public void testUnterminatedPlaceholderIsKeptLiterally() throws Exception {
+        TokenPermissions permissions = resolved("sensor-1", List.of("sensors/${client_id/#"));
+        assertEquals(List.of("sensors/${client_id/#"), permissions.publishPatterns());
+        assertFalse(ConnectionPermissions.compile(permissions).allowsPublish("sensors/sensor-1/x", 0));
+    }
+}
@@ -0,0 +1,242 @@
+package org.example;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jwt.JWTClaimsSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenValidatorTest {
+
+    private TokenMinter minter;
+    private JwksManager jwksManager;
+    private MetricRegistry registry;
+    private AuthMetrics metrics;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        minter = new TokenMinter(JWSAlgorithm.RS256, "key-1");
+        jwksManager = serving(minter);
+        registry = new MetricRegistry();
+        metrics = new AuthMetrics(registry);
+    }
+
+    private TokenValidator validator(String... properties) {
+        Properties props = new Properties();
+        props.setProperty("jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        for (int i = 0; i < properties.length; i += 2) {
+            props.setProperty(properties[i], properties[i + 1]);
+        }
+        ExtensionConfig config = new ExtensionConfig(props);
+        return new TokenValidator(config, List.of(new Issuer(config, jwksManager)), metrics);
+    }
+
+    private static JwksManager serving(TokenMinter minter) throws Exception {
+        String jwks = minter.jwks();
+        JwksManager jwksManager = new JwksManager(new URL("http://idp.invalid/certs"),
+                url -> new Resource(jwks, "application/json"), null, 60_000, 86_400_000);
+        jwksManager.refresh();
+        return jwksManager;
+    }
+
+    private RejectReason rejection(TokenValidator validator, String token, TokenValidator.Stage stage) {
+        long before = metrics.stageRejectedCount(stage);
+        Exception e = assertThrows(Exception.class, () -> validator.validate(token));
+        assertEquals(before + 1, metrics.stageRejectedCount(stage));
+        return RejectReason.of(e);
+    }
+
+    private long signaturesVerified() {
+        return ((Timer) registry.getMetrics().get(AuthMetrics.PREFIX + ".connect.signature.time")).getCount();
+    }
+
+    @Test
+    public void testValidTokenPassesEveryStage() throws Exception {
+        JWTClaimsSet claims = validator().validate(minter.mint("sensor-1", List.of("sensors/1/#"), 60));
+        assertEquals("sensor-1", claims.getSubject());
+        assertEquals(1, signaturesVerified());
+        for (TokenValidator.Stage stage : TokenValidator.Stage.values()) {
+            assertEquals(0, metrics.stageRejectedCount(stage));
+        }
+    }
+
+    @Test
+    public void testGarbageIsRejectedByStructure() throws Exception {
+        TokenValidator validator = validator("jwt.max-length", "2048");
+        assertEquals(RejectReason.MALFORMED, rejection(validator, "not a token", TokenValidator.Stage.STRUCTURE));
+        assertEquals(RejectReason.MALFORMED, rejection(validator, "a.b", TokenValidator.Stage.STRUCTURE));
+        assertEquals(RejectReason.MALFORMED, rejection(validator, "a..c", TokenValidator.Stage.STRUCTURE));
+        assertEquals(RejectReason.MALFORMED, rejection(validator, "a.b.", TokenValidator.Stage.STRUCTURE));
+        assertEquals(RejectReason.MALFORMED, rejection(validator, "a.b.c.d.e", TokenValidator.Stage.STRUCTURE));
+        //well-formed, but longer than accepted
+        String large = minter.mint("sensor-1", List.of("x".repeat(2048)), 60);
+        assertEquals(RejectReason.MALFORMED, rejection(validator, large, TokenValidator.Stage.STRUCTURE));
+        assertEquals(0, signaturesVerified());
+    }
+
+    @Test
+    public void testUnacceptedHeaderIsRejectedBeforeTheSignature() throws Exception {
+        JWTClaimsSet claims = minter.claims("sensor-1", List.of("a/b"), 60).build();
+        String otherKeyId = minter.mint(claims, "key-2");
+        TokenValidator validator = validator("jwt.allowed-kids", "key-1, key-3");
+        assertNotNull(validator.validate(minter.mint(claims)));
+        assertEquals(RejectReason.INVALID_HEADER, rejection(validator, otherKeyId, TokenValidator.Stage.HEADER));
+
+        TokenMinter es256 = new TokenMinter(JWSAlgorithm.ES256, "key-1");
+        assertEquals(RejectReason.INVALID_HEADER,
+                rejection(validator(), es256.mint(claims), TokenValidator.Stage.HEADER));
+        assertEquals(RejectReason.INVALID_HEADER,
+                rejection(validator(), minter.mint(claims, "k".repeat(300)), TokenValidator.Stage.HEADER));
+        assertEquals(1, signaturesVerified());
+    }
+
+    @Test
+    public void testExpiredOrForeignTokenIsRejectedBeforeTheSignature() throws Exception {
+        TokenValidator validator = validator("jwt.clock-skew-s", "5");
+        long now = System.currentTimeMillis();
+        String expired = minter.mint(minter.claims("sensor-1", List.of("a/b"), 60)
+                .issueTime(new Date(now - 120_000))
+                .expirationTime(new Date(now - 10_000))
+                .build());
+        assertEquals(RejectReason.EXPIRED, rejection(validator, expired, TokenValidator.Stage.PRECHECK));
+
+        String foreign = minter.mint(minter.claims("sensor-1", List.of("a/b"), 60).audience("other").build());
+        assertEquals(RejectReason.INVALID_CLAIMS, rejection(validator, foreign, TokenValidator.Stage.PRECHECK));
+
+        String noJwtId = minter.mint(minter.claims("sensor-1", List.of("a/b"), 60).jwtID(null).build());
+        assertEquals(RejectReason.INVALID_CLAIMS, rejection(validator, noJwtId, TokenValidator.Stage.PRECHECK));
+        assertEquals(0, signaturesVerified());
+    }
+
+    @Test
+    public void testEarlyTokenIsRejectedBeforeTheSignature() throws Exception {
+        TokenValidator validator = validator("jwt.clock-skew-s", "5");
+        long now = System.currentTimeMillis();
+        String early = minter.mint(minter.claims("sensor-1", List.of("a/b"), 60)
+                .notBeforeTime(new Date(now + 60_000))
+                .build());
+        assertEquals(RejectReason.NOT_YET_VALID, rejection(validator, early, TokenValidator.Stage.PRECHECK));
+        assertEquals(0, signaturesVerified());
+
+        //within the clock skew
+        String almost = minter.mint(minter.claims("sensor-1", List.of("a/b"), 60)
+                .notBeforeTime(new Date(now + 2_000))
+                .build());
+        assertNotNull(validator.validate(almost));
+    }
+
+    @Test
+    public void testHeaderIsCheckedBeforeThePayloadIsParsed() throws Exception {
+        TokenMinter es256 = new TokenMinter(JWSAlgorithm.ES256, "key-1");
+        String unknown = es256.mint(es256.claims("sensor-1", List.of(), 60).issuer("https://evil.example").build());
+        assertEquals(RejectReason.INVALID_HEADER, rejection(validator(), unknown, TokenValidator.Stage.HEADER));
+
+        //a payload that is not even JSON is never looked at
+        String[] parts = unknown.split("\\.");
+        String garbage = parts[0] + "." + Base64URL.encode("not json") + "." + parts[2];
+        assertEquals(RejectReason.INVALID_HEADER, rejection(validator(), garbage, TokenValidator.Stage.HEADER));
+    }
+
+    @Test
+    public void testForgedTokenIsRejectedBySignature() throws Exception {
+        TokenMinter attacker = new TokenMinter(JWSAlgorithm.RS256, "key-1");
+        String forged = attacker.mint("sensor-1", List.of("#"), 60);
+        assertEquals(RejectReason.BAD_SIGNATURE, rejection(validator(), forged, TokenValidator.Stage.SIGNATURE));
+
+        JWTClaimsSet claims = minter.claims("sensor-1", List.of("a/b"), 60).build();
+        assertEquals(RejectReason.NO_MATCHING_KEY,
+                rejection(validator(), minter.mint(claims, "unpublished"), TokenValidator.Stage.SIGNATURE));
+    }
+
+    @Test
+    public void testLongLivedTokenIsRejectedByPolicy() throws Exception {
+        TokenValidator validator = validator("jwt.max-lifetime-s", "3600");
+        assertNotNull(validator.validate(minter.mint("sensor-1", List.of("a/b"), 3600)));
+        String longLived = minter.mint("sensor-1", List.of("a/b"), 7200);
+        assertEquals(RejectReason.INVALID_CLAIMS, rejection(validator, longLived, TokenValidator.Stage.POLICY));
+        assertEquals(2, signaturesVerified());
+    }
+
+    @Test
+    public void testTokensAreRoutedToTheirIssuer() throws Exception {
+        TokenMinter otherRealm = new TokenMinter(JWSAlgorithm.RS256, "key-1");
+        Properties props = new Properties();
+        props.setProperty("issuers", "realm-a, realm-b");
+        props.setProperty("issuer.realm-a.jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("issuer.realm-a.jwks.url", "http://idp.invalid/a");
+        props.setProperty("issuer.realm-b.jwt.issuer", "https://idp.example.org/realms/other");
+        props.setProperty("issuer.realm-b.jwks.url", "http://idp.invalid/b");
+        props.setProperty("issuer.realm-b.jwt.claim.allowed-topics", "mqtt_topics");
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        ExtensionConfig config = new ExtensionConfig(props);
+        List<ExtensionConfig> issuerConfigs = config.issuers();
+        assertEquals(2, issuerConfigs.size());
+        Issuer realmA = new Issuer(issuerConfigs.get(0), jwksManager);
+        Issuer realmB = new Issuer(issuerConfigs.get(1), serving(otherRealm));
+        assertEquals("realm-b", realmB.name());
+        assertEquals(TokenMinter.AUDIENCE, realmB.audience());
+        TokenValidator validator = new TokenValidator(config, List.of(realmA, realmB), metrics);
+
+        assertNotNull(validator.validate(minter.mint("sensor-1", List.of("a/b"), 60)));
+        JWTClaimsSet otherClaims = otherRealm.claims("sensor-2", List.of(), 60)
+                .issuer(realmB.issuer())
+                .claim("mqtt_topics", List.of("b/#"))
+                .build();
+        JWTClaimsSet verified = validator.validate(otherRealm.mint(otherClaims));
+        assertSame(realmB, validator.issuerOf(verified.getIssuer()));
+        assertEquals(List.of("b/#"),
+                TokenPermissions.fromClaims(verified, realmB.claimNames()).publishPatterns());
+
+        //signed by realm B's key, but claiming to come from realm A
+        String crossRealm = otherRealm.mint("sensor-2", List.of("#"), 60);
+        assertEquals(RejectReason.BAD_SIGNATURE, rejection(validator, crossRealm, TokenValidator.Stage.SIGNATURE));
+        String unknown = minter.mint(minter.claims("sensor-3", List.of(), 60).issuer("https://evil.example").build());
+        assertEquals(RejectReason.UNKNOWN_ISSUER, rejection(validator, unknown, TokenValidator.Stage.ISSUER));
+    }
+
+    @Test
+    public void testHeaderIsCheckedAgainstItsIssuer() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("issuers", "realm-a, realm-b");
+        props.setProperty("issuer.realm-a.jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("issuer.realm-a.jwks.url", "http://idp.invalid/a");
+        props.setProperty("issuer.realm-b.jwt.issuer", "https://idp.example.org/realms/other");
+        props.setProperty("issuer.realm-b.jwks.url", "http://idp.invalid/b");
+        props.setProperty("issuer.realm-b.jwt.algorithms", "ES256");
+        props.setProperty("jwt.audience", TokenMinter.AUDIENCE);
+        ExtensionConfig config = new ExtensionConfig(props);
+        List<ExtensionConfig> issuerConfigs = config.issuers();
+        TokenValidator validator = new TokenValidator(config, List.of(new Issuer(issuerConfigs.get(0), jwksManager),
+                new Issuer(issuerConfigs.get(1), jwksManager)), metrics);
+
+        assertNotNull(validator.validate(minter.mint("sensor-1", List.of("a/b"), 60)));
+        //RS256 is accepted for realm A, not for realm B
+        String otherRealm = minter.mint(minter.claims("sensor-1", List.of(), 60)
+                .issuer("https://idp.example.org/realms/other")
+                .build());
+        assertEquals(RejectReason.INVALID_HEADER, rejection(validator, otherRealm, TokenValidator.Stage.HEADER));
+        assertEquals(1, signaturesVerified());
+    }
+
+    @Test
+    public void testListedIssuerNeedsItsOwnIssuerAndKeySet() {
+        Properties props = new Properties();
+        props.setProperty("issuers", "realm-a");
+        props.setProperty("issuer.realm-a.jwt.issuer", TokenMinter.ISSUER);
+        props.setProperty("jwks.url", "http://idp.invalid/certs");
+        ExtensionConfig issuerConfig = new ExtensionConfig(props).issuers().get(0);
+        assertEquals(TokenMinter.ISSUER, issuerConfig.expectedIssuer());
+        assertThrows(IllegalArgumentException.class, issuerConfig::jwksUrl);
+    }
+}
@@ -0,0 +1,117 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicPermissionTrieTest {
+
+    @Test
+    public void testExactTopicMatches() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("smartocean/Austevoll/Aanderaa/sensor-1/temperature"));
+
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/temperature"));
+        assertFalse(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1"));
+        assertFalse(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/temperature/raw"));
+        assertFalse(trie.matchesTopic("smartocean/123"));
+    }
+
+    @Test
+    public void testPlusWildcardMatchesExactlyOneLevel() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("smartocean/Austevoll/Aanderaa/sensor-1/+"));
+
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/temperature"));
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/pressure"));
+        assertFalse(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1"));
+        assertFalse(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/pressure/raw"));
+    }
+
+    @Test
+    public void testHashWildcardMatchesAllRemainingLevels() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("smartocean/Austevoll/#"));
+
+        assertTrue(trie.matchesTopic("smartocean/Austevoll"));
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/temperature"));
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/W-sense/sensor-2/pressure"));
+        assertFalse(trie.matchesTopic("smartocean/Bergen/W-sense/sensor-2/pressure"));
+    }
+
+    @Test
+    public void testWildcardsInTheMiddle() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("smartocean/+/Aanderaa/#", "smartocean/Bergen/+/sensor-9"));
+
+        assertTrue(trie.matchesTopic("smartocean/Austevoll/Aanderaa/sensor-1/temperature"));
+        assertTrue(trie.matchesTopic("smartocean/Bergen/Aanderaa"));
+        assertTrue(trie.matchesTopic("smartocean/Bergen/W-sense/sensor-9"));
+        assertFalse(trie.matchesTopic("smartocean/Bergen/W-sense/sensor-1"));
+    }
+
+    @Test
+    public void testWildcardsAtFirstLevelDoNotMatchDollarTopics() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("#", "+/status"));
+
+        assertTrue(trie.matchesTopic("smartocean/anything"));
+        assertFalse(trie.matchesTopic("$SYS/broker/uptime"));
+        assertFalse(trie.matchesTopic("$SYS/status"));
+        assertTrue(TopicPermissionTrie.compile(List.of("$SYS/#")).matchesTopic("$SYS/broker/uptime"));
+    }
+
+    @Test
+    public void testFilterIsCoveredOnlyByBroaderOrEqualPattern() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("smartocean/Austevoll/#", "smartocean/Bergen/+/temperature"));
+
+        assertTrue(trie.coversFilter("smartocean/Austevoll/#"));
+        assertTrue(trie.coversFilter("smartocean/Austevoll/Aanderaa/sensor-1/+"));
+        assertTrue(trie.coversFilter("smartocean/Bergen/+/temperature"));
+        assertTrue(trie.coversFilter("smartocean/Bergen/sensor-3/temperature"));
+        assertFalse(trie.coversFilter("smartocean/#"));
+        assertFalse(trie.coversFilter("smartocean/Bergen/#"));
+        assertFalse(trie.coversFilter("smartocean/Bergen/+/+"));
+        assertFalse(trie.coversFilter("smartocean/+/Aanderaa"));
+    }
+
+    @Test
+    public void testInvalidAndBlankPatternsAreIgnored() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("", " ", "a/#/b", "a/b+", "valid/topic"));
+
+        assertEquals(1, trie.patternCount());
+        assertTrue(trie.matchesTopic("valid/topic"));
+        assertFalse(trie.matchesTopic("a/x/b"));
+    }
+
+    @Test
+    public void testEmptyLevels() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(List.of("a//b", "/c", "d/+"));
+
+        assertTrue(trie.matchesTopic("a//b"));
+        assertTrue(trie.matchesTopic("/c"));
+        assertTrue(trie.matchesTopic("d/"));
+        assertFalse(trie.matchesTopic("a/b"));
+    }
+
+    @Test
+    public void testManyPatterns() {
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            patterns.add("gateway/site-" + i + "/+/telemetry");
+        }
+        TopicPermissionTrie trie = TopicPermissionTrie.compile(patterns);
+
+        assertTrue(trie.matchesTopic("gateway/site-0/sensor/telemetry"));
+        assertTrue(trie.matchesTopic("gateway/site-499/sensor/telemetry"));
+        assertFalse(trie.matchesTopic("gateway/site-500/sensor/telemetry"));
+        assertEquals(500, trie.patternCount());
+    }
+
+    @Test
+    public void testCompileCsv() {
+        TopicPermissionTrie trie = TopicPermissionTrie.compileCsv("a/b,c/+");
+
+        assertTrue(trie.matchesTopic("a/b"));
+        assertTrue(trie.matchesTopic("c/d"));
+        assertSame(TopicPermissionTrie.EMPTY, TopicPermissionTrie.compileCsv(""));
+    }
+}
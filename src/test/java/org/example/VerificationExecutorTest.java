@@ -0,0 +1,79 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerificationExecutorTest {
+
+    //fills the threads and the queue with tasks waiting for the latch, the next one must be rejected
+    private static void assertBounded(VerificationExecutor executor, int threads, int queueSize) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(threads);
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < threads + queueSize; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                completed.incrementAndGet();
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(completed::incrementAndGet));
+
+        release.countDown();
+        executor.shutdown();
+        assertEquals(threads + queueSize, completed.get());
+    }
+
+    @Test
+    public void testThreadsAndQueueAreBounded() throws Exception {
+        assertBounded(VerificationExecutor.create(2, 3, false), 2, 3);
+    }
+
+    @Test
+    public void testWithoutQueueOnlyTheThreadsAreUsed() throws Exception {
+        assertBounded(VerificationExecutor.create(2, 0, false), 2, 0);
+    }
+
+    @Test
+    public void testVirtualThreadsKeepTheBounds() throws Exception {
+        //falls back to the platform thread pool before Java 21, the bounds are the same either way
+        assertBounded(VerificationExecutor.create(2, 3, true), 2, 3);
+    }
+
+    @Test
+    public void testVirtualThreadsAreUsedWhereAvailable() throws Exception {
+        VerificationExecutor executor = VerificationExecutor.create(1, 1, true);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(() -> {
+            thread.set(Thread.currentThread());
+            ran.countDown();
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        if (Runtime.version().feature() >= 21) {
+            assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread.get()));
+        } else {
+            assertTrue(thread.get().getName().startsWith("jwt-verification-"));
+            assertTrue(thread.get().isDaemon());
+        }
+    }
+
+    @Test
+    public void testThreadsMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> VerificationExecutor.create(0, 16, false));
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerifiedTokenCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private JWTClaimsSet claimsExpiringAt(long expiresAt) {
+        return new JWTClaimsSet.Builder()
+                .subject("sensor-1")
+                .expirationTime(new Date(expiresAt))
+                .build();
+    }
+
+    @Test
+    public void testReturnsCachedClaimsForSameToken() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, now::get);
+        JWTClaimsSet claims = claimsExpiringAt(now.get() + 60_000);
+
+        cache.put(TokenDigest.of("token-a"), claims);
+
+        assertSame(claims, cache.get(TokenDigest.of("token-a")));
+        assertNull(cache.get(TokenDigest.of("token-b")));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testEntryIsEvictedAtTokenExpiry() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, now::get);
+        cache.put(TokenDigest.of("token-a"), claimsExpiringAt(now.get() + 1_000));
+
+        now.addAndGet(999);
+        assertNotNull(cache.get(TokenDigest.of("token-a")));
+
+        now.addAndGet(1);
+        assertNull(cache.get(TokenDigest.of("token-a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAlreadyExpiredTokenIsNotCached() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, now::get);
+        cache.put(TokenDigest.of("token-a"), claimsExpiringAt(now.get() - 1));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(64, now::get);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(TokenDigest.of("token-" + i), claimsExpiringAt(now.get() + 60_000));
+        }
+
+        assertTrue(cache.size() <= 64, "cache grew to " + cache.size());
+    }
+
+    @Test
+    public void testFrequentlyUsedTokenSurvivesBurstOfOneOffTokens() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(16, now::get);
+        TokenDigest hot = TokenDigest.of("hot-token");
+        cache.put(hot, claimsExpiringAt(now.get() + 60_000));
+        for (int i = 0; i < 5; i++) {
+            cache.get(hot);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            cache.put(TokenDigest.of("one-off-" + i), claimsExpiringAt(now.get() + 60_000));
+        }
+
+        assertNotNull(cache.get(hot));
+    }
+}